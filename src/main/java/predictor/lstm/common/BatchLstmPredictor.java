@@ -0,0 +1,187 @@
+package predictor.lstm.common;
+
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.List;
+
+import predictor.lstm.utilities.ActivationBackend;
+
+/**
+ * Batched LSTM inference for one model over many input windows.
+ *
+ * <p>
+ * The weights are unboxed once into {@code double[]}. When the
+ * {@code jdk.incubator.vector} module is present, full-length windows are
+ * evaluated in SIMD lanes by {@code VectorLstmKernel}, one window per lane;
+ * remaining windows, and every window when the module or the kernel is
+ * absent, use the scalar loop, which is bit-identical to
+ * {@link LstmPredictor#predict(double[], java.util.ArrayList, java.util.ArrayList, java.util.ArrayList, java.util.ArrayList, java.util.ArrayList, java.util.ArrayList, java.util.ArrayList, java.util.ArrayList, HyperParameters)}.
+ * The vector path uses the lane-wise EXP and TANH operations and agrees with
+ * the scalar path to within a few ulps. It is only taken with the
+ * {@link ActivationBackend#EXACT} backend; the approximate backends always use
+ * the scalar loop so batched and single predictions stay identical.
+ *
+ * <p>
+ * The module is an incubator module, so the kernel lives in its own source
+ * set, {@code src/vector/java}, and is looked up reflectively: the main
+ * sources compile without it. To enable the vector path, compile that source
+ * set with {@code --add-modules jdk.incubator.vector} onto the same class path
+ * and run with the same option.
+ */
+public class BatchLstmPredictor {
+
+    private static final String VECTOR_KERNEL = "predictor.lstm.common.VectorLstmKernel";
+
+    /**
+     * VectorLstmKernel.predict, null if the module or the kernel is absent.
+     */
+    private static final MethodHandle VECTOR_PREDICT = findVectorKernel();
+
+    private static volatile boolean vectorEnabled = true;
+
+    private final double[] wi;
+    private final double[] wo;
+    private final double[] wz;
+    private final double[] rI;
+    private final double[] rO;
+    private final double[] rZ;
+    private final double ctInit;
+    private final double ytInit;
+    private final ActivationBackend activation;
+
+    /**
+     * Creates a predictor from a weight matrix in the usual order wi, wo, wz, ri,
+     * ro, rz, yt, ct. The yt and ct rows are not used for inference.
+     *
+     * @param val             the weight matrix
+     * @param hyperParameters provides the initial cell state and output and the
+     *                        activation backend
+     */
+    public BatchLstmPredictor(List<? extends List<Double>> val, HyperParameters hyperParameters) {
+        this.wi = unbox(val.get(0));
+        this.wo = unbox(val.get(1));
+        this.wz = unbox(val.get(2));
+        this.rI = unbox(val.get(3));
+        this.rO = unbox(val.get(4));
+        this.rZ = unbox(val.get(5));
+        this.ctInit = hyperParameters.getCtInit();
+        this.ytInit = hyperParameters.getYtInit();
+        this.activation = hyperParameters.getActivationBackend();
+    }
+
+    /**
+     * Whether predictions use the vector path.
+     *
+     * @return true if the vector module and kernel are present and the path is
+     *         enabled
+     */
+    public static boolean isVectorized() {
+        return VECTOR_PREDICT != null && vectorEnabled;
+    }
+
+    /**
+     * Enables or disables the vector path, e.g. to compare against the scalar
+     * results. Has no effect when the vector module or kernel is absent.
+     *
+     * @param enabled false to force the scalar path
+     */
+    public static void setVectorEnabled(boolean enabled) {
+        vectorEnabled = enabled;
+    }
+
+    /**
+     * Predicts one value per input window. Only the last window-size values of
+     * each row are used.
+     *
+     * @param data the input windows
+     * @return the predicted output of each window
+     */
+    public double[] predict(double[][] data) {
+        var result = new double[data.length];
+        int windowSize = this.wi.length;
+
+        var full = new int[data.length];
+        int fullCount = 0;
+        for (int i = 0; i < data.length; i++) {
+            if (data[i].length >= windowSize) {
+                full[fullCount++] = i;
+            } else {
+                result[i] = this.predict(data[i]);
+            }
+        }
+
+        int done = 0;
+        if (isVectorized() && this.activation == ActivationBackend.EXACT) {
+            done = this.predictVector(data, full, fullCount, result);
+        }
+        for (int k = done; k < fullCount; k++) {
+            result[full[k]] = this.predict(data[full[k]]);
+        }
+        return result;
+    }
+
+    /**
+     * Scalar prediction of a single window.
+     *
+     * @param inputData the input window
+     * @return the predicted output
+     */
+    public double predict(double[] inputData) {
+        var ct = this.ctInit;
+        var yt = this.ytInit;
+
+        int from = Math.max(0, inputData.length - this.wi.length);
+        for (int i = 0; from + i < inputData.length; i++) {
+            var xt = inputData[from + i];
+            var it = this.activation.sigmoid(this.wi[i] * xt + this.rI[i] * yt);
+            var ot = this.activation.sigmoid(this.wo[i] * xt + this.rO[i] * yt);
+            var zt = this.activation.tanh(this.wz[i] * xt + this.rZ[i] * yt);
+
+            ct = ct + it * zt;
+            yt = ot * this.activation.tanh(ct);
+        }
+        return yt;
+    }
+
+    private int predictVector(double[][] data, int[] indices, int count, double[] result) {
+        try {
+            return (int) VECTOR_PREDICT.invokeExact(this.wi, this.wo, this.wz, this.rI, this.rO, this.rZ, //
+                    this.ctInit, this.ytInit, data, indices, count, result);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Looks up the vector kernel. Loading it without the module would fail, so
+     * the module is checked first.
+     */
+    private static MethodHandle findVectorKernel() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isEmpty()) {
+            return null;
+        }
+        try {
+            var type = MethodType.methodType(int.class, double[].class, double[].class, double[].class,
+                    double[].class, double[].class, double[].class, double.class, double.class, double[][].class,
+                    int[].class, int.class, double[].class);
+            return MethodHandles.lookup().findStatic(Class.forName(VECTOR_KERNEL), "predict", type);
+        } catch (ReflectiveOperationException | LinkageError e) {
+            return null;
+        }
+    }
+
+    public int getWindowSize() {
+        return this.wi.length;
+    }
+
+    private static double[] unbox(List<Double> values) {
+        var result = new double[values.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = values.get(i);
+        }
+        return result;
+    }
+}
@@ -1,11 +1,19 @@
 package predictor.lstm.common;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.io.Serializable;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 
-public class HyperParameters implements Serializable {
+import predictor.lstm.util.CandidateRetention;
+import predictor.lstm.util.Optimizer;
+import predictor.lstm.utilities.ActivationBackend;
+import predictor.lstm.validator.ValidationResult;
+
+public class HyperParameters implements Serializable, Cloneable {
 
     private OffsetDateTime lastTrainedDate;
 
@@ -15,6 +23,8 @@ public class HyperParameters implements Serializable {
 
     private static final long serialVersionUID = 1L;
 
+    private static final int DEFAULT_CANDIDATE_COUNT = 10;
+
     private final int maxItterFactor = 10;
 
     private double learningRateUpperLimit = 0.02;
@@ -82,6 +92,14 @@ public class HyperParameters implements Serializable {
 
     private String modelName = "";
 
+    private CandidateRetention candidateRetention = CandidateRetention.topK(DEFAULT_CANDIDATE_COUNT);
+
+    private ActivationBackend activationBackend = ActivationBackend.EXACT;
+
+    private Long dropoutSeed = null;
+
+    private Optimizer optimizer = Optimizer.LEGACY_ADAGRAD;
+
     public HyperParameters() {
     }
 
@@ -317,6 +335,63 @@ public class HyperParameters implements Serializable {
         this.targetError = val;
     }
 
+    public void setCandidateRetention(CandidateRetention val) {
+        this.candidateRetention = val;
+    }
+
+    /**
+     * Policy for the candidates kept per slot during training. Files saved before
+     * this setting existed deserialize it as null; they get the default.
+     *
+     * @return the candidate retention policy
+     */
+    public CandidateRetention getCandidateRetention() {
+        return this.candidateRetention != null ? this.candidateRetention : CandidateRetention.topK(DEFAULT_CANDIDATE_COUNT);
+    }
+
+    public void setActivationBackend(ActivationBackend val) {
+        this.activationBackend = val;
+    }
+
+    /**
+     * Activation implementation used for training and prediction. Files saved
+     * before this setting existed deserialize it as null; they get
+     * {@link ActivationBackend#EXACT}.
+     *
+     * @return the activation backend
+     */
+    public ActivationBackend getActivationBackend() {
+        return this.activationBackend != null ? this.activationBackend : ActivationBackend.EXACT;
+    }
+
+    /**
+     * Seeds the dropout decisions of training so runs can be reproduced. Null, the
+     * default, draws fresh decisions every run.
+     *
+     * @param val the seed, or null
+     */
+    public void setDropoutSeed(Long val) {
+        this.dropoutSeed = val;
+    }
+
+    public Long getDropoutSeed() {
+        return this.dropoutSeed;
+    }
+
+    public void setOptimizer(Optimizer val) {
+        this.optimizer = val;
+    }
+
+    /**
+     * Weight update rule used for training. Files saved before this setting
+     * existed deserialize it as null; they get {@link Optimizer#LEGACY_ADAGRAD}.
+     *
+     * @return the optimizer
+     */
+    public Optimizer getOptimizer() {
+        return this.optimizer != null ? this.optimizer : Optimizer.LEGACY_ADAGRAD;
+    }
+
     public int getMaxItter() {
         return this.maxItterFactor;
     }
@@ -408,6 +483,170 @@ public class HyperParameters implements Serializable {
         System.out.println(string);
     }
 
+    /**
+     * Copy of the current state for a training batch. Training and validation
+     * tasks read from a snapshot while this instance is only changed by
+     * {@link #commit}, so tasks running at the same time never see each other's
+     * writes.
+     *
+     * <p>
+     * The settings and counters are copied, as are the model, error and rms
+     * lists; the models in them are shared. A committed model is never changed,
+     * and training only reads its initial weights, so the cost does not grow
+     * with the size of the models.
+     *
+     * @return the copy
+     */
+    public synchronized HyperParameters snapshot() {
+        return this.shallowCopy();
+    }
+
+    /**
+     * Copy of the current state for a checkpoint, shallow like
+     * {@link #snapshot}, so it is cheap enough to take after every batch.
+     *
+     * @return the copy
+     */
+    public synchronized HyperParameters checkpointCopy() {
+        return this.shallowCopy();
+    }
+
+    private HyperParameters shallowCopy() {
+        try {
+            var copy = (HyperParameters) super.clone();
+            copy.modelTrend = new ArrayList<>(this.modelTrend);
+            copy.modelSeasonality = new ArrayList<>(this.modelSeasonality);
+            copy.allModelErrorTrend = new ArrayList<>(this.allModelErrorTrend);
+            copy.allModelErrorSeasonality = new ArrayList<>(this.allModelErrorSeasonality);
+            copy.rmsErrorTrend = new ArrayList<>(this.rmsErrorTrend);
+            copy.rmsErrorSeasonality = new ArrayList<>(this.rmsErrorSeasonality);
+            return copy;
+        } catch (CloneNotSupportedException e) {
+            throw new IllegalStateException("Cannot copy hyperparameters", e);
+        }
+    }
+
+    /**
+     * Applies the results of a validation round in one step: the per-slot errors,
+     * the overall error and the chosen models of each result. A result without
+     * slots only adds its empty model list.
+     *
+     * @param results the results, at most one per model type
+     */
+    public synchronized void commit(ValidationResult... results) {
+        for (var result : results) {
+            var weights = new ArrayList<>(result.optimumWeights());
+            boolean scored = !result.slotErrors().isEmpty();
+            switch (result.modelType().toLowerCase()) {
+                case "trend" -> {
+                    if (scored) {
+                        this.allModelErrorTrend = new ArrayList<>(result.slotErrors());
+                        this.rmsErrorTrend.add(result.rmsError());
+                    }
+                    this.modelTrend.add(weights);
+                }
+                case "seasonality" -> {
+                    if (scored) {
+                        this.allModelErrorSeasonality = new ArrayList<>(result.slotErrors());
+                        this.rmsErrorSeasonality.add(result.rmsError());
+                    }
+                    this.modelSeasonality.add(weights);
+                }
+                default -> throw new IllegalArgumentException("Invalid model type: " + result.modelType());
+            }
+        }
+    }
+
+    /**
+     * Writes the settings and training state, everything but the models and
+     * errors, for {@link ModelFormat}. Fields are written in a fixed order;
+     * {@link #readSettings} reads them back in the same order.
+     *
+     * @param out the output
+     * @throws IOException on write errors
+     */
+    void writeSettings(DataOutput out) throws IOException {
+        out.writeUTF(this.modelName != null ? this.modelName : "");
+        out.writeBoolean(this.lastTrainedDate != null);
+        if (this.lastTrainedDate != null) {
+            out.writeUTF(this.lastTrainedDate.toString());
+        }
+
+        for (double value : new double[] { this.learningRateUpperLimit, this.learnignRateLowerLimit,
+                this.dataSplitTrain, this.dataSplitValidate, this.wiInit, this.woInit, this.wzInit, this.riInit,
+                this.roInit, this.rzInit, this.ytInit, this.ctInit, this.wfInit, this.rfInit, this.targetError,
+                this.scalingMin, this.scalingMax, this.mean, this.standardDeviation }) {
+            out.writeDouble(value);
+        }
+        for (int value : new int[] { this.interval, this.batchSize, this.batchTrack, this.epoch, this.epochTrack,
+                this.trendPoints, this.windowSizeSeasonality, this.windowSizeTrend, this.gdIterration, this.count,
+                this.outerLoopCount }) {
+            out.writeInt(value);
+        }
+
+        var retention = this.getCandidateRetention();
+        out.writeUTF(retention.getMode().name());
+        out.writeInt(retention.getCapacity());
+        out.writeInt(retention.getStride());
+        out.writeUTF(this.getActivationBackend().name());
+        out.writeUTF(this.getOptimizer().name());
+        out.writeBoolean(this.dropoutSeed != null);
+        if (this.dropoutSeed != null) {
+            out.writeLong(this.dropoutSeed);
+        }
+    }
+
+    /**
+     * Reads the fields written by {@link #writeSettings}.
+     *
+     * @param in the input
+     * @throws IOException on read errors
+     */
+    void readSettings(DataInput in) throws IOException {
+        this.modelName = in.readUTF();
+        this.lastTrainedDate = in.readBoolean() ? OffsetDateTime.parse(in.readUTF()) : null;
+
+        this.learningRateUpperLimit = in.readDouble();
+        this.learnignRateLowerLimit = in.readDouble();
+        this.dataSplitTrain = in.readDouble();
+        this.dataSplitValidate = in.readDouble();
+        this.wiInit = in.readDouble();
+        this.woInit = in.readDouble();
+        this.wzInit = in.readDouble();
+        this.riInit = in.readDouble();
+        this.roInit = in.readDouble();
+        this.rzInit = in.readDouble();
+        this.ytInit = in.readDouble();
+        this.ctInit = in.readDouble();
+        this.wfInit = in.readDouble();
+        this.rfInit = in.readDouble();
+        this.targetError = in.readDouble();
+        this.scalingMin = in.readDouble();
+        this.scalingMax = in.readDouble();
+        this.mean = in.readDouble();
+        this.standardDeviation = in.readDouble();
+
+        this.interval = in.readInt();
+        this.batchSize = in.readInt();
+        this.batchTrack = in.readInt();
+        this.epoch = in.readInt();
+        this.epochTrack = in.readInt();
+        this.trendPoints = in.readInt();
+        this.windowSizeSeasonality = in.readInt();
+        this.windowSizeTrend = in.readInt();
+        this.gdIterration = in.readInt();
+        this.count = in.readInt();
+        this.outerLoopCount = in.readInt();
+
+        var mode = CandidateRetention.Mode.valueOf(in.readUTF());
+        int capacity = in.readInt();
+        int stride = in.readInt();
+        this.candidateRetention = CandidateRetention.of(mode, capacity, stride);
+        this.activationBackend = ActivationBackend.valueOf(in.readUTF());
+        this.optimizer = Optimizer.valueOf(in.readUTF());
+        this.dropoutSeed = in.readBoolean() ? in.readLong() : null;
+    }
+
     public void update() {
         int minErrorIndTrend = this.getMinimumErrorModelTrend();
         int minErrorIndSeasonlity = this.getMinimumErrorModelSeasonality();
@@ -14,11 +14,29 @@ import java.util.List;
 import predictor.lstm.data.TimeSeriesData;
 import predictor.lstm.preprocessing.TimeIndexRegularizer;
 import predictor.lstm.preprocessingpipeline.PreprocessingPipeImpl;
-import predictor.lstm.utilities.MathUtils;
 
 public class LstmPredictor {
     public static ArrayList<Double> predictSeasonality(ArrayList<Double> data, ArrayList<OffsetDateTime> date,
                                                        HyperParameters hyperParameters) {
+        return predictSeasonality(data, date, hyperParameters, hyperParameters.getBestModelSeasonality());
+    }
+
+    /**
+     * Predicts the seasonality with the best model of a {@link ModelStore}, which
+     * is read from the file slot by slot.
+     *
+     * @param data  the data
+     * @param date  the dates of the data
+     * @param store the model
+     * @return the prediction
+     */
+    public static ArrayList<Double> predictSeasonality(ArrayList<Double> data, ArrayList<OffsetDateTime> date,
+                                                       ModelStore store) {
+        return predictSeasonality(data, date, store.getHyperParameters(), store.getBestModelSeasonality());
+    }
+
+    private static ArrayList<Double> predictSeasonality(ArrayList<Double> data, ArrayList<OffsetDateTime> date,
+                                                        HyperParameters hyperParameters, List<ArrayList<ArrayList<Double>>> allModel) {
         int interval = hyperParameters.getInterval();
         TimeSeriesData regularizedInput = TimeIndexRegularizer.regularize(date, data, interval);
 
@@ -34,7 +52,6 @@ public class LstmPredictor {
         var normalized = (double[][]) preprocessing//
                 .normalize()//
                 .execute();
-        var allModel = hyperParameters.getBestModelSeasonality();
         var predicted = predictPre(to2DArrayList(normalized), allModel, hyperParameters);
         preprocessing.setData(to1DArray(predicted))//
                 .setMean(DataStatistics.getMean(resized))
@@ -48,6 +65,26 @@ public class LstmPredictor {
 
     public static ArrayList<Double> predictTrend(ArrayList<Double> data, ArrayList<OffsetDateTime> date,
                                                  ZonedDateTime until, HyperParameters hyperParameters) {
+        return predictTrend(data, date, until, hyperParameters, hyperParameters.getBestModelTrend());
+    }
+
+    /**
+     * Predicts the trend with the best model of a {@link ModelStore}, which is
+     * read from the file slot by slot.
+     *
+     * @param data  the data
+     * @param date  the dates of the data
+     * @param until the time of the last value
+     * @param store the model
+     * @return the prediction
+     */
+    public static ArrayList<Double> predictTrend(ArrayList<Double> data, ArrayList<OffsetDateTime> date,
+                                                 ZonedDateTime until, ModelStore store) {
+        return predictTrend(data, date, until, store.getHyperParameters(), store.getBestModelTrend());
+    }
+
+    private static ArrayList<Double> predictTrend(ArrayList<Double> data, ArrayList<OffsetDateTime> date,
+                                                  ZonedDateTime until, HyperParameters hyperParameters, List<ArrayList<ArrayList<Double>>> val) {
         int interval = hyperParameters.getInterval();
         TimeSeriesData regularizedInput = TimeIndexRegularizer.regularize(date, data, interval);
 
@@ -71,7 +108,6 @@ public class LstmPredictor {
                 .execute());
 
         var predictionFor = until.plusMinutes(hyperParameters.getInterval());
-        var val = hyperParameters.getBestModelTrend();
         for (int i = 0; i < hyperParameters.getTrendPoint(); i++) {
             var temp = predictionFor.plusMinutes(i * hyperParameters.getInterval());
 
@@ -196,7 +232,7 @@ public class LstmPredictor {
      *         each input data instance.
      */
     public static ArrayList<Double> predictPre(ArrayList<ArrayList<Double>> inputData,
-                                               ArrayList<ArrayList<ArrayList<Double>>> val, HyperParameters hyperParameters) {
+                                               List<? extends List<ArrayList<Double>>> val, HyperParameters hyperParameters) {
         var result = new ArrayList<Double>();
         for (var i = 0; i < inputData.size(); i++) {
 
@@ -233,24 +269,17 @@ public class LstmPredictor {
      * @param hyperParameters instance of class HyperParamters data
      *
      * @return An ArrayList of Double values representing the predicted output for
-     *         each input data point.
+     *         each input data point. The windows are evaluated in a batch by
+     *         {@link BatchLstmPredictor}.
      *
      */
     public static ArrayList<Double> predictPre(double[][] data, List<ArrayList<Double>> val,
                                                HyperParameters hyperParameters) {
-        var result = new ArrayList<Double>();
+        var predicted = new BatchLstmPredictor(val, hyperParameters).predict(data);
 
-        var wi = val.get(0);
-        var wo = val.get(1);
-        var wz = val.get(2);
-        var rI = val.get(3);
-        var rO = val.get(4);
-        var rZ = val.get(5);
-        var yt = val.get(6);
-        var ct = val.get(7);
-
-        for (var i = 0; i < data.length; i++) {
-            result.add(predict(data[i], wi, wo, wz, rI, rO, rZ, yt, ct, hyperParameters));
+        var result = new ArrayList<Double>(predicted.length);
+        for (var value : predicted) {
+            result.add(value);
         }
         return result;
     }
@@ -291,6 +320,7 @@ public class LstmPredictor {
         int windowSize = wi.size();
         List<Double> standData = inputData.subList(Math.max(0, inputData.size() - windowSize), inputData.size());
 
+        var activation = hyperParameters.getActivationBackend();
         boolean isTraining = false;
         double dropoutRate = 0.2;
 
@@ -304,12 +334,12 @@ public class LstmPredictor {
                 dropoutScale = 1.0 / (1.0 - dropoutRate);
             }
 
-            var it = MathUtils.sigmoid(wi.get(i) * xt * dropoutScale + rI.get(i) * yTMinusOne);
-            var ot = MathUtils.sigmoid(wo.get(i) * xt * dropoutScale + rO.get(i) * yTMinusOne);
-            var zt = MathUtils.tanh(wz.get(i) * xt * dropoutScale + rZ.get(i) * yTMinusOne);
+            var it = activation.sigmoid(wi.get(i) * xt * dropoutScale + rI.get(i) * yTMinusOne);
+            var ot = activation.sigmoid(wo.get(i) * xt * dropoutScale + rO.get(i) * yTMinusOne);
+            var zt = activation.tanh(wz.get(i) * xt * dropoutScale + rZ.get(i) * yTMinusOne);
 
             ct = ctMinusOne + it * zt;
-            yt = ot * MathUtils.tanh(ct);
+            yt = ot * activation.tanh(ct);
         }
         return yt;
     }
@@ -324,6 +354,7 @@ public class LstmPredictor {
         int from = Math.max(0, inputData.length - windowSize);
         double[] standData = Arrays.copyOfRange(inputData, from, inputData.length);
 
+        var activation = hyperParameters.getActivationBackend();
         boolean isTraining = false;
         double dropoutRate = 0.2;
 
@@ -337,12 +368,12 @@ public class LstmPredictor {
                 dropoutScale = 1.0 / (1.0 - dropoutRate);
             }
 
-            var it = MathUtils.sigmoid(wi.get(i) * xt * dropoutScale + rI.get(i) * yTMinusOne);
-            var ot = MathUtils.sigmoid(wo.get(i) * xt * dropoutScale + rO.get(i) * yTMinusOne);
-            var zt = MathUtils.tanh(wz.get(i) * xt * dropoutScale + rZ.get(i) * yTMinusOne);
+            var it = activation.sigmoid(wi.get(i) * xt * dropoutScale + rI.get(i) * yTMinusOne);
+            var ot = activation.sigmoid(wo.get(i) * xt * dropoutScale + rO.get(i) * yTMinusOne);
+            var zt = activation.tanh(wz.get(i) * xt * dropoutScale + rZ.get(i) * yTMinusOne);
 
             ct = ctMinusOne + it * zt;
-            yt = ot * MathUtils.tanh(ct);
+            yt = ot * activation.tanh(ct);
         }
         return yt;
     }
@@ -381,16 +412,17 @@ public class LstmPredictor {
         var yt = hyperParameters.getYtInit();
 
         var standData = inputData;
+        var activation = hyperParameters.getActivationBackend();
 
         for (var i = 0; i < standData.size(); i++) {
             var ctMinusOne = ct;
             var ytMinusOne = yt;
             var xt = standData.get(i);
-            var it = MathUtils.sigmoid(rI.get(i) * ytMinusOne);
-            var ot = MathUtils.sigmoid(rO.get(i) * ytMinusOne);
-            var zt = MathUtils.tanh(wz.get(i) * xt);
+            var it = activation.sigmoid(rI.get(i) * ytMinusOne);
+            var ot = activation.sigmoid(rO.get(i) * ytMinusOne);
+            var zt = activation.tanh(wz.get(i) * xt);
             ct = ctMinusOne + it * zt;
-            yt = ot * MathUtils.tanh(ct);
+            yt = ot * activation.tanh(ct);
         }
         return yt;
     }
@@ -0,0 +1,462 @@
+package predictor.lstm.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * A model stored as a directory: a small metadata file and one weight segment
+ * per candidate model.
+ *
+ * <pre>
+ * &lt;name&gt;.model/
+ *   meta                      settings, training state, errors and the segment names
+ *   trend-&lt;digest&gt;        one candidate: a block as in {@link ModelFormat}
+ *   seasonality-&lt;digest&gt;
+ *   journal                   optional, checkpoints since the last save, see {@link ModelJournal}
+ * </pre>
+ *
+ * Both kinds of file start with a 16-byte header: int magic, short version,
+ * short flags, int payload length, int CRC32 of the payload.
+ *
+ * <p>
+ * Segments are named by a digest of their content and never change once
+ * written. Within a segment the slots are addressable by offset, see
+ * {@link ModelStore}. A save writes only the segments that do not exist yet and
+ * then replaces the metadata file, so a batch that adds one candidate per model
+ * type writes two segments and the metadata, not every earlier candidate.
+ * Files are replaced by rename, so a reader or a crash sees either the old or
+ * the new model. Segments referenced by neither the new nor the previous
+ * metadata are deleted after the metadata, so a reader that has just read the
+ * previous metadata can still open its segments. A save discards the journal
+ * after it replaces the metadata; a journal left by a crash in between names
+ * the CRC of the previous metadata and is not replayed.
+ */
+public class ModelDirectory {
+
+    /**
+     * Suffix of a model directory.
+     */
+    public static final String SUFFIX = ".model";
+
+    static final String META = "meta";
+
+    static final String JOURNAL = "journal";
+
+    /**
+     * "LSMD" in ASCII.
+     */
+    static final int META_MAGIC = 0x4C534D44;
+
+    /**
+     * "LSSG" in ASCII.
+     */
+    static final int SEGMENT_MAGIC = 0x4C535347;
+
+    static final short VERSION = 1;
+
+    static final int HEADER_SIZE = 16;
+
+    private static final String TREND = "trend";
+    private static final String SEASONALITY = "seasonality";
+    private static final String TEMP_SUFFIX = ".tmp";
+
+    private final Path path;
+
+    /**
+     * Creates a handle; nothing is read or written.
+     *
+     * @param path the directory
+     */
+    public ModelDirectory(Path path) {
+        this.path = path;
+    }
+
+    public Path getPath() {
+        return this.path;
+    }
+
+    /**
+     * Whether a model was saved in the directory.
+     *
+     * @return true if the metadata file exists
+     */
+    public boolean exists() {
+        return Files.isRegularFile(this.path.resolve(META));
+    }
+
+    /**
+     * Saves the hyperparameters with their models.
+     *
+     * @param hyperParameters the hyperparameters
+     * @return the number of segments written; segments already present are not
+     *         written again
+     * @throws IOException on write errors
+     */
+    public int save(HyperParameters hyperParameters) throws IOException {
+        Files.createDirectories(this.path);
+        int written = 0;
+        var trend = new ArrayList<String>();
+        var seasonality = new ArrayList<String>();
+        for (var model : hyperParameters.getAllModelsTrend()) {
+            written += this.saveSegment(TREND, model, trend);
+        }
+        for (var model : hyperParameters.getAllModelSeasonality()) {
+            written += this.saveSegment(SEASONALITY, model, seasonality);
+        }
+        var referenced = new HashSet<String>(trend);
+        referenced.addAll(seasonality);
+        referenced.add(META);
+        referenced.addAll(this.previousSegments());
+
+        var meta = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(meta)) {
+            var settings = new ByteArrayOutputStream();
+            try (var settingsOut = new DataOutputStream(settings)) {
+                hyperParameters.writeSettings(settingsOut);
+            }
+            out.writeInt(settings.size());
+            settings.writeTo(out);
+            writeDoubles(out, hyperParameters.getAllModelErrorTrend());
+            writeDoubles(out, hyperParameters.getAllModelErrorSeason());
+            writeDoubles(out, hyperParameters.getRmsErrorTrend());
+            writeDoubles(out, hyperParameters.getRmsErrorSeasonality());
+            writeNames(out, trend);
+            writeNames(out, seasonality);
+        }
+        writeAtomically(this.path.resolve(META), frame(META_MAGIC, meta.toByteArray()));
+        Files.deleteIfExists(this.journalPath());
+        this.deleteUnreferenced(referenced);
+        return written;
+    }
+
+    /**
+     * Loads the hyperparameters with all their models, including the
+     * checkpoints of a {@link ModelJournal}.
+     *
+     * @return the hyperparameters
+     * @throws IOException if a file is missing, truncated or corrupt
+     */
+    public HyperParameters load() throws IOException {
+        var meta = this.readMeta();
+        var hyperParameters = meta.hyperParameters();
+        for (var name : meta.trend()) {
+            hyperParameters.getAllModelsTrend().add(this.readSegment(name));
+        }
+        for (var name : meta.seasonality()) {
+            hyperParameters.getAllModelSeasonality().add(this.readSegment(name));
+        }
+        return ModelJournal.replay(this.journalPath(), meta.crc(), hyperParameters);
+    }
+
+    /**
+     * Writes the model, as {@link #load} reads it, to a single file in
+     * {@link ModelFormat}. The file is replaced atomically.
+     *
+     * @param file    the file to write
+     * @param deflate whether to deflate the payload
+     * @throws IOException if the model cannot be read or the file written
+     */
+    public void export(Path file, boolean deflate) throws IOException {
+        writeAtomically(file, ModelFormat.encode(this.load(), deflate));
+    }
+
+    /**
+     * Whether there are journal records on top of the last save.
+     *
+     * @return true if the journal holds at least one record
+     * @throws IOException on read errors
+     */
+    boolean hasJournalRecords() throws IOException {
+        var journal = this.journalPath();
+        return Files.isRegularFile(journal) && Files.size(journal) > ModelJournal.HEADER_SIZE;
+    }
+
+    /**
+     * Contents of the metadata file.
+     *
+     * @param hyperParameters settings and errors, without models
+     * @param trend           segment names of the trend candidates, in order
+     * @param seasonality     segment names of the seasonality candidates, in
+     *                        order
+     * @param crc             the CRC32 of the metadata, identifying the save
+     */
+    record Meta(HyperParameters hyperParameters, List<String> trend, List<String> seasonality, int crc) {
+    }
+
+    Meta readMeta() throws IOException {
+        var file = this.path.resolve(META);
+        var framed = unframe(META_MAGIC, ByteBuffer.wrap(Files.readAllBytes(file)), file);
+        framed.checkCrc();
+        var payload = framed.payload();
+        try {
+            var settings = new byte[payload.getInt()];
+            payload.get(settings);
+            var hyperParameters = new HyperParameters();
+            try (var in = new DataInputStream(new ByteArrayInputStream(settings))) {
+                hyperParameters.readSettings(in);
+            }
+            hyperParameters.setAllModelErrorTrend(ModelFormat.readDoubles(payload));
+            hyperParameters.setAllModelErrorSeason(ModelFormat.readDoubles(payload));
+            hyperParameters.getRmsErrorTrend().addAll(ModelFormat.readDoubles(payload));
+            hyperParameters.getRmsErrorSeasonality().addAll(ModelFormat.readDoubles(payload));
+            return new Meta(hyperParameters, readNames(payload), readNames(payload), framed.crc());
+        } catch (BufferUnderflowException | IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Corrupt model metadata " + file, e);
+        }
+    }
+
+    /**
+     * CRC32 of the metadata, from its header only.
+     */
+    int readMetaCrc() throws IOException {
+        var file = this.path.resolve(META);
+        try (var in = new DataInputStream(Files.newInputStream(file))) {
+            var header = new byte[HEADER_SIZE];
+            in.readFully(header);
+            return unframeHeader(META_MAGIC, ByteBuffer.wrap(header), file).getInt(12);
+        }
+    }
+
+    /**
+     * Total size of the files of the last save, without the journal.
+     */
+    long size() throws IOException {
+        var meta = this.readMeta();
+        long size = Files.size(this.path.resolve(META));
+        for (var name : new HashSet<>(meta.trend())) {
+            size += Files.size(this.segmentPath(name));
+        }
+        for (var name : new HashSet<>(meta.seasonality())) {
+            size += Files.size(this.segmentPath(name));
+        }
+        return size;
+    }
+
+    Path segmentPath(String name) {
+        return this.path.resolve(name);
+    }
+
+    Path journalPath() {
+        return this.path.resolve(JOURNAL);
+    }
+
+    private ArrayList<ArrayList<ArrayList<Double>>> readSegment(String name) throws IOException {
+        var file = this.segmentPath(name);
+        var framed = unframe(SEGMENT_MAGIC, ByteBuffer.wrap(Files.readAllBytes(file)), file);
+        framed.checkCrc();
+        try {
+            return ModelFormat.readModel(framed.payload());
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt model segment " + file, e);
+        }
+    }
+
+    private int saveSegment(String type, List<ArrayList<ArrayList<Double>>> model, List<String> names)
+            throws IOException {
+        var block = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(block)) {
+            ModelFormat.writeModel(out, model);
+        }
+        var bytes = block.toByteArray();
+        var name = type + "-" + digest(bytes);
+        names.add(name);
+
+        var file = this.segmentPath(name);
+        if (Files.exists(file)) {
+            return 0;
+        }
+        writeAtomically(file, frame(SEGMENT_MAGIC, bytes));
+        return 1;
+    }
+
+    /**
+     * Segment names of the metadata being replaced, none if there is none or it
+     * cannot be read.
+     */
+    private List<String> previousSegments() {
+        if (!this.exists()) {
+            return List.of();
+        }
+        try {
+            var meta = this.readMeta();
+            var names = new ArrayList<String>(meta.trend());
+            names.addAll(meta.seasonality());
+            return names;
+        } catch (IOException e) {
+            return List.of();
+        }
+    }
+
+    private void deleteUnreferenced(HashSet<String> referenced) throws IOException {
+        try (var files = Files.list(this.path)) {
+            for (var file : (Iterable<Path>) files::iterator) {
+                if (!referenced.contains(file.getFileName().toString())) {
+                    try {
+                        Files.deleteIfExists(file);
+                    } catch (IOException e) {
+                        // e.g. still mapped on some platforms; retried by the next save
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Adds the header to a payload.
+     */
+    static byte[] frame(int magic, byte[] payload) {
+        var crc = new CRC32();
+        crc.update(payload);
+        return ByteBuffer.allocate(HEADER_SIZE + payload.length)//
+                .putInt(magic)//
+                .putShort(VERSION)//
+                .putShort((short) 0)//
+                .putInt(payload.length)//
+                .putInt((int) crc.getValue())//
+                .put(payload)//
+                .array();
+    }
+
+    /**
+     * Payload of a file with the CRC32 from its header.
+     *
+     * @param payload the payload, positioned at its start
+     * @param crc     the expected CRC32 of the payload
+     * @param path    the file, for messages
+     */
+    record Framed(ByteBuffer payload, int crc, Path path) {
+
+        /**
+         * Compares the CRC32 of the payload with the one of the header.
+         *
+         * @throws IOException on a mismatch
+         */
+        void checkCrc() throws IOException {
+            var crc32 = new CRC32();
+            crc32.update(this.payload.duplicate());
+            if ((int) crc32.getValue() != this.crc) {
+                throw new IOException("Model file checksum mismatch: " + this.path);
+            }
+        }
+    }
+
+    /**
+     * Checks the header of a file and returns its payload. The CRC is not
+     * checked here, so mapped files are not read in full.
+     */
+    static Framed unframe(int magic, ByteBuffer file, Path path) throws IOException {
+        unframeHeader(magic, file, path);
+        int length = file.getInt(8);
+        if (length != file.limit() - HEADER_SIZE) {
+            throw new IOException("Truncated model file " + path);
+        }
+        return new Framed(file.slice(HEADER_SIZE, length), file.getInt(12), path);
+    }
+
+    private static ByteBuffer unframeHeader(int magic, ByteBuffer file, Path path) throws IOException {
+        if (file.limit() < HEADER_SIZE || file.getInt(0) != magic) {
+            throw new IOException("Not a model file: " + path);
+        }
+        short version = file.getShort(4);
+        if (version > VERSION) {
+            throw new IOException("Unsupported model file version " + version + ": " + path);
+        }
+        return file;
+    }
+
+    /**
+     * Writes a file through a temporary file that is synced and then renamed
+     * over it, so after a crash or power loss the file has either its old or its
+     * new content.
+     */
+    static void writeAtomically(Path file, byte[] bytes) throws IOException {
+        var temp = file.resolveSibling(file.getFileName() + TEMP_SUFFIX);
+        try (var channel = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            var buffer = ByteBuffer.wrap(bytes);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            // Without this the rename can reach the disk before the data
+            channel.force(true);
+        }
+        try {
+            Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+        } catch (AtomicMoveNotSupportedException e) {
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+        }
+        syncDirectory(file.getParent());
+    }
+
+    /**
+     * Syncs a directory, so a rename in it is durable. Not every platform can
+     * open a directory; there the rename is left to the file system.
+     */
+    private static void syncDirectory(Path directory) {
+        try (var channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // e.g. on Windows
+        }
+    }
+
+    private static String digest(byte[] bytes) {
+        try {
+            var sha = MessageDigest.getInstance("SHA-256").digest(bytes);
+            return HexFormat.of().formatHex(sha, 0, 16);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static void writeDoubles(DataOutputStream out, List<Double> values) throws IOException {
+        out.writeInt(values.size());
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static void writeNames(DataOutputStream out, List<String> names) throws IOException {
+        out.writeInt(names.size());
+        for (var name : names) {
+            var bytes = name.getBytes(StandardCharsets.US_ASCII);
+            out.writeShort(bytes.length);
+            out.write(bytes);
+        }
+    }
+
+    private static List<String> readNames(ByteBuffer in) {
+        int count = ModelFormat.checkedCount(in.getInt(), in, Short.BYTES);
+        var names = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            var bytes = new byte[ModelFormat.checkedCount(in.getShort(), in, 1)];
+            in.get(bytes);
+            var name = new String(bytes, StandardCharsets.US_ASCII);
+            if (name.contains("/") || name.contains("\\") || name.startsWith(".")) {
+                throw new IllegalArgumentException("Invalid segment name " + name);
+            }
+            names.add(name);
+        }
+        return names;
+    }
+}
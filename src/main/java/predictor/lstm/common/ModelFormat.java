@@ -0,0 +1,353 @@
+package predictor.lstm.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Single-file binary format of a trained model. Models are saved as a
+ * {@link ModelDirectory}; this format remains readable for migration and
+ * serves to export a model as one file, see {@link ReadAndSaveModels#export}.
+ *
+ * <p>
+ * A file is a fixed header followed by the payload:
+ *
+ * <pre>
+ * header   int magic "LSTM", short version, short flags,
+ *          int stored payload length, int payload length, int CRC32 of the stored payload
+ * payload  int settings length, settings     (see HyperParameters#writeSettings)
+ *          4 error lists                      int n, n doubles each
+ *          trend models, seasonality models   int models, one block per model
+ * block    int slots, int rows, int cols, slots * rows * cols doubles
+ *          or, for ragged models, cols = -1 and per slot: int rows, per row: int cols, cols doubles
+ * </pre>
+ *
+ * All numbers are big-endian. With {@link #FLAG_DEFLATE} the payload is stored
+ * deflated. The weights of a rectangular model are one primitive block, so
+ * reading them needs no per-value parsing and no intermediate copies of the
+ * file.
+ */
+public final class ModelFormat {
+
+    /**
+     * "LSTM" in ASCII.
+     */
+    public static final int MAGIC = 0x4C53544D;
+
+    public static final short VERSION = 1;
+
+    /**
+     * The payload is deflated.
+     */
+    public static final short FLAG_DEFLATE = 1;
+
+    static final int HEADER_SIZE = 20;
+
+    static final int RAGGED = -1;
+
+    private ModelFormat() {
+    }
+
+    /**
+     * Whether the bytes start with the header of this format.
+     *
+     * @param bytes the file content
+     * @return true for this format, false e.g. for files of the legacy format
+     */
+    public static boolean isModelFormat(byte[] bytes) {
+        return bytes.length >= HEADER_SIZE && ByteBuffer.wrap(bytes).getInt() == MAGIC;
+    }
+
+    /**
+     * Encodes the hyperparameters with their models.
+     *
+     * @param hyperParameters the hyperparameters
+     * @param deflate         whether to deflate the payload; weights compress
+     *                        poorly, so this mostly trades load time for size
+     * @return the file content
+     * @throws IOException on encoding errors
+     */
+    public static byte[] encode(HyperParameters hyperParameters, boolean deflate) throws IOException {
+        var raw = encodePayload(hyperParameters);
+        var stored = deflate ? deflate(raw) : raw;
+
+        var crc = new CRC32();
+        crc.update(stored);
+
+        var file = ByteBuffer.allocate(HEADER_SIZE + stored.length)//
+                .putInt(MAGIC)//
+                .putShort(VERSION)//
+                .putShort(deflate ? FLAG_DEFLATE : 0)//
+                .putInt(stored.length)//
+                .putInt(raw.length)//
+                .putInt((int) crc.getValue())//
+                .put(stored);
+        return file.array();
+    }
+
+    /**
+     * Decodes a file of this format.
+     *
+     * @param bytes the file content
+     * @return the hyperparameters with their models
+     * @throws IOException if the file is not of this format, of a newer version,
+     *                     truncated or corrupt
+     */
+    public static HyperParameters decode(byte[] bytes) throws IOException {
+        if (!isModelFormat(bytes)) {
+            throw new IOException("Not a model file");
+        }
+        var header = ByteBuffer.wrap(bytes, 0, HEADER_SIZE);
+        header.getInt();
+        short version = header.getShort();
+        short flags = header.getShort();
+        int storedLength = header.getInt();
+        int rawLength = header.getInt();
+        int checksum = header.getInt();
+
+        if (version > VERSION) {
+            throw new IOException("Unsupported model format version " + version);
+        }
+        if (storedLength != bytes.length - HEADER_SIZE || rawLength < 0) {
+            throw new IOException("Truncated model file");
+        }
+        var crc = new CRC32();
+        crc.update(bytes, HEADER_SIZE, storedLength);
+        if ((int) crc.getValue() != checksum) {
+            throw new IOException("Model file checksum mismatch");
+        }
+
+        var payload = (flags & FLAG_DEFLATE) != 0 //
+                ? ByteBuffer.wrap(inflate(bytes, HEADER_SIZE, storedLength, rawLength)) //
+                : ByteBuffer.wrap(bytes, HEADER_SIZE, storedLength);
+        try {
+            return decodePayload(payload);
+        } catch (BufferUnderflowException | IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Corrupt model file", e);
+        }
+    }
+
+    private static byte[] encodePayload(HyperParameters hyperParameters) throws IOException {
+        var settings = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(settings)) {
+            hyperParameters.writeSettings(out);
+        }
+
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            out.writeInt(settings.size());
+            settings.writeTo(out);
+
+            writeDoubles(out, hyperParameters.getAllModelErrorTrend());
+            writeDoubles(out, hyperParameters.getAllModelErrorSeason());
+            writeDoubles(out, hyperParameters.getRmsErrorTrend());
+            writeDoubles(out, hyperParameters.getRmsErrorSeasonality());
+
+            writeModels(out, hyperParameters.getAllModelsTrend());
+            writeModels(out, hyperParameters.getAllModelSeasonality());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static HyperParameters decodePayload(ByteBuffer payload) throws IOException {
+        var hyperParameters = new HyperParameters();
+
+        var settings = new byte[payload.getInt()];
+        payload.get(settings);
+        try (var in = new DataInputStream(new ByteArrayInputStream(settings))) {
+            hyperParameters.readSettings(in);
+        }
+
+        hyperParameters.setAllModelErrorTrend(readDoubles(payload));
+        hyperParameters.setAllModelErrorSeason(readDoubles(payload));
+        hyperParameters.getRmsErrorTrend().addAll(readDoubles(payload));
+        hyperParameters.getRmsErrorSeasonality().addAll(readDoubles(payload));
+
+        hyperParameters.getAllModelsTrend().addAll(readModels(payload));
+        hyperParameters.getAllModelSeasonality().addAll(readModels(payload));
+        return hyperParameters;
+    }
+
+    private static void writeDoubles(DataOutputStream out, ArrayList<Double> values) throws IOException {
+        out.writeInt(values.size());
+        for (double value : values) {
+            out.writeDouble(value);
+        }
+    }
+
+    static ArrayList<Double> readDoubles(ByteBuffer in) {
+        int count = checkedCount(in.getInt(), in, Double.BYTES);
+        var values = new ArrayList<Double>(count);
+        for (int i = 0; i < count; i++) {
+            values.add(in.getDouble());
+        }
+        return values;
+    }
+
+    private static void writeModels(DataOutputStream out, ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> models)
+            throws IOException {
+        out.writeInt(models.size());
+        for (var model : models) {
+            writeModel(out, model);
+        }
+    }
+
+    /**
+     * Writes one model as a block: its shape, then its weights.
+     *
+     * @param out   the output
+     * @param model the model, indexed [slot][row][col]
+     * @throws IOException on write errors
+     */
+    static void writeModel(DataOutputStream out, List<ArrayList<ArrayList<Double>>> model) throws IOException {
+        int slots = model.size();
+        int rows = slots == 0 ? 0 : model.get(0).size();
+        int cols = rows == 0 ? 0 : model.get(0).get(0).size();
+        boolean rectangular = true;
+        for (var slot : model) {
+            rectangular &= slot.size() == rows;
+            for (var row : slot) {
+                rectangular &= row.size() == cols;
+            }
+        }
+
+        out.writeInt(slots);
+        out.writeInt(rows);
+        out.writeInt(rectangular ? cols : RAGGED);
+        for (var slot : model) {
+            if (!rectangular) {
+                out.writeInt(slot.size());
+            }
+            for (var row : slot) {
+                if (!rectangular) {
+                    out.writeInt(row.size());
+                }
+                for (double value : row) {
+                    out.writeDouble(value);
+                }
+            }
+        }
+    }
+
+    private static ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> readModels(ByteBuffer in) {
+        int count = checkedCount(in.getInt(), in, 3 * Integer.BYTES);
+        var models = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>(count);
+        for (int m = 0; m < count; m++) {
+            models.add(readModel(in));
+        }
+        return models;
+    }
+
+    /**
+     * Reads a block written by {@link #writeModel}.
+     *
+     * @param in the input, positioned at the block
+     * @return the model
+     */
+    static ArrayList<ArrayList<ArrayList<Double>>> readModel(ByteBuffer in) {
+        int slots = in.getInt();
+        int rows = in.getInt();
+        int cols = in.getInt();
+        var model = new ArrayList<ArrayList<ArrayList<Double>>>(Math.max(0, slots));
+
+        if (cols != RAGGED) {
+            // One primitive block for the whole model
+            var block = new double[checkedCount((long) slots * rows * cols, in, Double.BYTES)];
+            in.asDoubleBuffer().get(block);
+            in.position(in.position() + block.length * Double.BYTES);
+            int i = 0;
+            for (int slot = 0; slot < slots; slot++) {
+                var weights = new ArrayList<ArrayList<Double>>(rows);
+                for (int row = 0; row < rows; row++) {
+                    var values = new ArrayList<Double>(cols);
+                    for (int col = 0; col < cols; col++) {
+                        values.add(block[i++]);
+                    }
+                    weights.add(values);
+                }
+                model.add(weights);
+            }
+        } else {
+            for (int slot = 0; slot < slots; slot++) {
+                int slotRows = checkedCount(in.getInt(), in, Integer.BYTES);
+                var weights = new ArrayList<ArrayList<Double>>(slotRows);
+                for (int row = 0; row < slotRows; row++) {
+                    weights.add(readRow(in));
+                }
+                model.add(weights);
+            }
+        }
+        return model;
+    }
+
+    private static ArrayList<Double> readRow(ByteBuffer in) {
+        int cols = checkedCount(in.getInt(), in, Double.BYTES);
+        var values = new ArrayList<Double>(cols);
+        for (int col = 0; col < cols; col++) {
+            values.add(in.getDouble());
+        }
+        return values;
+    }
+
+    /**
+     * Rejects counts that cannot fit in the rest of the buffer, so a corrupt
+     * count fails fast instead of allocating a huge list.
+     */
+    static int checkedCount(long count, ByteBuffer in, int minBytesEach) {
+        if (count < 0 || count * minBytesEach > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return (int) count;
+    }
+
+    private static byte[] deflate(byte[] raw) {
+        var deflater = new Deflater();
+        try {
+            deflater.setInput(raw);
+            deflater.finish();
+            var out = new ByteArrayOutputStream(raw.length / 2 + 64);
+            var buffer = new byte[8192];
+            while (!deflater.finished()) {
+                out.write(buffer, 0, deflater.deflate(buffer));
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    static byte[] inflate(byte[] bytes, int offset, int length, int rawLength) throws IOException {
+        var inflater = new Inflater();
+        try {
+            inflater.setInput(bytes, offset, length);
+            var raw = new byte[rawLength];
+            int read = 0;
+            while (read < rawLength && !inflater.finished()) {
+                int n = inflater.inflate(raw, read, rawLength - read);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                read += n;
+            }
+            if (read != rawLength) {
+                throw new IOException("Truncated model file");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt model file", e);
+        } finally {
+            inflater.end();
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package predictor.lstm.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Incremental checkpoints of a {@link ModelDirectory}. Between full saves,
+ * only what changed since the previous checkpoint is appended to a journal
+ * file in the directory; {@link ModelDirectory#load()} replays it.
+ *
+ * <pre>
+ * journal  int magic "LSJL", short version, short flags, int CRC32 of the base meta, int 0
+ *          records, each: int payload length, int CRC32 of the payload, payload
+ * payload  int settings length, settings
+ *          4 error lists: int entries kept, int n, n appended doubles
+ *          trend models, seasonality models: int models, per model int slots, per slot
+ *          int candidate and int slot of an equal slot of the previous checkpoint,
+ *          or -1 and the slot as a one-slot block of {@link ModelFormat}
+ * </pre>
+ *
+ * A batch usually improves a few slots and picks the others from earlier
+ * candidates, so a record holds the changed slots and references for the
+ * rest. Settings are small and always written in full.
+ *
+ * <p>
+ * The journal is compacted into a full save of the directory on the first
+ * checkpoint of an instance, when it grows past a ratio of the full save, and
+ * when the directory was saved by someone else. A record is appended in one
+ * write; a torn record at the end, e.g. after a crash, fails its CRC and it
+ * and anything after it are ignored by the replay.
+ */
+public class ModelJournal {
+
+    /**
+     * "LSJL" in ASCII.
+     */
+    static final int MAGIC = 0x4C534A4C;
+
+    static final int HEADER_SIZE = 16;
+
+    private static final int RECORD_HEADER_SIZE = 8;
+    private static final int INLINE = -1;
+
+    private final ModelDirectory directory;
+    private double compactionRatio = 0.5;
+
+    private HyperParameters previous;
+    private int baseCrc;
+    private long baseSize;
+    private long journalSize;
+
+    /**
+     * Creates a journal; nothing is read or written.
+     *
+     * @param directory the directory to checkpoint to
+     */
+    public ModelJournal(ModelDirectory directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * Sets when the journal is compacted.
+     *
+     * @param compactionRatio journal size, relative to the last full save, above
+     *                        which the next checkpoint is a full save
+     * @return this
+     */
+    public ModelJournal setCompactionRatio(double compactionRatio) {
+        this.compactionRatio = compactionRatio;
+        return this;
+    }
+
+    /**
+     * Writes a checkpoint, as a journal record or a full save.
+     *
+     * @param hyperParameters the hyperparameters with their models; the
+     *                        committed models must not be changed afterwards
+     * @return the number of bytes appended, 0 for a full save
+     * @throws IOException on write errors
+     */
+    public synchronized long append(HyperParameters hyperParameters) throws IOException {
+        var checkpoint = hyperParameters.checkpointCopy();
+        if (this.previous == null //
+                || this.journalSize > this.compactionRatio * this.baseSize //
+                || !this.isBaseUnchanged()) {
+            this.compact(checkpoint);
+            return 0;
+        }
+
+        var payload = encode(this.previous, checkpoint);
+        var crc = new CRC32();
+        crc.update(payload);
+        var record = ByteBuffer.allocate(RECORD_HEADER_SIZE + payload.length)//
+                .putInt(payload.length)//
+                .putInt((int) crc.getValue())//
+                .put(payload)//
+                .array();
+        try {
+            Files.write(this.directory.journalPath(), record, StandardOpenOption.APPEND);
+        } catch (IOException e) {
+            // The end of the journal is unknown now
+            this.previous = null;
+            throw e;
+        }
+        this.journalSize += record.length;
+        this.previous = checkpoint;
+        return record.length;
+    }
+
+    /**
+     * Saves the hyperparameters in full and starts an empty journal.
+     *
+     * @param hyperParameters the hyperparameters with their models
+     * @throws IOException on write errors
+     */
+    public synchronized void compact(HyperParameters hyperParameters) throws IOException {
+        var checkpoint = hyperParameters.checkpointCopy();
+        this.previous = null;
+        this.directory.save(checkpoint);
+        this.baseCrc = this.directory.readMetaCrc();
+        var header = ByteBuffer.allocate(HEADER_SIZE)//
+                .putInt(MAGIC)//
+                .putShort(ModelDirectory.VERSION)//
+                .putShort((short) 0)//
+                .putInt(this.baseCrc)//
+                .putInt(0)//
+                .array();
+        ModelDirectory.writeAtomically(this.directory.journalPath(), header);
+
+        this.baseSize = this.directory.size();
+        this.journalSize = 0;
+        this.previous = checkpoint;
+    }
+
+    /**
+     * Whether the journal on disk is still the one this instance writes to.
+     */
+    private boolean isBaseUnchanged() throws IOException {
+        try {
+            return Files.size(this.directory.journalPath()) == HEADER_SIZE + this.journalSize
+                    && this.directory.readMetaCrc() == this.baseCrc;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    private static byte[] encode(HyperParameters previous, HyperParameters next) throws IOException {
+        var bytes = new ByteArrayOutputStream();
+        try (var out = new DataOutputStream(bytes)) {
+            var settings = new ByteArrayOutputStream();
+            try (var settingsOut = new DataOutputStream(settings)) {
+                next.writeSettings(settingsOut);
+            }
+            out.writeInt(settings.size());
+            settings.writeTo(out);
+
+            writeErrors(out, previous.getAllModelErrorTrend(), next.getAllModelErrorTrend());
+            writeErrors(out, previous.getAllModelErrorSeason(), next.getAllModelErrorSeason());
+            writeErrors(out, previous.getRmsErrorTrend(), next.getRmsErrorTrend());
+            writeErrors(out, previous.getRmsErrorSeasonality(), next.getRmsErrorSeasonality());
+
+            writeModels(out, previous.getAllModelsTrend(), next.getAllModelsTrend());
+            writeModels(out, previous.getAllModelSeasonality(), next.getAllModelSeasonality());
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Writes a list as the length of the prefix it shares with the previous one
+     * and the entries after it. RMS errors only grow between epochs, so this is
+     * usually one entry.
+     */
+    private static void writeErrors(DataOutputStream out, List<Double> previous, List<Double> next)
+            throws IOException {
+        int kept = 0;
+        while (kept < previous.size() && kept < next.size() && previous.get(kept).equals(next.get(kept))) {
+            kept++;
+        }
+        out.writeInt(kept);
+        out.writeInt(next.size() - kept);
+        for (double value : next.subList(kept, next.size())) {
+            out.writeDouble(value);
+        }
+    }
+
+    private static void writeModels(DataOutputStream out, List<ArrayList<ArrayList<ArrayList<Double>>>> previous,
+                                    List<ArrayList<ArrayList<ArrayList<Double>>>> next) throws IOException {
+        // Slots compare by value: validation picks them from copies of the earlier candidates
+        var known = new HashMap<ArrayList<ArrayList<Double>>, int[]>();
+        for (int candidate = 0; candidate < previous.size(); candidate++) {
+            var model = previous.get(candidate);
+            for (int slot = 0; slot < model.size(); slot++) {
+                known.putIfAbsent(model.get(slot), new int[] { candidate, slot });
+            }
+        }
+
+        out.writeInt(next.size());
+        for (var model : next) {
+            out.writeInt(model.size());
+            for (var weights : model) {
+                var reference = known.get(weights);
+                if (reference != null) {
+                    out.writeInt(reference[0]);
+                    out.writeInt(reference[1]);
+                } else {
+                    out.writeInt(INLINE);
+                    ModelFormat.writeModel(out, List.of(weights));
+                }
+            }
+        }
+    }
+
+    /**
+     * Applies the records of a journal to the state of its base.
+     *
+     * @param journal the journal file
+     * @param baseCrc the CRC32 of the meta file of the base
+     * @param base    the state of the base
+     * @return the state after the last intact record; the base if there is no
+     *         journal or it belongs to another base
+     * @throws IOException if the journal cannot be read or an intact record is
+     *                     inconsistent with the state before it
+     */
+    static HyperParameters replay(Path journal, int baseCrc, HyperParameters base) throws IOException {
+        ByteBuffer in;
+        try {
+            in = ByteBuffer.wrap(Files.readAllBytes(journal));
+        } catch (NoSuchFileException e) {
+            return base;
+        }
+        if (in.limit() < HEADER_SIZE || in.getInt(0) != MAGIC || in.getInt(8) != baseCrc) {
+            return base;
+        }
+        if (in.getShort(4) > ModelDirectory.VERSION) {
+            throw new IOException("Unsupported model file version " + in.getShort(4) + ": " + journal);
+        }
+
+        var state = base;
+        in.position(HEADER_SIZE);
+        while (in.remaining() >= RECORD_HEADER_SIZE) {
+            int length = in.getInt();
+            int checksum = in.getInt();
+            if (length < 0 || length > in.remaining()) {
+                break;
+            }
+            var payload = in.slice(in.position(), length);
+            var crc = new CRC32();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            try {
+                state = apply(state, payload);
+            } catch (BufferUnderflowException | IllegalArgumentException | IndexOutOfBoundsException
+                     | DateTimeParseException e) {
+                throw new IOException("Corrupt model journal " + journal, e);
+            }
+            in.position(in.position() + length);
+        }
+        return state;
+    }
+
+    private static HyperParameters apply(HyperParameters previous, ByteBuffer in) throws IOException {
+        var next = new HyperParameters();
+        var settings = new byte[in.getInt()];
+        in.get(settings);
+        try (var data = new DataInputStream(new ByteArrayInputStream(settings))) {
+            next.readSettings(data);
+        }
+
+        next.setAllModelErrorTrend(readErrors(in, previous.getAllModelErrorTrend()));
+        next.setAllModelErrorSeason(readErrors(in, previous.getAllModelErrorSeason()));
+        next.getRmsErrorTrend().addAll(readErrors(in, previous.getRmsErrorTrend()));
+        next.getRmsErrorSeasonality().addAll(readErrors(in, previous.getRmsErrorSeasonality()));
+
+        next.getAllModelsTrend().addAll(readModels(in, previous.getAllModelsTrend()));
+        next.getAllModelSeasonality().addAll(readModels(in, previous.getAllModelSeasonality()));
+        return next;
+    }
+
+    private static ArrayList<Double> readErrors(ByteBuffer in, List<Double> previous) {
+        int kept = in.getInt();
+        if (kept < 0 || kept > previous.size()) {
+            throw new IllegalArgumentException("Invalid error prefix " + kept);
+        }
+        var values = new ArrayList<Double>(previous.subList(0, kept));
+        values.addAll(ModelFormat.readDoubles(in));
+        return values;
+    }
+
+    private static ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> readModels(ByteBuffer in,
+            List<ArrayList<ArrayList<ArrayList<Double>>>> previous) {
+        int count = ModelFormat.checkedCount(in.getInt(), in, Integer.BYTES);
+        var models = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>(count);
+        for (int m = 0; m < count; m++) {
+            int slots = ModelFormat.checkedCount(in.getInt(), in, Integer.BYTES);
+            var model = new ArrayList<ArrayList<ArrayList<Double>>>(slots);
+            for (int s = 0; s < slots; s++) {
+                int candidate = in.getInt();
+                if (candidate == INLINE) {
+                    model.add(ModelFormat.readModel(in).get(0));
+                } else {
+                    model.add(previous.get(candidate).get(in.getInt()));
+                }
+            }
+            models.add(model);
+        }
+        return models;
+    }
+}
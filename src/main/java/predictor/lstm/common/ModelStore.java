@@ -0,0 +1,346 @@
+package predictor.lstm.common;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.format.DateTimeParseException;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.RandomAccess;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Read-only view of a saved model, for prediction.
+ *
+ * <p>
+ * Only the best trend and seasonality candidates are read, and only their
+ * slots that are used. The settings and RMS errors are parsed eagerly; the
+ * weights are memory-mapped and a slot is decoded on first access. Opening
+ * time and resident memory therefore do not grow with the number of
+ * candidates kept by training.
+ *
+ * <p>
+ * Two layouts are supported:
+ * <ul>
+ * <li>a {@link ModelDirectory}: the metadata file is read, and only the
+ * segments of the best candidates are mapped. Checkpoints in a
+ * {@link ModelJournal} since the last full save are not in the segments; with
+ * journal records the model is loaded in full and replayed instead.</li>
+ * <li>a single {@link ModelFormat} file: the file is mapped, and the other
+ * candidates are skipped by their block shapes. Deflated files cannot be
+ * mapped lazily; their payload is inflated into the heap on open.</li>
+ * </ul>
+ */
+public class ModelStore {
+
+    private final HyperParameters hyperParameters;
+    private final List<ArrayList<ArrayList<Double>>> bestModelTrend;
+    private final List<ArrayList<ArrayList<Double>>> bestModelSeasonality;
+    private final List<ModelDirectory.Framed> mapped;
+
+    private ModelStore(HyperParameters hyperParameters, List<ArrayList<ArrayList<Double>>> bestModelTrend,
+                       List<ArrayList<ArrayList<Double>>> bestModelSeasonality, List<ModelDirectory.Framed> mapped) {
+        this.hyperParameters = hyperParameters;
+        this.bestModelTrend = bestModelTrend;
+        this.bestModelSeasonality = bestModelSeasonality;
+        this.mapped = mapped;
+    }
+
+    /**
+     * Opens a saved model.
+     *
+     * @param path a model directory or a single model file
+     * @return the store
+     * @throws IOException if the model cannot be read or is in neither layout
+     */
+    public static ModelStore open(Path path) throws IOException {
+        return Files.isDirectory(path) ? openDirectory(path) : openFile(path);
+    }
+
+    /**
+     * Settings and RMS errors of the model. The candidate lists are empty: use
+     * {@link #getBestModelTrend()} and {@link #getBestModelSeasonality()}.
+     *
+     * @return the hyperparameters without models
+     */
+    public HyperParameters getHyperParameters() {
+        return this.hyperParameters;
+    }
+
+    /**
+     * The trend candidate with the lowest RMS error, as a lazy list of slots.
+     * The returned slots are shared; callers must not modify them.
+     *
+     * @return the slots, empty if the model was never validated
+     */
+    public List<ArrayList<ArrayList<Double>>> getBestModelTrend() {
+        return this.bestModelTrend;
+    }
+
+    /**
+     * The seasonality candidate with the lowest RMS error, as a lazy list of
+     * slots. The returned slots are shared; callers must not modify them.
+     *
+     * @return the slots, empty if the model was never validated
+     */
+    public List<ArrayList<ArrayList<Double>>> getBestModelSeasonality() {
+        return this.bestModelSeasonality;
+    }
+
+    /**
+     * Whether the weights are read lazily from mapped files, rather than
+     * replayed from a journal into the heap.
+     */
+    boolean isMapped() {
+        return this.mapped != null;
+    }
+
+    /**
+     * Checks the CRC32 of the mapped files. Reads every page, so it is not done
+     * on open.
+     *
+     * @throws IOException on a mismatch
+     */
+    public void verify() throws IOException {
+        if (this.mapped == null) {
+            return;
+        }
+        for (var framed : this.mapped) {
+            framed.checkCrc();
+        }
+    }
+
+    private static ModelStore openDirectory(Path path) throws IOException {
+        for (int attempt = 1;; attempt++) {
+            try {
+                return openGeneration(path);
+            } catch (NoSuchFileException e) {
+                // Segments of the read metadata were deleted by two later saves: read the new metadata
+                if (attempt == 3) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    private static ModelStore openGeneration(Path path) throws IOException {
+        var directory = new ModelDirectory(path);
+        if (directory.hasJournalRecords()) {
+            return replayed(directory.load());
+        }
+        var meta = directory.readMeta();
+        var hyperParameters = meta.hyperParameters();
+        var mapped = new ArrayList<ModelDirectory.Framed>();
+        var trend = mapSegment(directory, meta.trend(), bestIndex(hyperParameters.getRmsErrorTrend()), mapped);
+        var seasonality = mapSegment(directory, meta.seasonality(),
+                bestIndex(hyperParameters.getRmsErrorSeasonality()), mapped);
+        return new ModelStore(hyperParameters, trend, seasonality, mapped);
+    }
+
+    private static ModelStore replayed(HyperParameters hyperParameters) {
+        var trend = best(hyperParameters.getAllModelsTrend(), hyperParameters.getRmsErrorTrend());
+        var seasonality = best(hyperParameters.getAllModelSeasonality(), hyperParameters.getRmsErrorSeasonality());
+        hyperParameters.getAllModelsTrend().clear();
+        hyperParameters.getAllModelSeasonality().clear();
+        return new ModelStore(hyperParameters, trend, seasonality, null);
+    }
+
+    private static List<ArrayList<ArrayList<Double>>> best(List<ArrayList<ArrayList<ArrayList<Double>>>> models,
+                                                           ArrayList<Double> rmsErrors) {
+        int wanted = bestIndex(rmsErrors);
+        return wanted < 0 || wanted >= models.size() ? List.of() : Collections.unmodifiableList(models.get(wanted));
+    }
+
+    private static List<ArrayList<ArrayList<Double>>> mapSegment(ModelDirectory directory, List<String> names,
+                                                                 int wanted, List<ModelDirectory.Framed> mapped) throws IOException {
+        if (wanted < 0 || wanted >= names.size()) {
+            return List.of();
+        }
+        var file = directory.segmentPath(names.get(wanted));
+        var framed = ModelDirectory.unframe(ModelDirectory.SEGMENT_MAGIC, map(file), file);
+        mapped.add(framed);
+        try {
+            return lazyModel(framed.payload(), framed.payload().duplicate());
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("Corrupt model segment " + file, e);
+        }
+    }
+
+    private static ModelStore openFile(Path path) throws IOException {
+        var file = map(path);
+        if (file.limit() < ModelFormat.HEADER_SIZE || file.getInt(0) != ModelFormat.MAGIC) {
+            throw new IOException("Not a model file: " + path);
+        }
+        short version = file.getShort(4);
+        short flags = file.getShort(6);
+        int storedLength = file.getInt(8);
+        int rawLength = file.getInt(12);
+        int checksum = file.getInt(16);
+        if (version > ModelFormat.VERSION) {
+            throw new IOException("Unsupported model format version " + version);
+        }
+        if (storedLength != file.limit() - ModelFormat.HEADER_SIZE || rawLength < 0) {
+            throw new IOException("Truncated model file " + path);
+        }
+
+        var stored = file.slice(ModelFormat.HEADER_SIZE, storedLength);
+        var payload = stored;
+        if ((flags & ModelFormat.FLAG_DEFLATE) != 0) {
+            var bytes = new byte[storedLength];
+            stored.get(0, bytes);
+            payload = ByteBuffer.wrap(ModelFormat.inflate(bytes, 0, storedLength, rawLength));
+        }
+
+        var in = payload.duplicate();
+        try {
+            var settings = new byte[in.getInt()];
+            in.get(settings);
+            var hyperParameters = new HyperParameters();
+            try (var data = new DataInputStream(new ByteArrayInputStream(settings))) {
+                hyperParameters.readSettings(data);
+            }
+
+            skipDoubles(in); // per-slot errors are only needed by training
+            skipDoubles(in);
+            hyperParameters.getRmsErrorTrend().addAll(ModelFormat.readDoubles(in));
+            hyperParameters.getRmsErrorSeasonality().addAll(ModelFormat.readDoubles(in));
+
+            var trend = locate(payload, in, bestIndex(hyperParameters.getRmsErrorTrend()));
+            var seasonality = locate(payload, in, bestIndex(hyperParameters.getRmsErrorSeasonality()));
+            return new ModelStore(hyperParameters, trend, seasonality,
+                    List.of(new ModelDirectory.Framed(stored, checksum, path)));
+        } catch (BufferUnderflowException | IllegalArgumentException | DateTimeParseException e) {
+            throw new IOException("Corrupt model file " + path, e);
+        }
+    }
+
+    private static ByteBuffer map(Path path) throws IOException {
+        try (var channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+    }
+
+    private static int bestIndex(ArrayList<Double> rmsErrors) {
+        return rmsErrors.isEmpty() ? -1 : rmsErrors.indexOf(Collections.min(rmsErrors));
+    }
+
+    private static void skipDoubles(ByteBuffer in) {
+        int count = ModelFormat.checkedCount(in.getInt(), in, Double.BYTES);
+        in.position(in.position() + count * Double.BYTES);
+    }
+
+    /**
+     * Skips the model list at the position of the buffer and returns a lazy view
+     * of one of its models.
+     */
+    private static List<ArrayList<ArrayList<Double>>> locate(ByteBuffer payload, ByteBuffer in, int wanted) {
+        int count = ModelFormat.checkedCount(in.getInt(), in, 3 * Integer.BYTES);
+        List<ArrayList<ArrayList<Double>>> found = List.of();
+        for (int m = 0; m < count; m++) {
+            var model = lazyModel(payload, in);
+            if (m == wanted) {
+                found = model;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Reads the shape of the block at the position of the buffer, moves past the
+     * block and returns a lazy view of it.
+     */
+    private static LazyModel lazyModel(ByteBuffer payload, ByteBuffer in) {
+        int slots = in.getInt();
+        int rows = in.getInt();
+        int cols = in.getInt();
+        var slotOffsets = new int[Math.max(0, slots)];
+        if (cols != ModelFormat.RAGGED) {
+            long bytes = (long) slots * rows * cols * Double.BYTES;
+            ModelFormat.checkedCount(bytes, in, 1);
+            for (int slot = 0; slot < slots; slot++) {
+                slotOffsets[slot] = in.position() + slot * rows * cols * Double.BYTES;
+            }
+            in.position(in.position() + (int) bytes);
+        } else {
+            for (int slot = 0; slot < slots; slot++) {
+                slotOffsets[slot] = in.position();
+                int slotRows = ModelFormat.checkedCount(in.getInt(), in, Integer.BYTES);
+                for (int row = 0; row < slotRows; row++) {
+                    int n = ModelFormat.checkedCount(in.getInt(), in, Double.BYTES);
+                    in.position(in.position() + n * Double.BYTES);
+                }
+            }
+        }
+        return new LazyModel(payload, slotOffsets, cols == ModelFormat.RAGGED ? -1 : rows, cols);
+    }
+
+    /**
+     * Slots of one model, each decoded from the buffer on first access.
+     */
+    private static class LazyModel extends AbstractList<ArrayList<ArrayList<Double>>> implements RandomAccess {
+
+        private final ByteBuffer payload;
+        private final int[] slotOffsets;
+        private final int rows;
+        private final int cols;
+        private final AtomicReferenceArray<ArrayList<ArrayList<Double>>> slots;
+
+        LazyModel(ByteBuffer payload, int[] slotOffsets, int rows, int cols) {
+            this.payload = payload;
+            this.slotOffsets = slotOffsets;
+            this.rows = rows;
+            this.cols = cols;
+            this.slots = new AtomicReferenceArray<>(slotOffsets.length);
+        }
+
+        @Override
+        public ArrayList<ArrayList<Double>> get(int slot) {
+            var weights = this.slots.get(slot);
+            if (weights == null) {
+                // Concurrent first reads decode the same values; either copy is kept
+                this.slots.compareAndSet(slot, null, this.decode(this.slotOffsets[slot]));
+                weights = this.slots.get(slot);
+            }
+            return weights;
+        }
+
+        @Override
+        public int size() {
+            return this.slotOffsets.length;
+        }
+
+        /**
+         * Reads with absolute positions only, so the shared buffer is never
+         * modified.
+         */
+        private ArrayList<ArrayList<Double>> decode(int offset) {
+            boolean ragged = this.rows < 0;
+            int rowCount = ragged ? this.payload.getInt(offset) : this.rows;
+            int position = ragged ? offset + Integer.BYTES : offset;
+            var weights = new ArrayList<ArrayList<Double>>(rowCount);
+            for (int row = 0; row < rowCount; row++) {
+                int colCount = this.cols;
+                if (ragged) {
+                    colCount = this.payload.getInt(position);
+                    position += Integer.BYTES;
+                }
+                var values = new ArrayList<Double>(colCount);
+                for (int col = 0; col < colCount; col++) {
+                    values.add(this.payload.getDouble(position));
+                    position += Double.BYTES;
+                }
+                weights.add(values);
+            }
+            return weights;
+        }
+    }
+}
@@ -3,13 +3,13 @@ package predictor.lstm.common;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
-import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
-import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
@@ -19,9 +19,12 @@ import java.util.zip.InflaterInputStream;
 
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
 
+import predictor.lstm.train.TrainingExecutors;
 import predictor.lstm.validator.ValidationSeasonalityModel;
 import predictor.lstm.validator.ValidationTrendModel;
+
 public class ReadAndSaveModels {
     protected static final String MODEL_FOLDER = File.separator + "lstm" + File.separator;
 
@@ -29,50 +32,163 @@ public class ReadAndSaveModels {
             .toFile()//
             .getAbsolutePath();
 
+    /**
+     * Saves a model as a {@link ModelDirectory}. Only the metadata and new
+     * candidate models are written; a single-file model of the same name is
+     * replaced. Errors are printed, see {@link #write} to handle them.
+     *
+     * @param hyperParameters the hyperparameters with their models
+     */
     public static void save(HyperParameters hyperParameters) {
-        var modelName = hyperParameters.getModelName();
-        var path = Paths.get(MODEL_DIRECTORY, MODEL_FOLDER, modelName);
-        var directory = path.getParent().toFile();
-        if (!directory.exists()) {
-            if (!directory.mkdirs()) {
-                System.err.println("Failed to create directory: " + directory);
-                return;
-            }
+        try {
+            write(hyperParameters);
+        } catch (IOException e) {
+            e.printStackTrace();
         }
+    }
 
-        Gson gson = new GsonBuilder()//
-                .registerTypeAdapter(OffsetDateTime.class, new OffsetDateTimeAdapter())//
-                .create();
+    /**
+     * Saves a model like {@link #save}. Every file is written to a temporary
+     * file and moved into place, so a failed write leaves the previous model
+     * readable.
+     *
+     * @param hyperParameters the hyperparameters with their models
+     * @throws IOException if the model cannot be written
+     */
+    public static void write(HyperParameters hyperParameters) throws IOException {
+        var modelName = hyperParameters.getModelName();
+        var path = Paths.get(MODEL_DIRECTORY, MODEL_FOLDER, modelName);
+        Files.createDirectories(path.getParent());
+        modelDirectory(modelName).save(hyperParameters);
+        Files.deleteIfExists(path);
+    }
 
+    /**
+     * Reads a model: a {@link ModelDirectory} if there is one, otherwise a single
+     * file in {@link ModelFormat} or the legacy format.
+     *
+     * @param fileName the model name
+     * @return the hyperparameters; new ones if the model does not exist or
+     *         cannot be read
+     */
+    public static HyperParameters read(String fileName) {
+        var path = Paths.get(MODEL_DIRECTORY, MODEL_FOLDER, fileName);
+        System.out.println(path);
         try {
-            var compressedData = compress(hyperParameters);
-            var compressedDataString = Base64.getEncoder().encodeToString(compressedData);
-            var json = gson.toJson(compressedDataString);
-
-            try (FileWriter writer = new FileWriter(path.toFile())) {
-                writer.write(json);
+            var directory = modelDirectory(fileName);
+            if (directory.exists()) {
+                return directory.load();
             }
+            return decode(Files.readAllBytes(path));
         } catch (IOException e) {
-            e.printStackTrace();
+            if (!(e instanceof NoSuchFileException)) {
+                e.printStackTrace();
+            }
+            var hyperParameters = new HyperParameters();
+            hyperParameters.setModelName(fileName);
+            return hyperParameters;
         }
     }
 
-    public static HyperParameters read(String fileName) {
-        String filePath = Paths.get(MODEL_DIRECTORY, MODEL_FOLDER, fileName)//
-                .toString();
-        System.out.println(filePath);
-        try (Reader reader = new FileReader(filePath)) {
+    /**
+     * Incremental checkpoints of a model, see {@link ModelJournal}. Its first
+     * checkpoint is a full save.
+     *
+     * @param modelName the model name
+     * @return the journal
+     */
+    public static ModelJournal journal(String modelName) {
+        return new ModelJournal(modelDirectory(modelName));
+    }
+
+    private static ModelDirectory modelDirectory(String modelName) {
+        return new ModelDirectory(Paths.get(MODEL_DIRECTORY, MODEL_FOLDER, modelName + ModelDirectory.SUFFIX));
+    }
+
+    /**
+     * Decodes a model file of either format: the binary {@link ModelFormat}, or
+     * the legacy format of a Java serialized, deflated, Base64 encoded object in
+     * a JSON string.
+     *
+     * @param bytes the file content
+     * @return the hyperparameters, null if a legacy file cannot be deserialized
+     * @throws IOException if the file cannot be decoded
+     */
+    public static HyperParameters decode(byte[] bytes) throws IOException {
+        if (ModelFormat.isModelFormat(bytes)) {
+            return ModelFormat.decode(bytes);
+        }
+        try {
             Gson gson = new GsonBuilder()//
                     .registerTypeAdapter(OffsetDateTime.class, new OffsetDateTimeAdapter())//
                     .create();
-            var json = gson.fromJson(reader, String.class);
-            var deserializedData = Base64.getDecoder().decode(json);
-            return decompress(deserializedData);
-        } catch (IOException e) {
-            var hyperParameters = new HyperParameters();
-            hyperParameters.setModelName(fileName);
-            return hyperParameters;
+            var json = gson.fromJson(new String(bytes, StandardCharsets.UTF_8), String.class);
+            if (json == null) {
+                throw new IOException("Empty model file");
+            }
+            return decompress(Base64.getDecoder().decode(json));
+        } catch (JsonParseException | IllegalArgumentException e) {
+            throw new IOException("Unknown model file format", e);
+        }
+    }
+
+    /**
+     * Moves a single-file model, in the legacy format or in {@link ModelFormat},
+     * into a {@link ModelDirectory}. {@link #read} reads all layouts and
+     * {@link #save} always writes a directory, so models are also migrated by
+     * their next training. A single file next to a saved directory is left over
+     * from an interrupted save and is deleted.
+     *
+     * @param fileName the model name
+     * @return true if the model was migrated, false if there is no single file
+     * @throws IOException if the file cannot be read or the directory written
+     */
+    public static boolean migrate(String fileName) throws IOException {
+        var path = Paths.get(MODEL_DIRECTORY, MODEL_FOLDER, fileName);
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        var directory = modelDirectory(fileName);
+        if (directory.exists()) {
+            Files.delete(path);
+            return false;
         }
+        var hyperParameters = decode(Files.readAllBytes(path));
+        if (hyperParameters == null) {
+            throw new IOException("Cannot deserialize legacy model file " + path);
+        }
+        directory.save(hyperParameters);
+        Files.delete(path);
+        return true;
+    }
+
+    /**
+     * Opens a model for prediction without reading all of it, see
+     * {@link ModelStore}. A single-file model is migrated first.
+     *
+     * @param fileName the model name
+     * @return the store
+     * @throws IOException if the model is missing or cannot be read
+     */
+    public static ModelStore openStore(String fileName) throws IOException {
+        migrate(fileName);
+        return ModelStore.open(modelDirectory(fileName).getPath());
+    }
+
+    /**
+     * Exports a model as a single file in {@link ModelFormat}, e.g. to copy it
+     * to another system. {@link ModelStore#open} and {@link #decode} read the
+     * file. A single-file model is migrated first.
+     *
+     * @param fileName the model name
+     * @param target   the file to write
+     * @param deflate  whether to deflate the payload
+     * @throws IOException if the model is missing or cannot be read, or the file
+     *                     cannot be written
+     */
+    public static void export(String fileName, Path target, boolean deflate) throws IOException {
+        migrate(fileName);
+        modelDirectory(fileName).export(target, deflate);
     }
 
     public static byte[] compress(HyperParameters hyp) {
@@ -103,12 +219,26 @@ public class ReadAndSaveModels {
     }
 
     public static void adapt(HyperParameters hyperParameters, ArrayList<Double> data, ArrayList<OffsetDateTime> dates) {
+        adapt(hyperParameters, data, dates, TrainingExecutors.getDefault());
+    }
+
+    /**
+     * Revalidates the saved candidates against new data, scoring on the
+     * validate pool of the given executors.
+     *
+     * @param hyperParameters the hyperparameters with their models
+     * @param data            the validation data
+     * @param dates           the dates of the validation data
+     * @param executors       the executors to score on
+     */
+    public static void adapt(HyperParameters hyperParameters, ArrayList<Double> data, ArrayList<OffsetDateTime> dates,
+                             TrainingExecutors executors) {
         if (hyperParameters.getCount() == 0) {
             return;
         }
 
-        var valSeas = new ValidationSeasonalityModel();
-        var valTrend = new ValidationTrendModel();
+        var valSeas = new ValidationSeasonalityModel(executors.getValidatePool(), executors.getGovernor());
+        var valTrend = new ValidationTrendModel(executors.getValidatePool(), executors.getGovernor());
 
         hyperParameters.resetModelErrorValue();
 
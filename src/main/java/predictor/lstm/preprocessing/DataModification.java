@@ -447,6 +447,34 @@ public class DataModification {
         return reshapedData;
     }
 
+    /**
+     * Transposes per-slot candidate lists into candidate-major order. The input is
+     * indexed [slot][candidate]; the output is indexed [candidate][slot], the
+     * layout the validators consume. Slots with fewer candidates than the largest
+     * slot repeat their last candidate, which never changes the per-slot minimum
+     * picked during validation.
+     *
+     * @param perSlot The candidates of each slot.
+     * @return The candidates in [candidate][slot] order.
+     */
+    public static ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> toCandidateMajor(
+            ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> perSlot) {
+        int candidates = perSlot.stream()//
+                .mapToInt(ArrayList::size)//
+                .max()//
+                .orElse(0);
+
+        var result = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>(candidates);
+        for (int c = 0; c < candidates; c++) {
+            var row = new ArrayList<ArrayList<ArrayList<Double>>>(perSlot.size());
+            for (var slot : perSlot) {
+                row.add(slot.get(Math.min(c, slot.size() - 1)));
+            }
+            result.add(row);
+        }
+        return result;
+    }
+
     /**
      * Updates the model with the specified weights based on the given indices and
      * model type. This method extracts the optimum weights from the provided 4D
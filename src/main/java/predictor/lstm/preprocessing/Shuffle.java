@@ -1,11 +1,9 @@
 package predictor.lstm.preprocessing;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
-import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
 
@@ -32,13 +30,10 @@ public class Shuffle {
 
         Collections.shuffle(indices, new Random(100));
 
-        CompletableFuture<Void> dataFuture = CompletableFuture
-                .runAsync(() -> this.shuffleData(new ArrayList<>(indices)));
-        CompletableFuture<Void> targetFuture = CompletableFuture
-                .runAsync(() -> this.shuffleTarget(new ArrayList<>(indices)));
-
-        CompletableFuture<Void> combinedFuture = CompletableFuture.allOf(dataFuture, targetFuture);
-        combinedFuture.join();
+        // Both are cheap copies; running them on the caller keeps shuffles of
+        // concurrently trained slots off the common pool
+        this.shuffleData(indices);
+        this.shuffleTarget(indices);
     }
 
     private void shuffleData(List<Integer> indices) {
@@ -0,0 +1,210 @@
+package predictor.lstm.train;
+
+import java.io.IOException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import predictor.lstm.common.HyperParameters;
+import predictor.lstm.common.ReadAndSaveModels;
+
+/**
+ * Saves training checkpoints in the background, so training does not wait for
+ * models to be encoded and written.
+ *
+ * <p>
+ * {@link #submit} takes a {@link HyperParameters#checkpointCopy()} and returns.
+ * At most one write per writer runs at a time, on the given executor, usually
+ * the io pool of {@link TrainingExecutors}. A checkpoint submitted while
+ * another one is still pending replaces it, so a slow disk delays
+ * checkpoints but never queues them up; only the latest state is written.
+ * Writes go through {@link ReadAndSaveModels#write}, which moves every file
+ * into place atomically.
+ *
+ * <p>
+ * {@link #flush} waits until the latest checkpoint is written. The last
+ * checkpoint of a run is submitted with {@link #submitFinal}, and goes to a
+ * separate sink, e.g. a full save instead of an incremental one.
+ */
+public class CheckpointWriter implements AutoCloseable {
+
+    /**
+     * Persists one checkpoint.
+     */
+    @FunctionalInterface
+    public interface Sink {
+
+        /**
+         * Writes the checkpoint.
+         *
+         * @param hyperParameters the checkpoint, not changed by anyone else
+         * @throws IOException if it cannot be written
+         */
+        void write(HyperParameters hyperParameters) throws IOException;
+    }
+
+    private final Logger log = LoggerFactory.getLogger(CheckpointWriter.class);
+
+    private final Executor executor;
+    private final Sink sink;
+    private final Sink finalSink;
+
+    private HyperParameters pending;
+    private boolean pendingFinal;
+    private boolean writing;
+    private IOException failure;
+    private long written;
+    private long coalesced;
+
+    /**
+     * Writer saving with {@link ReadAndSaveModels#write}.
+     *
+     * @param executor the executor to write on
+     */
+    public CheckpointWriter(Executor executor) {
+        this(executor, ReadAndSaveModels::write);
+    }
+
+    /**
+     * Writer saving with the given sink.
+     *
+     * @param executor the executor to write on
+     * @param sink     the sink
+     */
+    public CheckpointWriter(Executor executor, Sink sink) {
+        this(executor, sink, sink);
+    }
+
+    /**
+     * Writer saving with the given sinks.
+     *
+     * @param executor  the executor to write on
+     * @param sink      the sink of the checkpoints
+     * @param finalSink the sink of the checkpoint of {@link #submitFinal}
+     */
+    public CheckpointWriter(Executor executor, Sink sink, Sink finalSink) {
+        this.executor = executor;
+        this.sink = sink;
+        this.finalSink = finalSink;
+    }
+
+    /**
+     * Takes a checkpoint of the current state and schedules it for writing,
+     * replacing a checkpoint that is still pending.
+     *
+     * @param hyperParameters the hyperparameters with their models
+     */
+    public void submit(HyperParameters hyperParameters) {
+        this.submit(hyperParameters, false);
+    }
+
+    /**
+     * Like {@link #submit}, for the last checkpoint of a run: it is written with
+     * the final sink.
+     *
+     * @param hyperParameters the hyperparameters with their models
+     */
+    public void submitFinal(HyperParameters hyperParameters) {
+        this.submit(hyperParameters, true);
+    }
+
+    private void submit(HyperParameters hyperParameters, boolean isFinal) {
+        var checkpoint = hyperParameters.checkpointCopy();
+        synchronized (this) {
+            if (this.pending != null) {
+                this.coalesced++;
+            }
+            this.pending = checkpoint;
+            this.pendingFinal = isFinal;
+            if (this.writing) {
+                return;
+            }
+            this.writing = true;
+        }
+        try {
+            this.executor.execute(this::drain);
+        } catch (RejectedExecutionException e) {
+            // Queue full or pool shut down: write on the caller instead of losing the checkpoint
+            this.drain();
+        }
+    }
+
+    /**
+     * Waits until the latest submitted checkpoint is written.
+     *
+     * @throws IOException          if a write failed since the last flush
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public synchronized void flush() throws IOException, InterruptedException {
+        while (this.writing) {
+            this.wait();
+        }
+        var error = this.failure;
+        this.failure = null;
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    /**
+     * Number of checkpoints written.
+     *
+     * @return the count
+     */
+    public synchronized long getWritten() {
+        return this.written;
+    }
+
+    /**
+     * Number of checkpoints replaced by a later one before they were written.
+     *
+     * @return the count
+     */
+    public synchronized long getCoalesced() {
+        return this.coalesced;
+    }
+
+    /**
+     * Flushes, logging instead of throwing a failed write.
+     */
+    @Override
+    public void close() {
+        try {
+            this.flush();
+        } catch (IOException e) {
+            this.log.error("Failed to write checkpoint", e);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            HyperParameters checkpoint;
+            Sink target;
+            synchronized (this) {
+                checkpoint = this.pending;
+                target = this.pendingFinal ? this.finalSink : this.sink;
+                this.pending = null;
+                if (checkpoint == null) {
+                    this.writing = false;
+                    this.notifyAll();
+                    return;
+                }
+            }
+            try {
+                target.write(checkpoint);
+                synchronized (this) {
+                    this.written++;
+                }
+            } catch (IOException | RuntimeException e) {
+                this.log.warn("Failed to write checkpoint of {}", checkpoint.getModelName(), e);
+                synchronized (this) {
+                    this.failure = e instanceof IOException io ? io : new IOException(e);
+                }
+            }
+        }
+    }
+}
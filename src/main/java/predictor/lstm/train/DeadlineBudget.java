@@ -0,0 +1,80 @@
+package predictor.lstm.train;
+
+/**
+ * Spreads the time left until a {@link TrainingDeadline} over the batches left
+ * in a training run.
+ *
+ * <p>
+ * The cost of a batch is modelled as a fixed part, e.g. preprocessing and
+ * validation, plus the training stage, which grows with the iteration scale.
+ * Both are estimated from the batches done so far. When the share of the
+ * remaining time per batch is smaller than the cost at full iterations, the
+ * gradient descent iterations of the next batch are scaled down so that the
+ * fixed part plus the scaled training fits. The scale applies to every slot
+ * alike, so slots with a larger error still get proportionally more of the
+ * budget. When even {@link #MIN_SCALE} does not fit in the remaining time, no
+ * further batch should start.
+ */
+class DeadlineBudget {
+
+    /**
+     * Smallest share of the iterations a batch is started with.
+     */
+    static final double MIN_SCALE = 0.1;
+
+    private final TrainingDeadline deadline;
+    private double fixedNanos = Double.NaN;
+    private double fullTrainNanos = Double.NaN;
+
+    DeadlineBudget(TrainingDeadline deadline) {
+        this.deadline = deadline;
+    }
+
+    /**
+     * Iteration scale of the next batch.
+     *
+     * @param batchesLeft the batches left in the run, including the next one
+     * @return 1 without a bound or estimate, 0 if the next batch does not fit,
+     *         otherwise a value from {@link #MIN_SCALE} to 1
+     */
+    double nextScale(int batchesLeft) {
+        if (!this.deadline.isBounded()) {
+            return 1;
+        }
+        long remaining = this.deadline.remainingNanos();
+        if (remaining <= 0) {
+            return 0;
+        }
+        if (Double.isNaN(this.fullTrainNanos)) {
+            return 1;
+        }
+        double share = remaining / (double) Math.max(1, batchesLeft);
+        double scale = this.fullTrainNanos > 0 //
+                ? Math.min(1, (share - this.fixedNanos) / this.fullTrainNanos) //
+                : 1;
+        if (scale >= MIN_SCALE) {
+            return scale;
+        }
+        // Fewer batches than planned still fit at the minimum scale
+        return this.fixedNanos + this.fullTrainNanos * MIN_SCALE <= remaining ? MIN_SCALE : 0;
+    }
+
+    /**
+     * Updates the cost estimate with a finished batch.
+     *
+     * @param nanos      the time the batch took
+     * @param trainNanos the part of it spent in the training stage
+     * @param scale      the iteration scale it ran with
+     */
+    void record(long nanos, long trainNanos, double scale) {
+        double fixed = Math.max(0, nanos - trainNanos);
+        double fullTrain = trainNanos / Math.max(MIN_SCALE, scale);
+        if (Double.isNaN(this.fullTrainNanos)) {
+            this.fixedNanos = fixed;
+            this.fullTrainNanos = fullTrain;
+        } else {
+            this.fixedNanos = 0.5 * (this.fixedNanos + fixed);
+            this.fullTrainNanos = 0.5 * (this.fullTrainNanos + fullTrain);
+        }
+    }
+}
@@ -25,11 +25,31 @@ public class LstmTrain implements Runnable {
     private final ChannelAddress channelAddress;
     private final long days;
     private final String filePath;
+    private final TrainingExecutors executors;
+    private final TrainingProgress progress;
+    private final TrainingDeadline deadline;
 
     public LstmTrain(ChannelAddress channelAddress, long days, String filePath) {
+        this(channelAddress, days, filePath, TrainingExecutors.getDefault());
+    }
+
+    public LstmTrain(ChannelAddress channelAddress, long days, String filePath, TrainingExecutors executors) {
+        this(channelAddress, days, filePath, executors, TrainingProgress.NONE);
+    }
+
+    public LstmTrain(ChannelAddress channelAddress, long days, String filePath, TrainingExecutors executors,
+                     TrainingProgress progress) {
+        this(channelAddress, days, filePath, executors, progress, TrainingDeadline.NONE);
+    }
+
+    public LstmTrain(ChannelAddress channelAddress, long days, String filePath, TrainingExecutors executors,
+                     TrainingProgress progress, TrainingDeadline deadline) {
         this.channelAddress = channelAddress;
         this.days = days;
         this.filePath = filePath;
+        this.executors = executors;
+        this.progress = progress;
+        this.deadline = deadline;
     }
 
     @Override
@@ -69,14 +89,18 @@ public class LstmTrain implements Runnable {
             return;
         }
 
-        ReadAndSaveModels.adapt(hyperParameters, constantScaling(removeNegatives(validationData), 1), validationDate);
+        ReadAndSaveModels.adapt(hyperParameters, constantScaling(removeNegatives(validationData), 1), validationDate,
+                this.executors);
 
         TrainAndValidateBatch trainer = new TrainAndValidateBatch(
                 constantScaling(removeNegatives(trainingData), 1),
                 trainingDate,
                 constantScaling(removeNegatives(validationData), 1),
                 validationDate,
-                hyperParameters);
+                hyperParameters,
+                this.executors,
+                this.progress,
+                this.deadline);
 
         trainer.setEarlyStoppingEnabled(true);
         trainer.setEarlyStoppingPatience(5);
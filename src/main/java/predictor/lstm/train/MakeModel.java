@@ -4,14 +4,21 @@ import static predictor.lstm.utilities.UtilityConversion.to1DArray;
 
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import predictor.lstm.common.DynamicItterationValue;
 import predictor.lstm.common.HyperParameters;
+import predictor.lstm.preprocessing.DataModification;
 import predictor.lstm.preprocessingpipeline.PreprocessingPipeImpl;
 import predictor.lstm.util.Engine;
 import predictor.lstm.util.Engine.EngineBuilder;
+import predictor.lstm.util.LockstepEngine;
+import predictor.lstm.util.TrainingGovernor;
 
 public class MakeModel {
     private final Logger log = LoggerFactory.getLogger(Engine.class);
@@ -20,11 +27,82 @@ public class MakeModel {
     public static final String SEASONALITY = "seasonality";
     public static final String TREND = "trend";
 
+    private final ForkJoinPool pool;
+    private final TrainingGovernor governor;
+    private double iterationScale = 1;
+    private BooleanSupplier cancelled;
+
+    /**
+     * Creates a model trainer that trains on the train pool of
+     * {@link TrainingExecutors#getDefault()}, within the limits of its governor.
+     */
+    public MakeModel() {
+        this(TrainingExecutors.getDefault().getTrainPool(), TrainingExecutors.getDefault().getGovernor());
+    }
+
+    /**
+     * Creates a model trainer that trains on the given pool.
+     *
+     * @param pool the pool for trend and seasonality training, or null to train
+     *             on the calling thread
+     */
+    public MakeModel(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Creates a model trainer that trains on the given pool within the limits of
+     * a governor.
+     *
+     * @param pool     the pool for trend and seasonality training, or null to
+     *                 train on the calling thread
+     * @param governor the governor, or null
+     */
+    public MakeModel(ForkJoinPool pool, TrainingGovernor governor) {
+        this.pool = pool;
+        this.governor = governor;
+    }
+
+    /**
+     * Scales the gradient descent iterations of every slot and segment, so a
+     * batch fits in a time budget. Each count is rounded and kept at least 1.
+     *
+     * @param iterationScale a value in (0, 1]; 1, the default, trains with the
+     *                       full iterations
+     * @return this instance
+     */
+    public MakeModel setIterationScale(double iterationScale) {
+        this.iterationScale = iterationScale;
+        return this;
+    }
+
+    /**
+     * Condition checked before each trend segment and each sample of the
+     * seasonality slots, e.g. a passed deadline. Once it is true, training stops
+     * with a {@link CancellationException}, so an abandoned batch frees the pool.
+     *
+     * @param cancelled the condition, or null to never cancel
+     * @return this instance
+     */
+    public MakeModel setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+        return this;
+    }
+
+    private int scaled(int iterations) {
+        if (this.iterationScale >= 1) {
+            return iterations;
+        }
+        return Math.max(1, (int) Math.round(iterations * this.iterationScale));
+    }
+
     /**
      * Trains the trend model using the specified data, timestamps, and
      * hyperparameters. The training process involves preprocessing the data for
      * short-term prediction, generating initial weights, and fitting the model for
-     * each modified data segment. The trained weights are saved to the model file.
+     * each modified data segment. The segments are independent and are trained as
+     * separate tasks on the pool of this instance, each with its own pipeline and
+     * engine; the result does not depend on the pool.
      *
      * @param data            The ArrayList of Double values representing the
      *                        time-series data.
@@ -32,12 +110,11 @@ public class MakeModel {
      *                        to the timestamps of the data.
      * @param hyperParameters The hyperparameters configuration for training the
      *                        trend model.
-     * @return weightMatrix Trained models.
+     * @return weightMatrix Trained candidate models, indexed [candidate][slot].
      */
-    public synchronized ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> trainTrend(ArrayList<Double> data,
-                                                                                      ArrayList<OffsetDateTime> date, HyperParameters hyperParameters) {
+    public ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> trainTrend(ArrayList<Double> data,
+                                                                        ArrayList<OffsetDateTime> date, HyperParameters hyperParameters) {
         var weightMatrix = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
-        var weightTrend = new ArrayList<ArrayList<Double>>();
         PreprocessingPipeImpl preProcessing = new PreprocessingPipeImpl(hyperParameters);
         preProcessing.setData(to1DArray(data));
         preProcessing.setDates(date);
@@ -51,36 +128,82 @@ public class MakeModel {
                 .modifyForTrendPrediction()//
                 .execute();
 
-        for (int i = 0; i < modifiedData.length; i++) {
-            weightTrend = (hyperParameters.getCount() == 0) //
-                    ? generateInitialWeightMatrix(hyperParameters.getWindowSizeTrend(), hyperParameters)//
-                    : hyperParameters.getlastModelTrend().get(i);
+        int iterations = this.scaled(hyperParameters.getGdIterration());
 
-            preProcessing.setData(modifiedData[i]);
+        if (this.pool == null) {
+            for (int i = 0; i < modifiedData.length; i++) {
+                weightMatrix.add(this.governedTrendSegment(modifiedData[i], i, iterations, hyperParameters));
+            }
+            return DataModification.toCandidateMajor(weightMatrix);
+        }
 
-            var preProcessed = (double[][][]) preProcessing//
-                    .groupToStiffedWindow()//
-                    .normalize()//
-                    .shuffle()//
-                    .execute();
+        var tasks = new ArrayList<ForkJoinTask<ArrayList<ArrayList<ArrayList<Double>>>>>(modifiedData.length);
+        for (int i = 0; i < modifiedData.length; i++) {
+            int segment = i;
+            tasks.add(this.pool.submit(
+                    () -> this.governedTrendSegment(modifiedData[segment], segment, iterations, hyperParameters)));
+        }
+        // Joined in submission order, so the models stay in segment order
+        for (var task : tasks) {
+            weightMatrix.add(task.join());
+        }
 
-            var model = new EngineBuilder() //
-                    .setInputMatrix(preProcessed[0])//
-                    .setTargetVector(preProcessed[1][0]) //
-                    .build();
-            model.fit(hyperParameters.getGdIterration(), weightTrend, hyperParameters);
-            weightMatrix.add(model.getWeights());
+        return DataModification.toCandidateMajor(weightMatrix);
+    }
 
+    private ArrayList<ArrayList<ArrayList<Double>>> governedTrendSegment(double[] segmentData, int segment,
+                                                                        int iterations, HyperParameters hyperParameters) {
+        if (this.cancelled != null && this.cancelled.getAsBoolean()) {
+            throw new CancellationException("Training cancelled");
+        }
+        if (this.governor == null) {
+            return trainTrendSegment(segmentData, segment, iterations, hyperParameters);
         }
+        long busySince = this.governor.start();
+        var weights = trainTrendSegment(segmentData, segment, iterations, hyperParameters);
+        this.governor.checkpoint(busySince);
+        return weights;
+    }
+
+    /**
+     * Trains the trend model of one segment. Uses its own pipeline and engine, so
+     * segments can be trained concurrently.
+     *
+     * @param segmentData     the data of the segment
+     * @param segment         index of the segment, also its dropout stream
+     * @param iterations      gradient descent iterations per sample
+     * @param hyperParameters the hyperparameters, only read
+     * @return the retained candidates of the segment
+     */
+    private static ArrayList<ArrayList<ArrayList<Double>>> trainTrendSegment(double[] segmentData, int segment,
+                                                                            int iterations, HyperParameters hyperParameters) {
+        var weightTrend = (hyperParameters.getCount() == 0) //
+                ? generateInitialWeightMatrix(hyperParameters.getWindowSizeTrend(), hyperParameters)//
+                : hyperParameters.getlastModelTrend().get(segment);
+
+        var preProcessed = (double[][][]) new PreprocessingPipeImpl(hyperParameters)//
+                .setData(segmentData)//
+                .groupToStiffedWindow()//
+                .normalize()//
+                .shuffle()//
+                .execute();
 
-        return weightMatrix;
+        var model = new EngineBuilder() //
+                .setInputMatrix(preProcessed[0])//
+                .setTargetVector(preProcessed[1][0]) //
+                .setDropoutStream(TREND, segment) //
+                .build();
+        model.fit(iterations, weightTrend, hyperParameters);
+        return model.getWeights();
     }
 
     /**
      * Trains the seasonality model using the specified data, timestamps, and
      * hyperparameters. The training process involves preprocessing the data,
-     * grouping it by hour and minute, and fitting the model for each group. The
-     * trained weights are saved to the model file.
+     * grouping it by hour and minute, and fitting the model for each group. All
+     * groups are trained together by a {@link LockstepEngine}, in parallel blocks
+     * of slots on the pool of this instance. The iteration count of each slot is
+     * kept locally, so the hyperparameters are only read.
      *
      * @param data            The ArrayList of Double values representing the
      *                        time-series data.
@@ -88,13 +211,13 @@ public class MakeModel {
      *                        to the timestamps of the data.
      * @param hyperParameters The hyperparameters configuration for training the
      *                        seasonality model.
-     * @return weightMatrix Trained seasonality models.
+     * @return weightMatrix Trained seasonality candidate models, indexed
+     *         [candidate][slot].
      */
 
-    public synchronized ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> trainSeasonality(ArrayList<Double> data,
-                                                                                            ArrayList<OffsetDateTime> date, HyperParameters hyperParameters) {
-        var weightMatrix = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
-        var weightSeasonality = new ArrayList<ArrayList<Double>>();
+    public ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> trainSeasonality(ArrayList<Double> data,
+                                                                              ArrayList<OffsetDateTime> date, HyperParameters hyperParameters) {
+        var weightSeasonality = new ArrayList<ArrayList<ArrayList<Double>>>();
         int windowsSize = hyperParameters.getWindowSizeSeasonality();
 
         var preprocessing = new PreprocessingPipeImpl(hyperParameters);
@@ -109,19 +232,27 @@ public class MakeModel {
                 .filterOutliers()//
                 .groupByHoursAndMinutes()//
                 .execute();
+
+        int slots = 0;
+        for (var hour : dataGroupedByMinute) {
+            slots += hour.length;
+        }
+        var iterations = new int[slots];
+        var inputMatrix = new double[slots][][];
+        var targetVector = new double[slots][];
         int k = 0;
 
         for (int i = 0; i < dataGroupedByMinute.length; i++) {
             for (int j = 0; j < dataGroupedByMinute[i].length; j++) {
 
-                hyperParameters.setGdIterration(DynamicItterationValue
-                        .setIteration(hyperParameters.getAllModelErrorSeason(), k, hyperParameters));
+                iterations[k] = this.scaled(DynamicItterationValue.setIteration(
+                        hyperParameters.getAllModelErrorSeason(), k, hyperParameters));
 
                 if (hyperParameters.getCount() == 0) {
-                    weightSeasonality = generateInitialWeightMatrix(windowsSize, hyperParameters);
+                    weightSeasonality.add(generateInitialWeightMatrix(windowsSize, hyperParameters));
 
                 } else {
-                    weightSeasonality = hyperParameters.getlastModelSeasonality().get(k);
+                    weightSeasonality.add(hyperParameters.getlastModelSeasonality().get(k));
                 }
 
                 preprocessing.setData(dataGroupedByMinute[i][j]);
@@ -133,18 +264,22 @@ public class MakeModel {
                         .shuffle() //
                         .execute();
 
-                var model = new EngineBuilder()//
-                        .setInputMatrix(preProcessedSeason[0]) //
-                        .setTargetVector(preProcessedSeason[1][0]) //
-                        .build();
-
-                model.fit(hyperParameters.getGdIterration(), weightSeasonality, hyperParameters);
-                weightMatrix.add(model.getWeights());
+                inputMatrix[k] = preProcessedSeason[0];
+                targetVector[k] = preProcessedSeason[1][0];
                 k = k + 1;
             }
         }
 
-        return weightMatrix;
+        // All slots share the window size, so they train side by side
+        var engine = new LockstepEngine(inputMatrix, targetVector)//
+                .setPool(this.pool)//
+                .setGovernor(this.governor)//
+                .setCancellation(this.cancelled)//
+                .setDropoutModel(SEASONALITY);
+        var weightMatrix = engine.fit(iterations, weightSeasonality, hyperParameters);
+        this.log.debug("Seasonality schedule: {}", engine.getLastSchedule());
+
+        return DataModification.toCandidateMajor(weightMatrix);
 
     }
 
@@ -9,6 +9,7 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import predictor.lstm.common.DynamicItterationValue;
 import predictor.lstm.common.HyperParameters;
+import predictor.lstm.preprocessing.DataModification;
 import predictor.lstm.preprocessingpipeline.PreprocessingPipeImpl;
 import predictor.lstm.util.improved.EngineImproved;
 import predictor.lstm.util.improved.EngineImproved.EngineBuilder;
@@ -57,13 +58,14 @@ public class MakeModelImproved {
             var model = new EngineBuilder() //
                     .setInputMatrix(preProcessed[0])//
                     .setTargetVector(preProcessed[1][0]) //
+                    .setDropoutStream(TREND, i) //
                     .build();
             model.fit(hyperParameters.getGdIterration(), weightTrend, hyperParameters);
             weightMatrix.add(model.getWeights());
 
         }
 
-        return weightMatrix;
+        return DataModification.toCandidateMajor(weightMatrix);
     }
 
     /**
@@ -116,6 +118,7 @@ public class MakeModelImproved {
                 var model = new EngineBuilder()//
                         .setInputMatrix(preProcessedSeason[0]) //
                         .setTargetVector(preProcessedSeason[1][0]) //
+                        .setDropoutStream(SEASONALITY, k) //
                         .build();
 
                 model.fit(hyperParameters.getGdIterration(), weightSeasonality, hyperParameters);
@@ -124,6 +127,6 @@ public class MakeModelImproved {
             }
         }
 
-        return weightMatrix;
+        return DataModification.toCandidateMajor(weightMatrix);
     }
 }
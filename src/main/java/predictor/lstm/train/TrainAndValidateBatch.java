@@ -4,8 +4,17 @@ import java.time.OffsetDateTime;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 import predictor.lstm.common.HyperParameters;
+import predictor.lstm.common.ModelJournal;
 import predictor.lstm.common.ReadAndSaveModels;
 import predictor.lstm.preprocessing.DataModification;
 import predictor.lstm.validator.ValidationSeasonalityModel;
@@ -13,6 +22,8 @@ import predictor.lstm.validator.ValidationTrendModel;
 
 public class TrainAndValidateBatch {
 
+    private final Logger log = LoggerFactory.getLogger(TrainAndValidateBatch.class);
+
     private boolean earlyStoppingEnabled = false;
     private int earlyStoppingPatience = 5;
     private double bestValidationError = Double.MAX_VALUE;
@@ -44,13 +55,107 @@ public class TrainAndValidateBatch {
                                  ArrayList<Double> validateData, //
                                  ArrayList<OffsetDateTime> validateDate, //
                                  HyperParameters hyperParameter) {
+        this(trainData, trainDate, validateData, validateDate, hyperParameter, TrainingExecutors.getDefault());
+    }
+
+    /**
+     * Trains and validates all batches. Training runs on the train pool and
+     * validation on the validate pool of the given executors.
+     *
+     * @param trainData      the training data
+     * @param trainDate      the dates of the training data
+     * @param validateData   the validation data
+     * @param validateDate   the dates of the validation data
+     * @param hyperParameter the hyperParameters
+     * @param executors      the executors to run on
+     */
+    public TrainAndValidateBatch(//
+                                 ArrayList<Double> trainData, //
+                                 ArrayList<OffsetDateTime> trainDate, //
+                                 ArrayList<Double> validateData, //
+                                 ArrayList<OffsetDateTime> validateDate, //
+                                 HyperParameters hyperParameter, //
+                                 TrainingExecutors executors) {
+        this(trainData, trainDate, validateData, validateDate, hyperParameter, executors, TrainingProgress.NONE);
+    }
+
+    /**
+     * Trains and validates all batches. Training runs on the train pool and
+     * validation on the validate pool of the given executors.
+     *
+     * @param trainData      the training data
+     * @param trainDate      the dates of the training data
+     * @param validateData   the validation data
+     * @param validateDate   the dates of the validation data
+     * @param hyperParameter the hyperParameters
+     * @param executors      the executors to run on
+     * @param progress       notified after every batch
+     */
+    public TrainAndValidateBatch(//
+                                 ArrayList<Double> trainData, //
+                                 ArrayList<OffsetDateTime> trainDate, //
+                                 ArrayList<Double> validateData, //
+                                 ArrayList<OffsetDateTime> validateDate, //
+                                 HyperParameters hyperParameter, //
+                                 TrainingExecutors executors, //
+                                 TrainingProgress progress) {
+        this(trainData, trainDate, validateData, validateDate, hyperParameter, executors, progress,
+                TrainingDeadline.NONE);
+    }
+
+    /**
+     * Trains and validates all batches, or as many as fit before a deadline.
+     *
+     * <p>
+     * The time left is spread over the batches left: when a batch at full
+     * iterations would not fit in its share, its iterations are scaled down
+     * (see {@link DeadlineBudget}). Training stops before a batch that does not
+     * fit at all, and a batch still running at the deadline is cancelled at its
+     * next sample or segment and discarded, so only whole batches are committed
+     * and the saved models stay valid. After a
+     * stop the epoch and batch track are kept, and the next run resumes from
+     * there. Without a committed model the first batch always completes.
+     *
+     * <p>
+     * Checkpoints are written in the background by a {@link CheckpointWriter} on
+     * the io pool, as records of the {@link ModelJournal} of the model with
+     * periodic full saves; the final model is written in full before this
+     * returns.
+     *
+     * @param trainData      the training data
+     * @param trainDate      the dates of the training data
+     * @param validateData   the validation data
+     * @param validateDate   the dates of the validation data
+     * @param hyperParameter the hyperParameters
+     * @param executors      the executors to run on
+     * @param progress       notified after every batch
+     * @param deadline       the time training must be done by
+     */
+    public TrainAndValidateBatch(//
+                                 ArrayList<Double> trainData, //
+                                 ArrayList<OffsetDateTime> trainDate, //
+                                 ArrayList<Double> validateData, //
+                                 ArrayList<OffsetDateTime> validateDate, //
+                                 HyperParameters hyperParameter, //
+                                 TrainingExecutors executors, //
+                                 TrainingProgress progress, //
+                                 TrainingDeadline deadline) {
+        var trainPool = executors.getTrainPool();
+        var validatePool = executors.getValidatePool();
+        var governor = executors.getGovernor();
+        var seasonalityValidator = new ValidationSeasonalityModel(validatePool, governor);
+        var trendValidator = new ValidationTrendModel(validatePool, governor);
+        var budget = new DeadlineBudget(deadline);
+        var journal = ReadAndSaveModels.journal(hyperParameter.getModelName());
+        var checkpoints = new CheckpointWriter(executors.getIoPool(), journal::append, journal::compact);
+        boolean stopped = false;
 
         var batchedData = DataModification.getDataInBatch(
                 trainData, hyperParameter.getBatchSize());
         var batchedDate = DataModification.getDateInBatch(
                 trainDate, hyperParameter.getBatchSize());
 
-        for (int epoch = hyperParameter.getEpochTrack(); epoch < hyperParameter.getEpoch(); epoch++) {
+        epochs: for (int epoch = hyperParameter.getEpochTrack(); epoch < hyperParameter.getEpoch(); epoch++) {
             int k = hyperParameter.getCount();
 
             if (epoch == 0 && this.earlyStoppingEnabled) {
@@ -58,27 +163,57 @@ public class TrainAndValidateBatch {
             }
 
             for (int batch = hyperParameter.getBatchTrack(); batch < hyperParameter.getBatchSize(); batch++) {
+                int batchesLeft = (hyperParameter.getEpoch() - epoch) * hyperParameter.getBatchSize() - batch;
+                boolean hasModel = !hyperParameter.getAllModelSeasonality().isEmpty();
+                double scale = budget.nextScale(batchesLeft);
+                if (scale == 0) {
+                    if (hasModel) {
+                        stopped = true;
+                        break epochs;
+                    }
+                    scale = DeadlineBudget.MIN_SCALE;
+                }
+                long batchStart = System.nanoTime();
+
                 hyperParameter.setCount(k);
                 printProgressBar(batch + 1, hyperParameter.getBatchSize(), epoch, hyperParameter.getEpoch());
 
-                MakeModel makeModels = new MakeModel();
+                var cancelled = new AtomicBoolean();
+                MakeModel makeModels = new MakeModel(trainPool, governor)//
+                        .setIterationScale(scale)//
+                        .setCancellation(cancelled::get);
 
                 var trainDataTemp = batchedData.get(batch);
                 var trainDateTemp = batchedDate.get(batch);
 
-                CompletableFuture<Void> firstTaskFuture = CompletableFuture
-                        .supplyAsync(() -> makeModels.trainSeasonality(trainDataTemp, trainDateTemp, hyperParameter))
-                        .thenAccept(untestedSeasonalityMoadels -> new ValidationSeasonalityModel().validateSeasonality(
-                                validateData, validateDate, untestedSeasonalityMoadels, hyperParameter));
+                // Both tasks read the same snapshot; only the commit below writes
+                var snapshot = hyperParameter.snapshot();
 
-                CompletableFuture<Void> secondTaskFuture = CompletableFuture
-                        .supplyAsync(() -> makeModels.trainTrend(trainDataTemp, trainDateTemp, hyperParameter))
-                        .thenAccept(untestedSeasonalityMoadels -> new ValidationTrendModel().validateTrend(validateData,
-                                validateDate, untestedSeasonalityMoadels, hyperParameter));
+                // End of the later training stage; only that part of the batch scales with the iterations
+                var trainStart = System.nanoTime();
+                var trainEnd = new AtomicLong(trainStart);
+
+                var seasonalityFuture = CompletableFuture
+                        .supplyAsync(() -> stamp(trainEnd,
+                                makeModels.trainSeasonality(trainDataTemp, trainDateTemp, snapshot)), trainPool)
+                        .thenApplyAsync(untestedSeasonalityMoadels -> seasonalityValidator
+                                .evaluateSeasonality(validateData, validateDate, untestedSeasonalityMoadels, snapshot,
+                                        cancelled::get),
+                                validatePool);
+
+                var trendFuture = CompletableFuture
+                        .supplyAsync(() -> stamp(trainEnd, makeModels.trainTrend(trainDataTemp, trainDateTemp, snapshot)),
+                                trainPool)
+                        .thenApplyAsync(untestedTrendModels -> trendValidator
+                                .evaluateTrend(validateData, validateDate, untestedTrendModels, snapshot, cancelled::get),
+                                validatePool);
 
                 k = k + 1;
                 try {
-                    CompletableFuture.allOf(firstTaskFuture, secondTaskFuture).get();
+                    // With a model to fall back on, a batch is not waited for past the deadline
+                    var bound = hasModel ? deadline : TrainingDeadline.NONE;
+                    hyperParameter.commit(await(seasonalityFuture, bound), await(trendFuture, bound));
+                    budget.record(System.nanoTime() - batchStart, trainEnd.get() - trainStart, scale);
 
                     if (this.earlyStoppingEnabled) {
                         double currentValidationError = Collections.min(hyperParameter.getRmsErrorSeasonality());
@@ -95,23 +230,53 @@ public class TrainAndValidateBatch {
                             }
                         }
                     }
+                } catch (TimeoutException e) {
+                    // Stops training and validation at the next sample, segment or scored pair, so the pools are free for others
+                    cancelled.set(true);
+                    seasonalityFuture.cancel(false);
+                    trendFuture.cancel(false);
+                    hyperParameter.setCount(k - 1);
+                    stopped = true;
+                    break epochs;
                 } catch (Exception e) {
                     e.printStackTrace();
                 }
 
                 hyperParameter.setBatchTrack(batch + 1);
                 hyperParameter.setCount(k);
-                ReadAndSaveModels.save(hyperParameter);
+                checkpoints.submit(hyperParameter);
+                progress.onBatch(epoch, hyperParameter.getEpoch(), batch + 1, hyperParameter.getBatchSize());
             }
 
             hyperParameter.setBatchTrack(0);
             hyperParameter.setEpochTrack(hyperParameter.getEpochTrack() + 1);
             hyperParameter.update();
-            ReadAndSaveModels.save(hyperParameter);
+            checkpoints.submit(hyperParameter);
         }
 
         System.out.println();
-        hyperParameter.setEpochTrack(0);
-        ReadAndSaveModels.save(hyperParameter);
+        if (stopped) {
+            // Keep epoch and batch track, so the next run resumes after the last whole batch
+            this.log.info("Deadline reached at epoch {} batch {}; kept the models of the committed batches",
+                    hyperParameter.getEpochTrack(), hyperParameter.getBatchTrack());
+        } else {
+            hyperParameter.setEpochTrack(0);
+        }
+        // A full save, so predictions map the segments instead of replaying the journal
+        checkpoints.submitFinal(hyperParameter);
+        checkpoints.close();
+    }
+
+    private static <T> T stamp(AtomicLong end, T result) {
+        end.accumulateAndGet(System.nanoTime(), Math::max);
+        return result;
+    }
+
+    private static <T> T await(CompletableFuture<T> future, TrainingDeadline deadline)
+            throws InterruptedException, ExecutionException, TimeoutException {
+        if (!deadline.isBounded()) {
+            return future.get();
+        }
+        return future.get(Math.max(0, deadline.remainingNanos()), TimeUnit.NANOSECONDS);
     }
-}
\ No newline at end of file
+}
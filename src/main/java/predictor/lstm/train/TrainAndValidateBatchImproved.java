@@ -45,6 +45,7 @@ public class TrainAndValidateBatchImproved {
                                  ArrayList<OffsetDateTime> validateDate, //
                                  HyperParameters hyperParameter) {
 
+        var executors = TrainingExecutors.getDefault();
         var batchedData = DataModification.getDataInBatch(
                 trainData, hyperParameter.getBatchSize());
         var batchedDate = DataModification.getDateInBatch(
@@ -67,14 +68,20 @@ public class TrainAndValidateBatchImproved {
                 var trainDateTemp = batchedDate.get(batch);
 
                 CompletableFuture<Void> firstTaskFuture = CompletableFuture
-                        .supplyAsync(() -> makeModels.trainSeasonality(trainDataTemp, trainDateTemp, hyperParameter))
-                        .thenAccept(untestedSeasonalityMoadels -> new ValidationSeasonalityModel().validateSeasonality(
-                                validateData, validateDate, untestedSeasonalityMoadels, hyperParameter));
+                        .supplyAsync(() -> makeModels.trainSeasonality(trainDataTemp, trainDateTemp, hyperParameter),
+                                executors.getTrainPool())
+                        .thenAcceptAsync(untestedSeasonalityMoadels -> new ValidationSeasonalityModel(
+                                executors.getValidatePool(), executors.getGovernor()).validateSeasonality(
+                                validateData, validateDate, untestedSeasonalityMoadels, hyperParameter),
+                                executors.getValidatePool());
 
                 CompletableFuture<Void> secondTaskFuture = CompletableFuture
-                        .supplyAsync(() -> makeModels.trainTrend(trainDataTemp, trainDateTemp, hyperParameter))
-                        .thenAccept(untestedSeasonalityMoadels -> new ValidationTrendModel().validateTrend(validateData,
-                                validateDate, untestedSeasonalityMoadels, hyperParameter));
+                        .supplyAsync(() -> makeModels.trainTrend(trainDataTemp, trainDateTemp, hyperParameter),
+                                executors.getTrainPool())
+                        .thenAcceptAsync(untestedSeasonalityMoadels -> new ValidationTrendModel(
+                                executors.getValidatePool(), executors.getGovernor()).validateTrend(validateData,
+                                validateDate, untestedSeasonalityMoadels, hyperParameter),
+                                executors.getValidatePool());
 
                 k = k + 1;
                 try {
@@ -0,0 +1,66 @@
+package predictor.lstm.train;
+
+import java.time.Duration;
+import java.time.Instant;
+
+/**
+ * A wall-clock point by which a training run must be done. Immutable, so one
+ * deadline can be shared by all channels of a retrain window.
+ */
+public final class TrainingDeadline {
+
+    /**
+     * Never expires.
+     */
+    public static final TrainingDeadline NONE = new TrainingDeadline(Long.MAX_VALUE, false);
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+
+    private TrainingDeadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * A deadline a fixed time from now.
+     *
+     * @param budget the time training may take
+     * @return the deadline
+     */
+    public static TrainingDeadline after(Duration budget) {
+        return new TrainingDeadline(System.nanoTime() + budget.toNanos(), true);
+    }
+
+    /**
+     * A deadline at a point in time, e.g. the end of the nightly retrain window.
+     *
+     * @param instant the end
+     * @return the deadline
+     */
+    public static TrainingDeadline at(Instant instant) {
+        return after(Duration.between(Instant.now(), instant));
+    }
+
+    /**
+     * Whether this deadline can expire.
+     *
+     * @return false for {@link #NONE}
+     */
+    public boolean isBounded() {
+        return this.bounded;
+    }
+
+    /**
+     * Time left until the deadline.
+     *
+     * @return the nanoseconds left, negative once expired
+     */
+    public long remainingNanos() {
+        return this.bounded ? this.deadlineNanos - System.nanoTime() : Long.MAX_VALUE;
+    }
+
+    public boolean isExpired() {
+        return this.remainingNanos() <= 0;
+    }
+}
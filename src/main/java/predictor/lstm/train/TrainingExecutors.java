@@ -0,0 +1,211 @@
+package predictor.lstm.train;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import predictor.lstm.util.TrainingGovernor;
+
+/**
+ * The thread pools used by training, so training does not run on, or starve,
+ * the JVM common pool.
+ *
+ * <p>
+ * There are three bounded pools with named daemon threads:
+ * <ul>
+ * <li>train: fork-join pool for the slot and segment models of
+ * {@link MakeModel}</li>
+ * <li>validate: fork-join pool for candidate scoring in the validators</li>
+ * <li>io: fixed pool with a bounded queue for saving models</li>
+ * </ul>
+ * An instance is passed down explicitly by the callers. {@link #getDefault()}
+ * gives a shared instance sized for the machine. With a
+ * {@link TrainingGovernor} set, the train and the validate pool are capped by
+ * it.
+ */
+public class TrainingExecutors implements AutoCloseable {
+
+    private static final class DefaultHolder {
+        private static final TrainingExecutors DEFAULT = new Builder().build();
+    }
+
+    private final ForkJoinPool trainPool;
+    private final ForkJoinPool validatePool;
+    private final ThreadPoolExecutor ioPool;
+    private final TrainingGovernor governor;
+
+    private TrainingExecutors(Builder builder) {
+        this.trainPool = forkJoinPool(builder.name + "-train", builder.trainThreads);
+        this.governor = builder.governor;
+        if (this.governor != null) {
+            this.governor.attach(this.trainPool);
+        }
+        this.validatePool = forkJoinPool(builder.name + "-validate", builder.validateThreads);
+        if (this.governor != null) {
+            this.governor.attach(this.validatePool);
+        }
+        this.ioPool = new ThreadPoolExecutor(builder.ioThreads, builder.ioThreads, 0L, TimeUnit.MILLISECONDS,
+                new LinkedBlockingQueue<>(builder.ioQueueCapacity), threadFactory(builder.name + "-io"));
+    }
+
+    /**
+     * Shared executors, created on first use with the defaults of
+     * {@link Builder}.
+     *
+     * @return the default executors
+     */
+    public static TrainingExecutors getDefault() {
+        return DefaultHolder.DEFAULT;
+    }
+
+    public ForkJoinPool getTrainPool() {
+        return this.trainPool;
+    }
+
+    public ForkJoinPool getValidatePool() {
+        return this.validatePool;
+    }
+
+    public ExecutorService getIoPool() {
+        return this.ioPool;
+    }
+
+    /**
+     * Governor of the train and the validate pool.
+     *
+     * @return the governor, or null if training is not governed
+     */
+    public TrainingGovernor getGovernor() {
+        return this.governor;
+    }
+
+    /**
+     * Current load of each pool.
+     *
+     * @return metrics of the train, validate and io pool, in that order
+     */
+    public List<PoolMetrics> getMetrics() {
+        return List.of(//
+                PoolMetrics.of("train", this.trainPool), //
+                PoolMetrics.of("validate", this.validatePool), //
+                new PoolMetrics("io", this.ioPool.getMaximumPoolSize(), this.ioPool.getActiveCount(),
+                        this.ioPool.getQueue().size()));
+    }
+
+    /**
+     * Stops accepting work and lets the submitted tasks finish.
+     */
+    @Override
+    public void close() {
+        this.trainPool.shutdown();
+        this.validatePool.shutdown();
+        this.ioPool.shutdown();
+    }
+
+    private static ForkJoinPool forkJoinPool(String name, int parallelism) {
+        var counter = new AtomicInteger();
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = pool -> {
+            var thread = new ForkJoinWorkerThread(pool) {
+            };
+            thread.setName(name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+        return new ForkJoinPool(parallelism, factory, null, false);
+    }
+
+    private static ThreadFactory threadFactory(String name) {
+        var counter = new AtomicInteger();
+        return runnable -> {
+            var thread = new Thread(runnable, name + "-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * Load of one pool at the time of the call.
+     *
+     * @param name          name of the pool
+     * @param parallelism   number of threads the pool may use
+     * @param activeThreads threads currently running tasks
+     * @param queueDepth    tasks waiting to run
+     */
+    public record PoolMetrics(String name, int parallelism, int activeThreads, long queueDepth) {
+
+        private static PoolMetrics of(String name, ForkJoinPool pool) {
+            return new PoolMetrics(name, pool.getParallelism(), pool.getActiveThreadCount(),
+                    pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount());
+        }
+    }
+
+    public static class Builder {
+        private String name = "lstm";
+        private int trainThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 1);
+        private int validateThreads = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+        private int ioThreads = 1;
+        private int ioQueueCapacity = 64;
+        private TrainingGovernor governor;
+
+        /**
+         * Prefix of the thread names.
+         *
+         * @param name the prefix
+         * @return this builder
+         */
+        public Builder setName(String name) {
+            this.name = name;
+            return this;
+        }
+
+        public Builder setTrainThreads(int trainThreads) {
+            this.trainThreads = trainThreads;
+            return this;
+        }
+
+        public Builder setValidateThreads(int validateThreads) {
+            this.validateThreads = validateThreads;
+            return this;
+        }
+
+        public Builder setIoThreads(int ioThreads) {
+            this.ioThreads = ioThreads;
+            return this;
+        }
+
+        /**
+         * Number of io tasks that may wait; further submissions are rejected.
+         *
+         * @param ioQueueCapacity the capacity
+         * @return this builder
+         */
+        public Builder setIoQueueCapacity(int ioQueueCapacity) {
+            this.ioQueueCapacity = ioQueueCapacity;
+            return this;
+        }
+
+        /**
+         * Governor that limits the CPU use of the train and the validate pool.
+         *
+         * @param governor the governor, or null
+         * @return this builder
+         */
+        public Builder setGovernor(TrainingGovernor governor) {
+            this.governor = governor;
+            return this;
+        }
+
+        public TrainingExecutors build() {
+            if (this.trainThreads < 1 || this.validateThreads < 1 || this.ioThreads < 1 || this.ioQueueCapacity < 1) {
+                throw new IllegalArgumentException("Thread counts and queue capacity must be positive");
+            }
+            return new TrainingExecutors(this);
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package predictor.lstm.train;
+
+/**
+ * Receives the progress of a training run after every batch.
+ */
+@FunctionalInterface
+public interface TrainingProgress {
+
+    /**
+     * Ignores all progress.
+     */
+    TrainingProgress NONE = (epoch, epochs, batch, batches) -> {
+    };
+
+    /**
+     * Called when a batch is done.
+     *
+     * @param epoch   the current epoch, starting at 0
+     * @param epochs  the number of epochs
+     * @param batch   the number of batches done in this epoch
+     * @param batches the number of batches per epoch
+     */
+    void onBatch(int epoch, int epochs, int batch, int batches);
+}
@@ -0,0 +1,202 @@
+package predictor.lstm.train;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import common.types.ChannelAddress;
+
+/**
+ * Trains many channels concurrently.
+ *
+ * <p>
+ * At most {@code maxConcurrentChannels} channels train at the same time;
+ * further channels wait in submission order. All running channels share the
+ * pools of one {@link TrainingExecutors}, so the train pool parallelism is the
+ * CPU budget of all channels together, and work stealing in that pool spreads
+ * it over the running channels.
+ *
+ * <p>
+ * A channel that is queued or running is not submitted a second time; the
+ * pending future is returned instead.
+ */
+public class TrainingService implements AutoCloseable {
+
+    private final Logger log = LoggerFactory.getLogger(TrainingService.class);
+
+    private final TrainingExecutors executors;
+    private final ExecutorService channelPool;
+    private final Map<ChannelAddress, ChannelProgress> progress = new ConcurrentHashMap<>();
+    private final Map<ChannelAddress, CompletableFuture<Void>> pending = new ConcurrentHashMap<>();
+
+    /**
+     * Creates a service.
+     *
+     * @param executors             the pools shared by all channels
+     * @param maxConcurrentChannels the number of channels training at once
+     */
+    public TrainingService(TrainingExecutors executors, int maxConcurrentChannels) {
+        if (maxConcurrentChannels < 1) {
+            throw new IllegalArgumentException("maxConcurrentChannels must be positive");
+        }
+        this.executors = executors;
+        var counter = new AtomicInteger();
+        this.channelPool = new ThreadPoolExecutor(maxConcurrentChannels, maxConcurrentChannels, 0L,
+                TimeUnit.MILLISECONDS, new LinkedBlockingQueue<>(), runnable -> {
+                    var thread = new Thread(runnable, "lstm-channel-" + counter.getAndIncrement());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /**
+     * Queues training of a channel with {@link LstmTrain}.
+     *
+     * @param channel  the channel, also the model name
+     * @param days     the days of data to train on
+     * @param filePath the csv file with the data of the channel
+     * @return completes when the channel is trained
+     */
+    public CompletableFuture<Void> submit(ChannelAddress channel, long days, String filePath) {
+        return this.submit(channel, days, filePath, TrainingDeadline.NONE);
+    }
+
+    /**
+     * Queues training of a channel with {@link LstmTrain} that must be done by a
+     * deadline. A channel that starts after the deadline keeps its models, unless it
+     * has none yet.
+     *
+     * @param channel  the channel, also the model name
+     * @param days     the days of data to train on
+     * @param filePath the csv file with the data of the channel
+     * @param deadline the end of the retrain window, may be shared by channels
+     * @return completes when the channel is trained or stopped at the deadline
+     */
+    public CompletableFuture<Void> submit(ChannelAddress channel, long days, String filePath,
+                                          TrainingDeadline deadline) {
+        return this.submit(channel,
+                progress -> new LstmTrain(channel, days, filePath, this.executors, progress, deadline));
+    }
+
+    /**
+     * Queues training of a channel with any trainer.
+     *
+     * @param channel the channel
+     * @param trainer creates the trainer, given the progress listener it should
+     *                report to
+     * @return completes when the channel is trained
+     */
+    public CompletableFuture<Void> submit(ChannelAddress channel, Function<TrainingProgress, Runnable> trainer) {
+        var done = new CompletableFuture<Void>();
+        var existing = this.pending.putIfAbsent(channel, done);
+        if (existing != null) {
+            return existing;
+        }
+
+        this.progress.put(channel, ChannelProgress.queued(channel));
+        TrainingProgress listener = (epoch, epochs, batch, batches) -> this.progress.put(channel,
+                new ChannelProgress(channel, ChannelProgress.State.RUNNING, epoch, epochs, batch, batches));
+        try {
+            CompletableFuture.runAsync(() -> {
+                this.progress.computeIfPresent(channel, (key, value) -> value.withState(ChannelProgress.State.RUNNING));
+                trainer.apply(listener).run();
+            }, this.channelPool).whenComplete((result, error) -> this.finish(channel, done, error));
+        } catch (RejectedExecutionException e) {
+            this.finish(channel, done, e);
+        }
+        return done;
+    }
+
+    private void finish(ChannelAddress channel, CompletableFuture<Void> done, Throwable error) {
+        var state = error == null ? ChannelProgress.State.DONE : ChannelProgress.State.FAILED;
+        if (error != null) {
+            this.log.error("Training of " + channel + " failed", error);
+        }
+        this.progress.computeIfPresent(channel, (key, value) -> value.withState(state));
+        this.pending.remove(channel, done);
+        if (error == null) {
+            done.complete(null);
+        } else {
+            done.completeExceptionally(error);
+        }
+    }
+
+    /**
+     * Progress of one channel.
+     *
+     * @param channel the channel
+     * @return the progress, or null if the channel was never submitted
+     */
+    public ChannelProgress getProgress(ChannelAddress channel) {
+        return this.progress.get(channel);
+    }
+
+    /**
+     * Progress of every submitted channel.
+     *
+     * @return the progress, sorted by channel
+     */
+    public Map<ChannelAddress, ChannelProgress> getProgress() {
+        return new TreeMap<>(this.progress);
+    }
+
+    /**
+     * Stops accepting channels; queued channels still train.
+     */
+    @Override
+    public void close() {
+        this.channelPool.shutdown();
+    }
+
+    /**
+     * Progress of a channel at the time it was last reported.
+     *
+     * @param channel the channel
+     * @param state   the state
+     * @param epoch   the current epoch, starting at 0
+     * @param epochs  the number of epochs
+     * @param batch   the number of batches done in this epoch
+     * @param batches the number of batches per epoch
+     */
+    public record ChannelProgress(ChannelAddress channel, State state, int epoch, int epochs, int batch,
+                                  int batches) {
+
+        public enum State {
+            QUEUED, RUNNING, DONE, FAILED
+        }
+
+        private static ChannelProgress queued(ChannelAddress channel) {
+            return new ChannelProgress(channel, State.QUEUED, 0, 0, 0, 0);
+        }
+
+        private ChannelProgress withState(State state) {
+            return new ChannelProgress(this.channel, state, this.epoch, this.epochs, this.batch, this.batches);
+        }
+
+        /**
+         * Share of the batches of all epochs that are done.
+         *
+         * @return a value from 0 to 1; 1 once the channel is done
+         */
+        public double getFraction() {
+            if (this.state == State.DONE) {
+                return 1;
+            }
+            if (this.epochs == 0 || this.batches == 0) {
+                return 0;
+            }
+            return Math.min(1, (this.epoch * (double) this.batches + this.batch) / ((double) this.epochs * this.batches));
+        }
+    }
+}
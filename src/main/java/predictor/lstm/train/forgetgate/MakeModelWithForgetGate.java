@@ -13,6 +13,9 @@ import predictor.lstm.util.forgetgate.EngineWithForgetGate.EngineBuilder;
 
 public class MakeModelWithForgetGate {
 
+    public static final String SEASONALITY = "seasonality";
+    public static final String TREND = "trend";
+
     public synchronized ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> trainTrend(ArrayList<Double> data,
                                                                                       ArrayList<OffsetDateTime> date, HyperParameters hyperParameters) {
         var weightMatrix = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
@@ -46,6 +49,7 @@ public class MakeModelWithForgetGate {
             var model = new EngineBuilder() //
                     .setInputMatrix(preProcessed[0])//
                     .setTargetVector(preProcessed[1][0]) //
+                    .setDropoutStream(TREND, i) //
                     .build();
             model.fit(hyperParameters.getGdIterration(), weightTrend, hyperParameters);
             weightMatrix.add(model.getWeights());
@@ -96,6 +100,7 @@ public class MakeModelWithForgetGate {
                 var model = new EngineBuilder()//
                         .setInputMatrix(preProcessedSeason[0]) //
                         .setTargetVector(preProcessedSeason[1][0]) //
+                        .setDropoutStream(SEASONALITY, k) //
                         .build();
 
                 model.fit(hyperParameters.getGdIterration(), weightSeasonality, hyperParameters);
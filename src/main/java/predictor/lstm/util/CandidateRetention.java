@@ -0,0 +1,184 @@
+package predictor.lstm.util;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Policy deciding which per-sample weight matrices {@link Engine#fit} keeps as
+ * validation candidates. Memory is bounded by {@link #getCapacity()} matrices
+ * per fit, independent of the number of training samples.
+ */
+public class CandidateRetention implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    public enum Mode {
+        /** Keep the k samples with the lowest absolute training error. */
+        TOP_K,
+        /** Keep every Nth sample, at most capacity of the most recent ones. */
+        EVERY_NTH,
+        /** Keep only the last sample. */
+        LAST
+    }
+
+    private final Mode mode;
+    private final int capacity;
+    private final int stride;
+
+    private CandidateRetention(Mode mode, int capacity, int stride) {
+        if (capacity < 1 || stride < 1) {
+            throw new IllegalArgumentException("capacity and stride must be positive");
+        }
+        this.mode = mode;
+        this.capacity = capacity;
+        this.stride = stride;
+    }
+
+    /**
+     * Keeps the k candidates with the lowest absolute training error.
+     *
+     * @param k number of candidates
+     * @return the policy
+     */
+    public static CandidateRetention topK(int k) {
+        return new CandidateRetention(Mode.TOP_K, k, 1);
+    }
+
+    /**
+     * Keeps every Nth sample, counting from the first, and at most
+     * {@code capacity} of the most recent of them.
+     *
+     * @param stride   keep one sample out of stride
+     * @param capacity maximum number of candidates
+     * @return the policy
+     */
+    public static CandidateRetention everyNth(int stride, int capacity) {
+        return new CandidateRetention(Mode.EVERY_NTH, capacity, stride);
+    }
+
+    /**
+     * Keeps only the last sample.
+     *
+     * @return the policy
+     */
+    public static CandidateRetention lastOnly() {
+        return new CandidateRetention(Mode.LAST, 1, 1);
+    }
+
+    /**
+     * Recreates a policy from its parts, e.g. when reading a saved model.
+     *
+     * @param mode     the mode
+     * @param capacity maximum number of candidates
+     * @param stride   keep one sample out of stride, only used by
+     *                 {@link Mode#EVERY_NTH}
+     * @return the policy
+     */
+    public static CandidateRetention of(Mode mode, int capacity, int stride) {
+        return switch (mode) {
+            case TOP_K -> topK(capacity);
+            case EVERY_NTH -> everyNth(stride, capacity);
+            case LAST -> lastOnly();
+        };
+    }
+
+    public Mode getMode() {
+        return this.mode;
+    }
+
+    public int getCapacity() {
+        return this.capacity;
+    }
+
+    public int getStride() {
+        return this.stride;
+    }
+
+    /**
+     * Starts a new selection for one fit.
+     *
+     * @return an empty selection
+     */
+    public Selection start() {
+        return new Selection(this);
+    }
+
+    @Override
+    public String toString() {
+        return switch (this.mode) {
+            case TOP_K -> "top-" + this.capacity;
+            case EVERY_NTH -> "every-" + this.stride + "(max " + this.capacity + ")";
+            case LAST -> "last";
+        };
+    }
+
+    /**
+     * Streaming selection state. Callers ask {@link #wants} first so that weights
+     * only need to be materialized for samples that are kept.
+     */
+    public static class Selection {
+
+        private record Candidate(int index, double error, ArrayList<ArrayList<Double>> weights) {
+        }
+
+        private final CandidateRetention policy;
+        private final PriorityQueue<Candidate> kept;
+
+        private Selection(CandidateRetention policy) {
+            this.policy = policy;
+            Comparator<Candidate> order = switch (policy.mode) {
+                // worst (largest error, later sample on ties) at the head
+                case TOP_K -> Comparator.<Candidate>comparingDouble(c -> Math.abs(c.error()))
+                        .thenComparingInt(Candidate::index).reversed();
+                // oldest at the head
+                case EVERY_NTH, LAST -> Comparator.comparingInt(Candidate::index);
+            };
+            this.kept = new PriorityQueue<>(policy.capacity + 1, order);
+        }
+
+        /**
+         * Whether the sample would be kept.
+         *
+         * @param index sample index within the fit
+         * @param error training error of the sample
+         * @return true if {@link #add} should be called for the sample
+         */
+        public boolean wants(int index, double error) {
+            return switch (this.policy.mode) {
+                case TOP_K -> this.kept.size() < this.policy.capacity
+                        || Double.compare(Math.abs(error), Math.abs(this.kept.peek().error())) < 0;
+                case EVERY_NTH -> index % this.policy.stride == 0;
+                case LAST -> true;
+            };
+        }
+
+        /**
+         * Adds a sample, evicting the candidate that drops out of the policy.
+         *
+         * @param index   sample index within the fit
+         * @param error   training error of the sample
+         * @param weights weight matrix of the sample
+         */
+        public void add(int index, double error, ArrayList<ArrayList<Double>> weights) {
+            this.kept.add(new Candidate(index, error, weights));
+            if (this.kept.size() > this.policy.capacity) {
+                this.kept.poll();
+            }
+        }
+
+        /**
+         * Returns the kept weight matrices in sample order.
+         *
+         * @return the candidates
+         */
+        public ArrayList<ArrayList<ArrayList<Double>>> toList() {
+            var result = new ArrayList<ArrayList<ArrayList<Double>>>(this.kept.size());
+            this.kept.stream()//
+                    .sorted(Comparator.comparingInt(Candidate::index))//
+                    .forEach(c -> result.add(c.weights()));
+            return result;
+        }
+    }
+}
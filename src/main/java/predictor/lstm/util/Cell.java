@@ -1,5 +1,4 @@
 package predictor.lstm.util;
-import java.util.Random;
 
 import predictor.lstm.utilities.MathUtils;
 
@@ -18,6 +17,7 @@ public class Cell {
     private double ytMinusOne;
 
     private double cT;
+    private double tanhCt;
     private double ctMinusOne;
     private double oT;
     private double zT;
@@ -72,7 +72,8 @@ public class Cell {
     }
 
     /**
-     * Forward propagation.
+     * Forward propagation. Keeps the gate activations and tanh(cT) for
+     * {@link #backwardPropogation()}.
      */
     public void forwardPropogation() {
         double dropOutProb;
@@ -83,7 +84,8 @@ public class Cell {
             this.oT = MathUtils.sigmoid(this.wO * this.xT + this.rO * this.ytMinusOne);
             this.zT = MathUtils.tanh(this.wZ * this.xT + this.rZ * this.ytMinusOne);
             this.cT = this.ctMinusOne + this.iT * this.zT * dropOutProb;
-            this.yT = this.ytMinusOne * (1 - dropOutProb) + this.oT * MathUtils.tanh(this.cT) * dropOutProb;
+            this.tanhCt = MathUtils.tanh(this.cT);
+            this.yT = this.ytMinusOne * (1 - dropOutProb) + this.oT * this.tanhCt * dropOutProb;
             this.error = this.yT - this.outputDataLoc;
         } else {
             // When not dropping out, apply the scale factor to maintain expected output magnitude
@@ -91,30 +93,32 @@ public class Cell {
             this.oT = MathUtils.sigmoid(this.wO * this.xT + this.rO * this.ytMinusOne);
             this.zT = MathUtils.tanh(this.wZ * this.xT + this.rZ * this.ytMinusOne);
             this.cT = this.ctMinusOne + this.iT * this.zT;
+            this.tanhCt = MathUtils.tanh(this.cT);
             // Apply dropoutScale to scale the output during training
-            this.yT = this.oT * MathUtils.tanh(this.cT) * this.dropoutScale;
+            this.yT = this.oT * this.tanhCt * this.dropoutScale;
             this.error = this.yT - this.outputDataLoc;
         }
     }
 
     /**
-     * Backward propagation.
+     * Backward propagation, using the activations of the last forward pass.
      */
     public void backwardPropogation() {
         this.dlByDy = Math.signum(this.error) / Math.sqrt(2);
-        this.dlByDo = this.dlByDy * MathUtils.tanh(this.cT);
-        this.dlByDc = this.dlByDy * this.oT * MathUtils.tanhDerivative(this.cT) + this.dlByDc;
+        this.dlByDo = this.dlByDy * this.tanhCt;
+        this.dlByDc = this.dlByDy * this.oT * MathUtils.tanhDerivativeFromOutput(this.tanhCt) + this.dlByDc;
         this.dlByDi = this.dlByDc * this.zT;
         this.dlByDz = this.dlByDc * this.iT;
-        this.delI = this.dlByDi * MathUtils.sigmoidDerivative(this.wI * this.xT + this.rI * this.ytMinusOne);
-        this.delO = this.dlByDo * MathUtils.sigmoidDerivative(this.wO * this.xT + this.rO * this.ytMinusOne);
-        this.delZ = this.dlByDz * MathUtils.tanhDerivative(this.wZ * this.xT + this.rZ * this.ytMinusOne);
+        this.delI = this.dlByDi * MathUtils.sigmoidDerivativeFromOutput(this.iT);
+        this.delO = this.dlByDo * MathUtils.sigmoidDerivativeFromOutput(this.oT);
+        this.delZ = this.dlByDz * MathUtils.tanhDerivativeFromOutput(this.zT);
     }
 
     // Dropout regularization properties
     private boolean dropoutEnabled = false;
     private double dropoutRate = 0.3; // Default: drop 30% of connections
     private double dropoutScale = 1.0;
+    private DropoutMask dropoutSource;
 
     /**
      * Enable or disable dropout regularization.
@@ -143,10 +147,24 @@ public class Cell {
         this.dropoutScale = scale;
     }
 
+    /**
+     * Sets the source of the dropout decisions. Without one, the mask of the
+     * current thread is used.
+     *
+     * @param dropoutSource the dropout mask
+     */
+    public void setDropoutSource(DropoutMask dropoutSource) {
+        this.dropoutSource = dropoutSource;
+    }
+
+    private DropoutMask dropoutSource() {
+        return this.dropoutSource != null ? this.dropoutSource : DropoutMask.current();
+    }
+
     /**
      * Generates a random decision with dropout probability. This method generates a
      * random boolean decision with a dropout probability configurable via dropoutRate.
-     * It uses a random number generator to determine whether the decision is true or false.
+     * The decision is drawn from the cell's {@link DropoutMask}.
      *
      * <p>
      * When dropout is enabled, the probability of returning true is dropoutRate,
@@ -162,9 +180,7 @@ public class Cell {
             return false;
         }
 
-        Random random = new Random();
-        double randomValue = random.nextDouble();
-        return randomValue < this.dropoutRate;
+        return this.dropoutSource().drop(this.dropoutRate);
     }
 
     public double getError() {
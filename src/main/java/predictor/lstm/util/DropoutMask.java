@@ -0,0 +1,104 @@
+package predictor.lstm.util;
+
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+import predictor.lstm.common.HyperParameters;
+
+/**
+ * Source of dropout decisions for the kernels and cells.
+ *
+ * <p>
+ * Each instance wraps one {@link SplittableRandom}, so drawing a decision
+ * neither allocates nor touches the process-wide seed generator that
+ * {@code new Random()} uses. An instance is not thread safe: use one per model
+ * being trained, or the per-thread instance from {@link #current()}.
+ *
+ * <p>
+ * With {@link HyperParameters#getDropoutSeed()} set, {@link #forStream} gives
+ * every model of every batch its own reproducible stream, independent of which
+ * thread trains it or in which order.
+ */
+public class DropoutMask {
+
+    private static final ThreadLocal<DropoutMask> CURRENT = ThreadLocal.withInitial(DropoutMask::new);
+
+    private final SplittableRandom random;
+
+    /**
+     * Creates an unseeded mask.
+     */
+    public DropoutMask() {
+        this.random = new SplittableRandom();
+    }
+
+    /**
+     * Creates a mask whose decisions are fully determined by the seed.
+     *
+     * @param seed the seed
+     */
+    public DropoutMask(long seed) {
+        this.random = new SplittableRandom(seed);
+    }
+
+    /**
+     * Unseeded mask owned by the calling thread.
+     *
+     * @return the mask of the current thread
+     */
+    public static DropoutMask current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * Mask for one model of a training run. Models are told apart by their model
+     * type and stream number, e.g. the slot or segment index, and batches by
+     * {@link HyperParameters#getCount()} and
+     * {@link HyperParameters#getEpochTrack()}, so trend segment k and
+     * seasonality slot k, or slot k of two batches, get different masks.
+     *
+     * @param hyperParameters provides the dropout seed and the batch
+     * @param model           the model type, e.g. "trend" or "seasonality"
+     * @param stream          the stream number
+     * @return a seeded mask if a dropout seed is configured, otherwise
+     *         {@link #current()}
+     */
+    public static DropoutMask forStream(HyperParameters hyperParameters, String model, int stream) {
+        var seed = hyperParameters.getDropoutSeed();
+        if (seed == null) {
+            return current();
+        }
+        // Hash each part in turn so neighbouring values do not share a sequence
+        long mixed = mix(seed, Objects.hashCode(model));
+        mixed = mix(mixed, hyperParameters.getCount());
+        mixed = mix(mixed, hyperParameters.getEpochTrack());
+        return new DropoutMask(mix(mixed, stream));
+    }
+
+    private static long mix(long seed, long value) {
+        return new SplittableRandom(seed + value).nextLong();
+    }
+
+    /**
+     * Draws one decision.
+     *
+     * @param rate probability of dropping
+     * @return true to drop
+     */
+    public boolean drop(double rate) {
+        return this.random.nextDouble() < rate;
+    }
+
+    /**
+     * Draws the decisions for a whole sequence, in timestep order.
+     *
+     * @param mask   receives true for each dropped timestep
+     * @param length number of timesteps to fill
+     * @param rate   probability of dropping
+     */
+    public void fill(boolean[] mask, int length, double rate) {
+        for (int t = 0; t < length; t++) {
+            mask[t] = this.random.nextDouble() < rate;
+        }
+    }
+}
@@ -21,14 +21,23 @@ public class Engine {
     private double[][] validateData;
     private double[] validateTarget;
     private double learningRate;
+    private CandidateRetention candidateRetention;
+    private String dropoutModel;
+    private int dropoutStream;
 
     public double getLearningRate() { return this.learningRate; }
 
     private final ArrayList<ArrayList<ArrayList<Double>>> weights = new ArrayList<ArrayList<ArrayList<Double>>>();
     private final ArrayList<ArrayList<Double>> finalWeights = new ArrayList<ArrayList<Double>>();
 
+    private static final LstmWorkspace<Lstm> WORKSPACE = new LstmWorkspace<>(
+            length -> new LstmBuilder(new double[length], 0).build());
+
     /**
-     * This method train the LSTM network. and Update the finalWeight matrix.
+     * This method train the LSTM network. and Update the finalWeight matrix. Only
+     * the samples chosen by the candidate retention policy are kept in
+     * {@link #getWeights()}; the policy comes from the builder, or from
+     * {@link HyperParameters#getCandidateRetention()} if none was set.
      *
      * @param epochs          Number of times the forward and backward propagation.
      * @param val             are the weights.
@@ -37,16 +46,18 @@ public class Engine {
      */
     public void fit(int epochs, ArrayList<ArrayList<Double>> val, HyperParameters hyperParameters) {
         var rate = new AdaptiveLearningRate();
+        var selection = (this.candidateRetention != null //
+                ? this.candidateRetention //
+                : hyperParameters.getCandidateRetention()).start();
 
         this.learningRate = rate.scheduler(hyperParameters);
 
         // First Time default LSTM object
-        var ls = new LstmBuilder(this.inputMatrix[0], this.targetVector[0])//
-                .setLearningRate(this.learningRate) //
-                .setEpoch(epochs)//
-                .build();
-
-        ls.initilizeCells();
+        var ls = WORKSPACE.acquire(this.inputMatrix[0].length);
+        ls.reset(this.inputMatrix[0], this.targetVector[0], this.learningRate, epochs);
+        ls.setActivation(hyperParameters.getActivationBackend());
+        ls.setOptimizer(hyperParameters.getOptimizer());
+        ls.setDropoutMask(DropoutMask.forStream(hyperParameters, this.dropoutModel, this.dropoutStream));
 
         ls.setWi(val);
         ls.setWo(val);
@@ -57,38 +68,24 @@ public class Engine {
         ls.setCt(val);
         ls.setYt(val);
 
-        var wieghtMatrix = ls.train();
-
-        this.weights.add(wieghtMatrix);
+        var error = ls.optimize();
+        if (selection.wants(0, error)) {
+            selection.add(0, error, ls.getBestWeights());
+        }
 
         for (int i = 1; i < this.inputMatrix.length; i++) {
 
             this.learningRate = rate.scheduler(hyperParameters);
-            // Update the Lstm
-            ls = new LstmBuilder(this.inputMatrix[i], this.targetVector[i])//
-                    .setLearningRate(this.learningRate) //
-                    .setEpoch(epochs) //
-                    .build();
-
-            ls.initilizeCells();
-
-            for (int j = 0; j < ls.cells.size(); j++) {
-
-                ls.cells.get(j).setWi((wieghtMatrix.get(0)).get(j));
-                ls.cells.get(j).setWo((wieghtMatrix.get(1)).get(j));
-                ls.cells.get(j).setWz((wieghtMatrix.get(2)).get(j));
-                ls.cells.get(j).setRi((wieghtMatrix.get(3)).get(j));
-                ls.cells.get(j).setRo((wieghtMatrix.get(4)).get(j));
-                ls.cells.get(j).setRz((wieghtMatrix.get(5)).get(j));
-                ls.cells.get(j).setYtMinusOne(wieghtMatrix.get(6).get(j));
-                ls.cells.get(j).setCtMinusOne(wieghtMatrix.get(7).get(j));
-            }
-
-            wieghtMatrix = ls.train();
-            this.weights.add(wieghtMatrix);
+            // Update the Lstm, continuing from the previous best weights
+            ls.carryOver(this.inputMatrix[i], this.targetVector[i], this.learningRate, epochs);
 
+            error = ls.optimize();
+            if (selection.wants(i, error)) {
+                selection.add(i, error, ls.getBestWeights());
+            }
         }
 
+        this.weights.addAll(selection.toList());
     }
 
     /**
@@ -211,6 +208,9 @@ public class Engine {
         this.targetVector = builder.targetVector;
         this.validateData = builder.validateData;
         this.validateTarget = builder.validateTarget;
+        this.candidateRetention = builder.candidateRetention;
+        this.dropoutModel = builder.dropoutModel;
+        this.dropoutStream = builder.dropoutStream;
 
     }
 
@@ -219,6 +219,9 @@ public class Engine {
         private double[] targetVector;
         private double[][] validateData;
         private double[] validateTarget;
+        private CandidateRetention candidateRetention;
+        private String dropoutModel;
+        private int dropoutStream;
 
         public EngineBuilder(double[][] inputMatrix, double[] targetVector, double[][] validateData,
                              double[] validateTarget, int validatorCounter) {
@@ -251,6 +254,26 @@ public class Engine {
             return this;
         }
 
+        public EngineBuilder setCandidateRetention(CandidateRetention candidateRetention) {
+            this.candidateRetention = candidateRetention;
+            return this;
+        }
+
+        /**
+         * Dropout stream of this model, used with
+         * {@link HyperParameters#getDropoutSeed()}. Models of the same type trained
+         * in the same batch should use different stream numbers.
+         *
+         * @param dropoutModel  the model type, e.g. "trend" or "seasonality"
+         * @param dropoutStream the stream number
+         * @return this builder
+         */
+        public EngineBuilder setDropoutStream(String dropoutModel, int dropoutStream) {
+            this.dropoutModel = dropoutModel;
+            this.dropoutStream = dropoutStream;
+            return this;
+        }
+
         public Engine build() {
             return new Engine(this);
         }
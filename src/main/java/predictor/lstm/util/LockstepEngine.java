@@ -0,0 +1,272 @@
+package predictor.lstm.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.function.BooleanSupplier;
+
+import predictor.lstm.common.HyperParameters;
+
+/**
+ * Trains many slot models of the same window length together on a
+ * {@link LockstepKernel}, one slot per lane.
+ *
+ * <p>
+ * Per slot this follows {@link Engine#fit}: samples are trained in order, each
+ * continuing from the best snapshot of the previous one, and the candidate
+ * retention policy decides which per-sample matrices are kept. Each slot keeps
+ * its own iteration count and number of samples; lanes that are done are
+ * masked while the others continue. The slot index is used as the dropout
+ * stream, see {@link DropoutMask#forStream}.
+ *
+ * <p>
+ * With a pool set, the slots are split into blocks planned by
+ * {@link SlotScheduler} and trained on separate kernels in parallel. Slots
+ * share no state, so the result of a slot does not depend on the block it was
+ * trained in.
+ */
+public class LockstepEngine {
+
+    /**
+     * Blocks per pool thread, so threads that finish early can steal blocks when
+     * slots need different numbers of iterations.
+     */
+    private static final int BLOCKS_PER_THREAD = 4;
+
+    private final double[][][] inputMatrix;
+    private final double[][] targetVector;
+    private CandidateRetention candidateRetention;
+    private ForkJoinPool pool;
+    private TrainingGovernor governor;
+    private BooleanSupplier cancelled;
+    private String dropoutModel;
+    private SlotScheduler.ScheduleReport lastSchedule;
+
+    /**
+     * Creates an engine for a set of slots.
+     *
+     * @param inputMatrix  input windows of each slot, indexed [slot][sample][t]
+     * @param targetVector targets of each slot, indexed [slot][sample]
+     */
+    public LockstepEngine(double[][][] inputMatrix, double[][] targetVector) {
+        this.inputMatrix = inputMatrix;
+        this.targetVector = targetVector;
+    }
+
+    public LockstepEngine setCandidateRetention(CandidateRetention candidateRetention) {
+        this.candidateRetention = candidateRetention;
+        return this;
+    }
+
+    /**
+     * Pool used to train blocks of slots in parallel. Null, the default, trains
+     * all slots on the calling thread.
+     *
+     * @param pool the pool, or null
+     * @return this engine
+     */
+    public LockstepEngine setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Governor consulted between the samples of a block. Null, the default,
+     * trains without limits.
+     *
+     * @param governor the governor, or null
+     * @return this engine
+     */
+    public LockstepEngine setGovernor(TrainingGovernor governor) {
+        this.governor = governor;
+        return this;
+    }
+
+    /**
+     * Condition checked before each sample of a block. Once it is true,
+     * {@link #fit} stops with a {@link CancellationException}. Null, the
+     * default, never cancels.
+     *
+     * @param cancelled the condition, or null
+     * @return this engine
+     */
+    public LockstepEngine setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+        return this;
+    }
+
+    /**
+     * Model type of the dropout streams; each slot uses its index as the stream
+     * number. See {@link DropoutMask#forStream}.
+     *
+     * @param dropoutModel the model type, e.g. "seasonality"
+     * @return this engine
+     */
+    public LockstepEngine setDropoutModel(String dropoutModel) {
+        this.dropoutModel = dropoutModel;
+        return this;
+    }
+
+    /**
+     * Trains every slot and returns the retained candidates of each.
+     *
+     * @param iterations      gradient descent iterations per sample, per slot
+     * @param initialWeights  initial weight matrix of each slot
+     * @param hyperParameters An instance of class HyperParameter
+     * @return the candidates, indexed [slot][candidate]
+     */
+    public ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> fit(int[] iterations,
+                                                                  List<? extends List<? extends List<Double>>> initialWeights, HyperParameters hyperParameters) {
+        int slots = this.inputMatrix.length;
+        var result = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>(slots);
+        if (slots == 0) {
+            return result;
+        }
+
+        int length = this.inputMatrix[0][0].length;
+        for (var slot : this.inputMatrix) {
+            if (slot[0].length != length) {
+                throw new IllegalArgumentException("All slots must have the same window length");
+            }
+        }
+
+        var policy = this.candidateRetention != null //
+                ? this.candidateRetention //
+                : hyperParameters.getCandidateRetention();
+
+        if (this.pool == null || this.pool.getParallelism() == 1 || slots == 1) {
+            var all = new int[slots];
+            Arrays.setAll(all, slot -> slot);
+            long start = System.nanoTime();
+            result.addAll(this.fitBlock(all, length, iterations, initialWeights, policy, hyperParameters));
+            long elapsed = System.nanoTime() - start;
+            this.lastSchedule = new SlotScheduler.ScheduleReport(1, 1, elapsed, elapsed, elapsed);
+            return result;
+        }
+
+        var costs = new double[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            costs[slot] = SlotScheduler.cost(iterations[slot], this.inputMatrix[slot].length, length);
+        }
+        var plan = SlotScheduler.plan(costs, this.pool.getParallelism() * BLOCKS_PER_THREAD);
+
+        // Submitted longest first; idle workers steal the rest
+        long start = System.nanoTime();
+        var tasks = new ArrayList<ForkJoinTask<BlockResult>>(plan.size());
+        for (var block : plan) {
+            tasks.add(this.pool.submit(() -> {
+                long blockStart = System.nanoTime();
+                var weights = this.fitBlock(block, length, iterations, initialWeights, policy, hyperParameters);
+                return new BlockResult(block, weights, System.nanoTime() - blockStart);
+            }));
+        }
+
+        var bySlot = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>(Collections.nCopies(slots, null));
+        long busy = 0;
+        long longest = 0;
+        for (var task : tasks) {
+            var block = task.join();
+            for (int lane = 0; lane < block.slots().length; lane++) {
+                bySlot.set(block.slots()[lane], block.weights().get(lane));
+            }
+            busy += block.nanos();
+            longest = Math.max(longest, block.nanos());
+        }
+        this.lastSchedule = new SlotScheduler.ScheduleReport(plan.size(), this.pool.getParallelism(),
+                System.nanoTime() - start, busy, longest);
+
+        result.addAll(bySlot);
+        return result;
+    }
+
+    /**
+     * Measured schedule of the last {@link #fit}.
+     *
+     * @return the report, or null before the first fit
+     */
+    public SlotScheduler.ScheduleReport getLastSchedule() {
+        return this.lastSchedule;
+    }
+
+    private record BlockResult(int[] slots, ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> weights, long nanos) {
+    }
+
+    private ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> fitBlock(int[] slots, int length, int[] iterations,
+                                                                       List<? extends List<? extends List<Double>>> initialWeights, CandidateRetention policy,
+                                                                       HyperParameters hyperParameters) {
+        int lanes = slots.length;
+        int maxSamples = 0;
+        var selections = new ArrayList<CandidateRetention.Selection>(lanes);
+        for (int lane = 0; lane < lanes; lane++) {
+            maxSamples = Math.max(maxSamples, this.inputMatrix[slots[lane]].length);
+            selections.add(policy.start());
+        }
+
+        var rate = new AdaptiveLearningRate();
+        var kernel = new LockstepKernel(lanes, length);
+        // Same dropout as Lstm.forwardprop
+        double dropoutRate = 0.2;
+        kernel.setDropout(true, dropoutRate, 1.0 / (1.0 - dropoutRate));
+        kernel.setActivation(hyperParameters.getActivationBackend());
+        kernel.setOptimizer(hyperParameters.getOptimizer());
+        for (int lane = 0; lane < lanes; lane++) {
+            kernel.setDropoutMask(lane, DropoutMask.forStream(hyperParameters, this.dropoutModel, slots[lane]));
+        }
+
+        long busySince = this.governor != null ? this.governor.start() : 0;
+        for (int sample = 0; sample < maxSamples; sample++) {
+            if (this.cancelled != null && this.cancelled.getAsBoolean()) {
+                throw new CancellationException("Training cancelled");
+            }
+            if (sample > 0 && this.governor != null) {
+                busySince = this.governor.checkpoint(busySince);
+            }
+            double learningRate = rate.scheduler(hyperParameters);
+            int maxIterations = 0;
+
+            for (int lane = 0; lane < lanes; lane++) {
+                int slot = slots[lane];
+                if (sample >= this.inputMatrix[slot].length) {
+                    continue;
+                }
+                if (sample == 0) {
+                    kernel.load(lane, this.inputMatrix[slot][0], this.targetVector[slot][0], learningRate,
+                            initialWeights.get(slot));
+                } else {
+                    kernel.carryOver(lane, this.inputMatrix[slot][sample], this.targetVector[slot][sample],
+                            learningRate);
+                }
+                maxIterations = Math.max(maxIterations, iterations[slot]);
+            }
+
+            for (int i = 0; i < maxIterations; i++) {
+                for (int lane = 0; lane < lanes; lane++) {
+                    int slot = slots[lane];
+                    kernel.setActive(lane, sample < this.inputMatrix[slot].length && i < iterations[slot]);
+                }
+                kernel.step();
+            }
+
+            for (int lane = 0; lane < lanes; lane++) {
+                if (sample >= this.inputMatrix[slots[lane]].length) {
+                    continue;
+                }
+                kernel.keepCurrentIfUntrained(lane);
+                double error = kernel.getBestError(lane);
+                if (selections.get(lane).wants(sample, error)) {
+                    selections.get(lane).add(sample, error, kernel.getBestWeights(lane));
+                }
+            }
+        }
+
+        var result = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>(lanes);
+        for (var selection : selections) {
+            result.add(selection.toList());
+        }
+        return result;
+    }
+}
@@ -0,0 +1,453 @@
+package predictor.lstm.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import predictor.lstm.utilities.Activation;
+import predictor.lstm.utilities.ActivationBackend;
+import predictor.lstm.utilities.MathUtils;
+
+/**
+ * Structure-of-arrays training state for many independent LSTM models of the
+ * same window length, advanced in lockstep.
+ *
+ * <p>
+ * Each model occupies one lane. Every per-timestep quantity is stored t-major,
+ * {@code array[t * lanes + lane]}, so the inner loops of {@link #step()} run
+ * over contiguous lanes. Lanes are masked with {@link #setActive(int, boolean)}
+ * so that models with fewer iterations or samples simply stop while the others
+ * continue.
+ *
+ * <p>
+ * For each lane the arithmetic is the same, expression by expression, as
+ * {@link LstmKernel}, so a lane produces the same weights as a separate
+ * {@link LstmKernel} given the same dropout decisions.
+ */
+public class LockstepKernel {
+
+    private final int lanes;
+    private final int length;
+
+    private final double[][] weights = new double[LstmKernel.WEIGHT_TYPES][];
+    private final double[] xT;
+    private final double[] ytMinusOne;
+    private final double[] ctMinusOne;
+    private final double[] iT;
+    private final double[] oT;
+    private final double[] zT;
+    private final double[] cT;
+    private final double[] tanhCt;
+    private final double[] yT;
+    private final double[] error;
+    private final double[] dlByDc;
+    private final double[] delI;
+    private final double[] delO;
+    private final double[] delZ;
+    private final boolean[] dropped;
+    private final DropoutMask[] dropoutMasks;
+    private final boolean[] laneDropped;
+
+    private final double[] outputData;
+    private final double[] learningRate;
+    private final boolean[] active;
+
+    private final double[] derivativeLWrtRi;
+    private final double[] derivativeLWrtRo;
+    private final double[] derivativeLWrtRz;
+    private final double[] derivativeLWrtWi;
+    private final double[] derivativeLWrtWo;
+    private final double[] derivativeLWrtWz;
+
+    private final double[][] bestWeights = new double[LstmKernel.WEIGHT_TYPES][];
+    private final double[] bestYt;
+    private final double[] bestCt;
+    private final double[] bestError;
+    private final boolean[] hasBest;
+
+    private final double[] gradients;
+    private final double[] optimizerState;
+    private Optimizer optimizer = Optimizer.LEGACY_ADAGRAD;
+
+    private boolean dropoutEnabled = false;
+    private double dropoutRate = 0.3;
+    private double dropoutScale = 1.0;
+    private Activation activation = ActivationBackend.EXACT;
+
+    public LockstepKernel(int lanes, int length) {
+        this.lanes = lanes;
+        this.length = length;
+        int size = lanes * length;
+        for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+            this.weights[type] = new double[size];
+            this.bestWeights[type] = new double[size];
+        }
+        this.xT = new double[size];
+        this.ytMinusOne = new double[size];
+        this.ctMinusOne = new double[size];
+        this.iT = new double[size];
+        this.oT = new double[size];
+        this.zT = new double[size];
+        this.cT = new double[size];
+        this.tanhCt = new double[size];
+        this.yT = new double[size];
+        this.error = new double[size];
+        this.dlByDc = new double[size];
+        this.delI = new double[size];
+        this.delO = new double[size];
+        this.delZ = new double[size];
+        this.dropped = new boolean[size];
+        this.dropoutMasks = new DropoutMask[lanes];
+        Arrays.fill(this.dropoutMasks, DropoutMask.current());
+        this.laneDropped = new boolean[length];
+        this.bestYt = new double[size];
+        this.bestCt = new double[size];
+
+        this.outputData = new double[lanes];
+        this.learningRate = new double[lanes];
+        this.active = new boolean[lanes];
+        this.derivativeLWrtRi = new double[lanes];
+        this.derivativeLWrtRo = new double[lanes];
+        this.derivativeLWrtRz = new double[lanes];
+        this.derivativeLWrtWi = new double[lanes];
+        this.derivativeLWrtWo = new double[lanes];
+        this.derivativeLWrtWz = new double[lanes];
+        this.bestError = new double[lanes];
+        this.hasBest = new boolean[lanes];
+        this.gradients = new double[LstmKernel.WEIGHT_TYPES];
+        this.optimizerState = new double[lanes * LstmKernel.WEIGHT_TYPES * LstmKernel.MAX_STATE_SIZE];
+    }
+
+    /**
+     * Loads a lane with its first sample and an initial weight matrix, as
+     * {@link Lstm#reset} followed by the weight, yT and cT setters.
+     *
+     * @param lane         the lane
+     * @param inputData    input sequence
+     * @param outputData   the target value
+     * @param learningRate the global learning rate
+     * @param val          weight matrix wi, wo, wz, ri, ro, rz, yt, ct
+     */
+    public void load(int lane, double[] inputData, double outputData, double learningRate,
+                     List<? extends List<Double>> val) {
+        for (int t = 0; t < this.length; t++) {
+            int k = t * this.lanes + lane;
+            for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                this.weights[type][k] = val.get(type).get(t);
+            }
+            this.yT[k] = val.get(6).get(t);
+            this.cT[k] = val.get(7).get(t);
+            this.ytMinusOne[k] = 0;
+            this.ctMinusOne[k] = 0;
+        }
+        int state = lane * LstmKernel.WEIGHT_TYPES * LstmKernel.MAX_STATE_SIZE;
+        Arrays.fill(this.optimizerState, state, state + LstmKernel.WEIGHT_TYPES * LstmKernel.MAX_STATE_SIZE, 0);
+        this.bind(lane, inputData, outputData, learningRate);
+    }
+
+    /**
+     * Moves a lane to its next sample, continuing from the lane's best snapshot
+     * as {@link LstmKernel#carryOver} does.
+     *
+     * @param lane         the lane
+     * @param inputData    input sequence
+     * @param outputData   the target value
+     * @param learningRate the global learning rate
+     */
+    public void carryOver(int lane, double[] inputData, double outputData, double learningRate) {
+        for (int t = 0; t < this.length; t++) {
+            int k = t * this.lanes + lane;
+            for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                this.weights[type][k] = this.bestWeights[type][k];
+            }
+            this.ytMinusOne[k] = this.bestYt[k];
+            this.ctMinusOne[k] = this.bestCt[k];
+            this.yT[k] = 0;
+            this.cT[k] = 0;
+        }
+        this.bind(lane, inputData, outputData, learningRate);
+    }
+
+    private void bind(int lane, double[] inputData, double outputData, double learningRate) {
+        for (int t = 0; t < this.length; t++) {
+            int k = t * this.lanes + lane;
+            this.xT[k] = inputData[t];
+            this.dlByDc[k] = 0;
+        }
+        this.outputData[lane] = outputData;
+        this.learningRate[lane] = learningRate;
+        this.derivativeLWrtRi[lane] = 0;
+        this.derivativeLWrtRo[lane] = 0;
+        this.derivativeLWrtRz[lane] = 0;
+        this.derivativeLWrtWi[lane] = 0;
+        this.derivativeLWrtWo[lane] = 0;
+        this.derivativeLWrtWz[lane] = 0;
+        this.bestError[lane] = Double.NaN;
+        this.hasBest[lane] = false;
+    }
+
+    /**
+     * Runs one forward pass, backward pass, weight update and best-snapshot
+     * check on every active lane.
+     */
+    public void step() {
+        this.forward();
+        this.backward();
+        this.updateWeights();
+        for (int lane = 0; lane < this.lanes; lane++) {
+            if (this.active[lane]) {
+                this.trackBest(lane);
+            }
+        }
+    }
+
+    private void forward() {
+        final int n = this.length;
+        final int l = this.lanes;
+        this.drawDropout();
+        for (int t = 0; t < n; t++) {
+            int base = t * l;
+            for (int lane = 0; lane < l; lane++) {
+                if (!this.active[lane]) {
+                    continue;
+                }
+                int k = base + lane;
+                double x = this.xT[k];
+                double yPrev = this.ytMinusOne[k];
+
+                this.iT[k] = this.activation.sigmoid(this.weights[LstmKernel.WI][k] * x + this.weights[LstmKernel.RI][k] * yPrev);
+                this.oT[k] = this.activation.sigmoid(this.weights[LstmKernel.WO][k] * x + this.weights[LstmKernel.RO][k] * yPrev);
+                this.zT[k] = this.activation.tanh(this.weights[LstmKernel.WZ][k] * x + this.weights[LstmKernel.RZ][k] * yPrev);
+
+                if (this.dropped[k]) {
+                    double dropOutProb = 0.0;
+                    this.cT[k] = this.ctMinusOne[k] + this.iT[k] * this.zT[k] * dropOutProb;
+                    this.tanhCt[k] = this.activation.tanh(this.cT[k]);
+                    this.yT[k] = yPrev * (1 - dropOutProb) + this.oT[k] * this.tanhCt[k] * dropOutProb;
+                } else {
+                    this.cT[k] = this.ctMinusOne[k] + this.iT[k] * this.zT[k];
+                    this.tanhCt[k] = this.activation.tanh(this.cT[k]);
+                    this.yT[k] = this.oT[k] * this.tanhCt[k] * this.dropoutScale;
+                }
+                this.error[k] = this.yT[k] - this.outputData[lane];
+
+                if (t < n - 1) {
+                    this.ytMinusOne[k + l] = this.yT[k];
+                    this.ctMinusOne[k + l] = this.cT[k];
+                    this.error[k] = this.yT[k] - this.xT[k + l];
+                }
+            }
+        }
+    }
+
+    private void backward() {
+        final int n = this.length;
+        final int l = this.lanes;
+        for (int t = n - 1; t >= 0; t--) {
+            int base = t * l;
+            for (int lane = 0; lane < l; lane++) {
+                if (!this.active[lane]) {
+                    continue;
+                }
+                int k = base + lane;
+                if (t < n - 1) {
+                    this.dlByDc[k] = this.dlByDc[k + l];
+                }
+                double dlByDy = Math.signum(this.error[k]) / Math.sqrt(2);
+                double dlByDo = dlByDy * this.tanhCt[k];
+                this.dlByDc[k] = dlByDy * this.oT[k] * MathUtils.tanhDerivativeFromOutput(this.tanhCt[k]) + this.dlByDc[k];
+                double dlByDi = this.dlByDc[k] * this.zT[k];
+                double dlByDz = this.dlByDc[k] * this.iT[k];
+                this.delI[k] = dlByDi * MathUtils.sigmoidDerivativeFromOutput(this.iT[k]);
+                this.delO[k] = dlByDo * MathUtils.sigmoidDerivativeFromOutput(this.oT[k]);
+                this.delZ[k] = dlByDz * MathUtils.tanhDerivativeFromOutput(this.zT[k]);
+            }
+        }
+
+        for (int t = 0; t < n; t++) {
+            int base = t * l;
+            for (int lane = 0; lane < l; lane++) {
+                if (!this.active[lane]) {
+                    continue;
+                }
+                int k = base + lane;
+                this.derivativeLWrtRi[lane] += this.ytMinusOne[k] * this.delI[k];
+                this.derivativeLWrtRo[lane] += this.ytMinusOne[k] * this.delO[k];
+                this.derivativeLWrtRz[lane] += this.ytMinusOne[k] * this.delZ[k];
+
+                this.derivativeLWrtWi[lane] += this.xT[k] * this.delI[k];
+                this.derivativeLWrtWo[lane] += this.xT[k] * this.delO[k];
+                this.derivativeLWrtWz[lane] += this.xT[k] * this.delZ[k];
+            }
+        }
+    }
+
+    private void updateWeights() {
+        final int n = this.length;
+        final int l = this.lanes;
+        final int size = this.optimizer.stateSize();
+        var gradients = this.gradients;
+
+        for (int lane = 0; lane < l; lane++) {
+            if (!this.active[lane]) {
+                continue;
+            }
+            gradients[LstmKernel.WI] = this.derivativeLWrtWi[lane] / n;
+            gradients[LstmKernel.WO] = this.derivativeLWrtWo[lane] / n;
+            gradients[LstmKernel.WZ] = this.derivativeLWrtWz[lane] / n;
+            gradients[LstmKernel.RI] = this.derivativeLWrtRi[lane] / n;
+            gradients[LstmKernel.RO] = this.derivativeLWrtRo[lane] / n;
+            gradients[LstmKernel.RZ] = this.derivativeLWrtRz[lane] / n;
+
+            int state = lane * LstmKernel.WEIGHT_TYPES * LstmKernel.MAX_STATE_SIZE;
+            for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                // row of this lane: stride l through the t-major layout
+                this.optimizer.update(this.weights[type], lane, l, n, this.learningRate[lane], gradients[type],
+                        this.optimizerState, state + type * size);
+            }
+        }
+    }
+
+    private void trackBest(int lane) {
+        double err = this.error[(this.length - 1) * this.lanes + lane];
+        if (this.hasBest[lane] && Double.compare(Math.abs(err), Math.abs(this.bestError[lane])) >= 0) {
+            return;
+        }
+        this.keep(lane, err);
+    }
+
+    private void keep(int lane, double err) {
+        for (int t = 0; t < this.length; t++) {
+            int k = t * this.lanes + lane;
+            for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                this.bestWeights[type][k] = this.weights[type][k];
+            }
+            this.bestYt[k] = this.yT[k];
+            this.bestCt[k] = this.cT[k];
+        }
+        this.bestError[lane] = err;
+        this.hasBest[lane] = true;
+    }
+
+    /**
+     * Makes the current state of a lane its best snapshot if no iteration ran
+     * on it, so a lane with zero iterations returns its loaded weights.
+     *
+     * @param lane the lane
+     */
+    public void keepCurrentIfUntrained(int lane) {
+        if (!this.hasBest[lane]) {
+            this.keep(lane, Double.NaN);
+        }
+    }
+
+    /**
+     * Draws the decisions of each active lane for the whole sequence, in
+     * timestep order, so a lane sees the same decisions as an
+     * {@link LstmKernel} using the same mask.
+     */
+    private void drawDropout() {
+        if (!this.dropoutEnabled) {
+            Arrays.fill(this.dropped, false);
+            return;
+        }
+        for (int lane = 0; lane < this.lanes; lane++) {
+            if (!this.active[lane]) {
+                continue;
+            }
+            this.dropoutMasks[lane].fill(this.laneDropped, this.length, this.dropoutRate);
+            for (int t = 0; t < this.length; t++) {
+                this.dropped[t * this.lanes + lane] = this.laneDropped[t];
+            }
+        }
+    }
+
+    /**
+     * Selects the activation implementation used by subsequent passes.
+     *
+     * @param activation the activation, usually an {@link ActivationBackend}
+     */
+    public void setActivation(Activation activation) {
+        this.activation = activation;
+    }
+
+    /**
+     * Selects the weight update rule of all lanes. Changing it clears the
+     * optimizer state.
+     *
+     * @param optimizer the optimizer
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        if (optimizer != this.optimizer) {
+            this.optimizer = optimizer;
+            Arrays.fill(this.optimizerState, 0);
+        }
+    }
+
+    /**
+     * Configures dropout for subsequent forward passes.
+     *
+     * @param enabled true to enable dropout
+     * @param rate    probability of dropping a timestep
+     * @param scale   scale applied to the kept outputs
+     */
+    public void setDropout(boolean enabled, double rate, double scale) {
+        this.dropoutEnabled = enabled;
+        this.dropoutRate = rate;
+        this.dropoutScale = scale;
+    }
+
+    /**
+     * Sets the source of the dropout decisions of one lane.
+     *
+     * @param lane        the lane
+     * @param dropoutMask the dropout mask
+     */
+    public void setDropoutMask(int lane, DropoutMask dropoutMask) {
+        this.dropoutMasks[lane] = dropoutMask;
+    }
+
+    public void setActive(int lane, boolean active) {
+        this.active[lane] = active;
+    }
+
+    public void setAllActive(boolean active) {
+        Arrays.fill(this.active, active);
+    }
+
+    public int getLanes() {
+        return this.lanes;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    public double getBestError(int lane) {
+        return this.bestError[lane];
+    }
+
+    /**
+     * Boxes the best snapshot of a lane into the usual eight-vector weight matrix.
+     *
+     * @param lane the lane
+     * @return weight matrix wi, wo, wz, ri, ro, rz, yt, ct
+     */
+    public ArrayList<ArrayList<Double>> getBestWeights(int lane) {
+        var returnArray = new ArrayList<ArrayList<Double>>();
+        for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+            returnArray.add(this.column(this.bestWeights[type], lane));
+        }
+        returnArray.add(this.column(this.bestYt, lane));
+        returnArray.add(this.column(this.bestCt, lane));
+        return returnArray;
+    }
+
+    private ArrayList<Double> column(double[] values, int lane) {
+        var list = new ArrayList<Double>(this.length);
+        for (int t = 0; t < this.length; t++) {
+            list.add(values[t * this.lanes + lane]);
+        }
+        return list;
+    }
+}
@@ -0,0 +1,439 @@
+package predictor.lstm.util;
+
+import java.util.Arrays;
+
+import predictor.lstm.utilities.Activation;
+import predictor.lstm.utilities.ActivationBackend;
+import predictor.lstm.utilities.MathUtils;
+
+/**
+ * Struct-of-arrays training state for a single {@link Lstm} sequence.
+ *
+ * <p>
+ * Every per-timestep quantity that used to live in a {@link Cell} object is
+ * stored in a flat primitive array indexed by timestep. The six trainable
+ * weights are kept in one array of {@code WEIGHT_TYPES * length} values, laid
+ * out type by type ({@code weights[type * length + t]}), so a full weight set
+ * can be copied with a single {@link System#arraycopy}.
+ *
+ * <p>
+ * The arithmetic performed by {@link #forward()}, {@link #backward()} and
+ * {@link #updateWeights()} is the same, expression by expression, as the
+ * {@link Cell} based implementation, so results are numerically identical for
+ * the same dropout decisions.
+ */
+public class LstmKernel {
+
+    public static final int WI = 0;
+    public static final int WO = 1;
+    public static final int WZ = 2;
+    public static final int RI = 3;
+    public static final int RO = 4;
+    public static final int RZ = 5;
+    public static final int WEIGHT_TYPES = 6;
+
+    static final int MAX_STATE_SIZE = 3;
+
+    private final int length;
+
+    private final double[] weights;
+    private final double[] xT;
+    private final double[] ytMinusOne;
+    private final double[] ctMinusOne;
+    private final double[] iT;
+    private final double[] oT;
+    private final double[] zT;
+    private final double[] cT;
+    private final double[] tanhCt;
+    private final double[] yT;
+    private final double[] error;
+    private final double[] dlByDc;
+    private final double[] delI;
+    private final double[] delO;
+    private final double[] delZ;
+    private final boolean[] dropped;
+
+    private final double[] bestWeights;
+    private final double[] bestYt;
+    private final double[] bestCt;
+    private double bestError = Double.NaN;
+    private boolean hasBest = false;
+
+    private double outputData;
+    private double learningRate;
+
+    private double derivativeLWrtRi = 0;
+    private double derivativeLWrtRo = 0;
+    private double derivativeLWrtRz = 0;
+    private double derivativeLWrtWi = 0;
+    private double derivativeLWrtWo = 0;
+    private double derivativeLWrtWz = 0;
+
+    private boolean dropoutEnabled = false;
+    private double dropoutRate = 0.3;
+    private double dropoutScale = 1.0;
+    private DropoutMask dropoutMask = DropoutMask.current();
+    private Activation activation = ActivationBackend.EXACT;
+
+    private Optimizer optimizer = Optimizer.LEGACY_ADAGRAD;
+    private final double[] optimizerState = new double[WEIGHT_TYPES * MAX_STATE_SIZE];
+
+    public LstmKernel(int length) {
+        this.length = length;
+        this.weights = new double[WEIGHT_TYPES * length];
+        this.xT = new double[length];
+        this.ytMinusOne = new double[length];
+        this.ctMinusOne = new double[length];
+        this.iT = new double[length];
+        this.oT = new double[length];
+        this.zT = new double[length];
+        this.cT = new double[length];
+        this.tanhCt = new double[length];
+        this.yT = new double[length];
+        this.error = new double[length];
+        this.dlByDc = new double[length];
+        this.delI = new double[length];
+        this.delO = new double[length];
+        this.delZ = new double[length];
+        this.dropped = new boolean[length];
+        this.bestWeights = new double[WEIGHT_TYPES * length];
+        this.bestYt = new double[length];
+        this.bestCt = new double[length];
+    }
+
+    /**
+     * Binds the kernel to an input sequence and clears all state. Weights default
+     * to 1 as in {@link Cell#Cell(double, double)}.
+     *
+     * @param inputData    input sequence, one value per timestep
+     * @param outputData   the target value
+     * @param learningRate the global learning rate
+     */
+    public void initialize(double[] inputData, double outputData, double learningRate) {
+        System.arraycopy(inputData, 0, this.xT, 0, this.length);
+        this.outputData = outputData;
+        this.learningRate = learningRate;
+        Arrays.fill(this.weights, 1);
+        Arrays.fill(this.ytMinusOne, 0);
+        Arrays.fill(this.ctMinusOne, 0);
+        Arrays.fill(this.yT, 0);
+        Arrays.fill(this.cT, 0);
+        Arrays.fill(this.dlByDc, 0);
+        this.derivativeLWrtRi = 0;
+        this.derivativeLWrtRo = 0;
+        this.derivativeLWrtRz = 0;
+        this.derivativeLWrtWi = 0;
+        this.derivativeLWrtWo = 0;
+        this.derivativeLWrtWz = 0;
+        this.bestError = Double.NaN;
+        this.hasBest = false;
+        Arrays.fill(this.optimizerState, 0);
+    }
+
+    /**
+     * Binds the kernel to the next input sequence, starting from the best
+     * snapshot of the previous one: the best weights become the current weights
+     * and the best yT and cT become the previous output and cell state. The
+     * optimizer state is kept; all other state is cleared as in
+     * {@link #initialize}.
+     *
+     * @param inputData    input sequence, one value per timestep
+     * @param outputData   the target value
+     * @param learningRate the global learning rate
+     */
+    public void carryOver(double[] inputData, double outputData, double learningRate) {
+        System.arraycopy(this.bestWeights, 0, this.weights, 0, this.weights.length);
+        System.arraycopy(this.bestYt, 0, this.ytMinusOne, 0, this.length);
+        System.arraycopy(this.bestCt, 0, this.ctMinusOne, 0, this.length);
+        System.arraycopy(inputData, 0, this.xT, 0, this.length);
+        this.outputData = outputData;
+        this.learningRate = learningRate;
+        Arrays.fill(this.yT, 0);
+        Arrays.fill(this.cT, 0);
+        Arrays.fill(this.dlByDc, 0);
+        this.derivativeLWrtRi = 0;
+        this.derivativeLWrtRo = 0;
+        this.derivativeLWrtRz = 0;
+        this.derivativeLWrtWi = 0;
+        this.derivativeLWrtWo = 0;
+        this.derivativeLWrtWz = 0;
+        this.bestError = Double.NaN;
+        this.hasBest = false;
+    }
+
+    /**
+     * Forward propagation over all timesteps. The gate activations and tanh(cT)
+     * are kept per timestep for {@link #backward()}.
+     */
+    public void forward() {
+        this.drawDropout();
+        for (int t = 0; t < this.length; t++) {
+            double wI = this.weights[WI * this.length + t];
+            double wO = this.weights[WO * this.length + t];
+            double wZ = this.weights[WZ * this.length + t];
+            double rI = this.weights[RI * this.length + t];
+            double rO = this.weights[RO * this.length + t];
+            double rZ = this.weights[RZ * this.length + t];
+            double x = this.xT[t];
+            double yPrev = this.ytMinusOne[t];
+
+            this.iT[t] = this.activation.sigmoid(wI * x + rI * yPrev);
+            this.oT[t] = this.activation.sigmoid(wO * x + rO * yPrev);
+            this.zT[t] = this.activation.tanh(wZ * x + rZ * yPrev);
+
+            if (this.dropped[t]) {
+                double dropOutProb = 0.0;
+                this.cT[t] = this.ctMinusOne[t] + this.iT[t] * this.zT[t] * dropOutProb;
+                this.tanhCt[t] = this.activation.tanh(this.cT[t]);
+                this.yT[t] = yPrev * (1 - dropOutProb) + this.oT[t] * this.tanhCt[t] * dropOutProb;
+            } else {
+                this.cT[t] = this.ctMinusOne[t] + this.iT[t] * this.zT[t];
+                this.tanhCt[t] = this.activation.tanh(this.cT[t]);
+                this.yT[t] = this.oT[t] * this.tanhCt[t] * this.dropoutScale;
+            }
+            this.error[t] = this.yT[t] - this.outputData;
+
+            if (t < this.length - 1) {
+                this.ytMinusOne[t + 1] = this.yT[t];
+                this.ctMinusOne[t + 1] = this.cT[t];
+                this.error[t] = this.yT[t] - this.xT[t + 1];
+            }
+        }
+    }
+
+    /**
+     * Backward propagation through time. Accumulates the weight derivatives; the
+     * accumulators are not reset between calls. Derivatives are taken from the
+     * activations stored by {@link #forward()}, so no activation function is
+     * evaluated here.
+     */
+    public void backward() {
+        for (int t = this.length - 1; t >= 0; t--) {
+            if (t < this.length - 1) {
+                this.dlByDc[t] = this.dlByDc[t + 1];
+            }
+            double dlByDy = Math.signum(this.error[t]) / Math.sqrt(2);
+            double dlByDo = dlByDy * this.tanhCt[t];
+            this.dlByDc[t] = dlByDy * this.oT[t] * MathUtils.tanhDerivativeFromOutput(this.tanhCt[t]) + this.dlByDc[t];
+            double dlByDi = this.dlByDc[t] * this.zT[t];
+            double dlByDz = this.dlByDc[t] * this.iT[t];
+            this.delI[t] = dlByDi * MathUtils.sigmoidDerivativeFromOutput(this.iT[t]);
+            this.delO[t] = dlByDo * MathUtils.sigmoidDerivativeFromOutput(this.oT[t]);
+            this.delZ[t] = dlByDz * MathUtils.tanhDerivativeFromOutput(this.zT[t]);
+        }
+
+        for (int t = 0; t < this.length; t++) {
+            this.derivativeLWrtRi += this.ytMinusOne[t] * this.delI[t];
+            this.derivativeLWrtRo += this.ytMinusOne[t] * this.delO[t];
+            this.derivativeLWrtRz += this.ytMinusOne[t] * this.delZ[t];
+
+            this.derivativeLWrtWi += this.xT[t] * this.delI[t];
+            this.derivativeLWrtWo += this.xT[t] * this.delO[t];
+            this.derivativeLWrtWz += this.xT[t] * this.delZ[t];
+        }
+    }
+
+    /**
+     * Applies one optimizer step with the averaged accumulated derivatives.
+     */
+    public void updateWeights() {
+        int n = this.length;
+        int size = this.optimizer.stateSize();
+        this.optimizer.update(this.weights, WI * n, 1, n, this.learningRate, this.derivativeLWrtWi / n,
+                this.optimizerState, WI * size);
+        this.optimizer.update(this.weights, WO * n, 1, n, this.learningRate, this.derivativeLWrtWo / n,
+                this.optimizerState, WO * size);
+        this.optimizer.update(this.weights, WZ * n, 1, n, this.learningRate, this.derivativeLWrtWz / n,
+                this.optimizerState, WZ * size);
+        this.optimizer.update(this.weights, RI * n, 1, n, this.learningRate, this.derivativeLWrtRi / n,
+                this.optimizerState, RI * size);
+        this.optimizer.update(this.weights, RO * n, 1, n, this.learningRate, this.derivativeLWrtRo / n,
+                this.optimizerState, RO * size);
+        this.optimizer.update(this.weights, RZ * n, 1, n, this.learningRate, this.derivativeLWrtRz / n,
+                this.optimizerState, RZ * size);
+    }
+
+    /**
+     * Records the current weights and states as the best snapshot if the
+     * absolute error of the last timestep improves on the best seen so far. The
+     * first call always records. Ties keep the earlier snapshot and NaN never
+     * replaces a number, matching {@link Lstm#findGlobalMinima}.
+     *
+     * @return true if the snapshot was replaced
+     */
+    public boolean trackBest() {
+        double err = this.error[this.length - 1];
+        if (this.hasBest && Double.compare(Math.abs(err), Math.abs(this.bestError)) >= 0) {
+            return false;
+        }
+        this.keep(err);
+        return true;
+    }
+
+    /**
+     * Makes the current weights and states the best snapshot if no iteration has
+     * been tracked, so training with zero iterations returns the weights it was
+     * given instead of an empty snapshot.
+     */
+    public void keepCurrentIfUntrained() {
+        if (!this.hasBest) {
+            this.keep(Double.NaN);
+        }
+    }
+
+    private void keep(double err) {
+        System.arraycopy(this.weights, 0, this.bestWeights, 0, this.weights.length);
+        System.arraycopy(this.yT, 0, this.bestYt, 0, this.length);
+        System.arraycopy(this.cT, 0, this.bestCt, 0, this.length);
+        this.bestError = err;
+        this.hasBest = true;
+    }
+
+    private void drawDropout() {
+        if (this.dropoutEnabled) {
+            this.dropoutMask.fill(this.dropped, this.length, this.dropoutRate);
+        } else {
+            Arrays.fill(this.dropped, false);
+        }
+    }
+
+    /**
+     * Selects the activation implementation used by subsequent passes.
+     *
+     * @param activation the activation, usually an {@link ActivationBackend}
+     */
+    public void setActivation(Activation activation) {
+        this.activation = activation;
+    }
+
+    /**
+     * Selects the weight update rule. Changing it clears the optimizer state.
+     *
+     * @param optimizer the optimizer
+     */
+    public void setOptimizer(Optimizer optimizer) {
+        if (optimizer != this.optimizer) {
+            this.optimizer = optimizer;
+            Arrays.fill(this.optimizerState, 0);
+        }
+    }
+
+    /**
+     * Configures dropout for subsequent forward passes.
+     *
+     * @param enabled true to enable dropout
+     * @param rate    probability of dropping a timestep
+     * @param scale   scale applied to the kept outputs
+     */
+    public void setDropout(boolean enabled, double rate, double scale) {
+        this.dropoutEnabled = enabled;
+        this.dropoutRate = rate;
+        this.dropoutScale = scale;
+    }
+
+    /**
+     * Sets the source of the dropout decisions. One decision per timestep is
+     * drawn at the start of every {@link #forward()}, in timestep order.
+     *
+     * @param dropoutMask the dropout mask
+     */
+    public void setDropoutMask(DropoutMask dropoutMask) {
+        this.dropoutMask = dropoutMask;
+    }
+
+    public int getLength() {
+        return this.length;
+    }
+
+    public double getWeight(int type, int t) {
+        return this.weights[type * this.length + t];
+    }
+
+    public void setWeight(int type, int t, double value) {
+        this.weights[type * this.length + t] = value;
+    }
+
+    public double[] getWeights() {
+        return this.weights;
+    }
+
+    public double getYt(int t) {
+        return this.yT[t];
+    }
+
+    public void setYt(int t, double value) {
+        this.yT[t] = value;
+    }
+
+    public double getCt(int t) {
+        return this.cT[t];
+    }
+
+    public void setCt(int t, double value) {
+        this.cT[t] = value;
+    }
+
+    public void setYtMinusOne(int t, double value) {
+        this.ytMinusOne[t] = value;
+    }
+
+    public void setCtMinusOne(int t, double value) {
+        this.ctMinusOne[t] = value;
+    }
+
+    public double getError(int t) {
+        return this.error[t];
+    }
+
+    public double[] getYt() {
+        return this.yT;
+    }
+
+    public double[] getCt() {
+        return this.cT;
+    }
+
+    public double getBestWeight(int type, int t) {
+        return this.bestWeights[type * this.length + t];
+    }
+
+    public double[] getBestWeights() {
+        return this.bestWeights;
+    }
+
+    public double[] getBestYt() {
+        return this.bestYt;
+    }
+
+    public double[] getBestCt() {
+        return this.bestCt;
+    }
+
+    public double getBestError() {
+        return this.bestError;
+    }
+
+    public double getDerivativeLWrtRi() {
+        return this.derivativeLWrtRi;
+    }
+
+    public double getDerivativeLWrtRo() {
+        return this.derivativeLWrtRo;
+    }
+
+    public double getDerivativeLWrtRz() {
+        return this.derivativeLWrtRz;
+    }
+
+    public double getDerivativeLWrtWi() {
+        return this.derivativeLWrtWi;
+    }
+
+    public double getDerivativeLWrtWo() {
+        return this.derivativeLWrtWo;
+    }
+
+    public double getDerivativeLWrtWz() {
+        return this.derivativeLWrtWz;
+    }
+}
@@ -0,0 +1,41 @@
+package predictor.lstm.util;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+/**
+ * Per-thread pool of reusable LSTM training objects, keyed by window length.
+ *
+ * <p>
+ * An instance is created once for a window length on each thread, then
+ * reset and reused for every sample and every fit call on that thread. The
+ * caller must reset the returned object before use.
+ *
+ * @param <T> the type of the pooled training object
+ */
+public class LstmWorkspace<T> {
+
+    private final IntFunction<T> factory;
+    private final ThreadLocal<Map<Integer, T>> pool = ThreadLocal.withInitial(HashMap::new);
+
+    /**
+     * Creates a workspace.
+     *
+     * @param factory creates a new object for the given window length
+     */
+    public LstmWorkspace(IntFunction<T> factory) {
+        this.factory = factory;
+    }
+
+    /**
+     * Returns the current thread's object for the given window length, creating
+     * it on first use.
+     *
+     * @param length the window length
+     * @return the pooled object
+     */
+    public T acquire(int length) {
+        return this.pool.get().computeIfAbsent(length, this.factory::apply);
+    }
+}
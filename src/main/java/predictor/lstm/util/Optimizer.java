@@ -0,0 +1,122 @@
+package predictor.lstm.util;
+
+/**
+ * Weight update rules for the training kernels.
+ *
+ * <p>
+ * A kernel has one gradient per weight type (wi, wo, wz, ri, ro, rz), shared
+ * by all timesteps of that type. {@link #update} applies one step to such a
+ * row of weights and advances the optimizer state of the row, which the kernel
+ * keeps in a {@code double[]} of {@link #stateSize()} values per row. The state
+ * persists across iterations and samples and is cleared only when a kernel
+ * starts from fresh weights.
+ */
+public enum Optimizer {
+
+    /**
+     * The original update: the local rate is chained along the timesteps of one
+     * update with {@link AdaptiveLearningRate#adagradOptimizer}, so later
+     * timesteps take smaller steps, and nothing is carried between updates.
+     */
+    LEGACY_ADAGRAD(0) {
+        @Override
+        public void update(double[] weights, int offset, int stride, int count, double learningRate, double gradient,
+                           double[] state, int stateOffset) {
+            var localLearningRate = 0.;
+            for (int t = 0; t < count; t++) {
+                localLearningRate = RATE.adagradOptimizer(learningRate, localLearningRate, gradient, t);
+                weights[offset + t * stride] -= localLearningRate * gradient;
+            }
+        }
+    },
+
+    /**
+     * Adagrad with the squared gradients accumulated over the whole run.
+     */
+    ADAGRAD(1) {
+        @Override
+        public void update(double[] weights, int offset, int stride, int count, double learningRate, double gradient,
+                           double[] state, int stateOffset) {
+            double sum = state[stateOffset] + gradient * gradient;
+            state[stateOffset] = sum;
+            apply(weights, offset, stride, count, learningRate * gradient / (Math.sqrt(sum) + EPSILON));
+        }
+    },
+
+    /**
+     * RMSProp with decay {@value #RHO}.
+     */
+    RMSPROP(1) {
+        @Override
+        public void update(double[] weights, int offset, int stride, int count, double learningRate, double gradient,
+                           double[] state, int stateOffset) {
+            double mean = RHO * state[stateOffset] + (1 - RHO) * gradient * gradient;
+            state[stateOffset] = mean;
+            apply(weights, offset, stride, count, learningRate * gradient / (Math.sqrt(mean) + EPSILON));
+        }
+    },
+
+    /**
+     * Adam with decay rates {@value #BETA1} and {@value #BETA2} and bias
+     * correction.
+     */
+    ADAM(3) {
+        @Override
+        public void update(double[] weights, int offset, int stride, int count, double learningRate, double gradient,
+                           double[] state, int stateOffset) {
+            double m = BETA1 * state[stateOffset] + (1 - BETA1) * gradient;
+            double v = BETA2 * state[stateOffset + 1] + (1 - BETA2) * gradient * gradient;
+            double step = state[stateOffset + 2] + 1;
+            state[stateOffset] = m;
+            state[stateOffset + 1] = v;
+            state[stateOffset + 2] = step;
+
+            double mHat = m / (1 - Math.pow(BETA1, step));
+            double vHat = v / (1 - Math.pow(BETA2, step));
+            apply(weights, offset, stride, count, learningRate * mHat / (Math.sqrt(vHat) + EPSILON));
+        }
+    };
+
+    public static final double EPSILON = 1e-8;
+    public static final double RHO = 0.9;
+    public static final double BETA1 = 0.9;
+    public static final double BETA2 = 0.999;
+
+    private static final AdaptiveLearningRate RATE = new AdaptiveLearningRate();
+
+    private final int stateSize;
+
+    Optimizer(int stateSize) {
+        this.stateSize = stateSize;
+    }
+
+    /**
+     * Number of state values kept per row of weights.
+     *
+     * @return the state size
+     */
+    public int stateSize() {
+        return this.stateSize;
+    }
+
+    /**
+     * Applies one step to a row of weights that share a gradient.
+     *
+     * @param weights      the weight array
+     * @param offset       index of the first weight of the row
+     * @param stride       distance between consecutive weights of the row
+     * @param count        number of weights in the row
+     * @param learningRate the global learning rate
+     * @param gradient     the gradient of the row
+     * @param state        the optimizer state
+     * @param stateOffset  index of the first state value of the row
+     */
+    public abstract void update(double[] weights, int offset, int stride, int count, double learningRate,
+                                double gradient, double[] state, int stateOffset);
+
+    private static void apply(double[] weights, int offset, int stride, int count, double delta) {
+        for (int t = 0; t < count; t++) {
+            weights[offset + t * stride] -= delta;
+        }
+    }
+}
@@ -0,0 +1,140 @@
+package predictor.lstm.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Plans the blocks of slots that {@link LockstepEngine} trains in parallel.
+ *
+ * <p>
+ * Slot costs are skewed: the iteration count of a slot depends on its last
+ * validation error and ranges from 1 to {@code 10 * epochTrack + 1}. The
+ * planner packs the slots into blocks of about equal cost with the longest
+ * processing time rule: slots are taken longest first, and each goes to the
+ * block with the least cost so far. The few expensive slots therefore land in
+ * different blocks instead of running one after another in the same one. The
+ * blocks are returned longest first; submitted in that order to a fork-join
+ * pool, idle workers steal the remaining short blocks, which keeps the end of
+ * a batch balanced.
+ */
+public final class SlotScheduler {
+
+    private SlotScheduler() {
+    }
+
+    /**
+     * Estimated cost of training one slot, in timestep updates.
+     *
+     * @param iterations gradient descent iterations per sample
+     * @param samples    number of training samples
+     * @param windowSize window length
+     * @return the cost, at least 1
+     */
+    public static double cost(int iterations, int samples, int windowSize) {
+        return Math.max(1.0, (double) iterations * samples * windowSize);
+    }
+
+    /**
+     * Packs the slots into blocks of about equal cost.
+     *
+     * @param costs  the estimated cost of each slot
+     * @param blocks the number of blocks wanted
+     * @return the slot indices of each block, blocks in descending cost and slots
+     *         within a block in ascending index
+     */
+    public static List<int[]> plan(double[] costs, int blocks) {
+        int slots = costs.length;
+        var order = new Integer[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            order[slot] = slot;
+        }
+        // Stable, so slots of equal cost keep their index order
+        Arrays.sort(order, Comparator.comparingDouble((Integer slot) -> costs[slot]).reversed());
+
+        int count = Math.max(1, Math.min(blocks, slots));
+        var loads = new double[count];
+        var members = new ArrayList<List<Integer>>(count);
+        for (int b = 0; b < count; b++) {
+            members.add(new ArrayList<>());
+        }
+        for (int slot : order) {
+            // Least loaded block, the first one on ties
+            int least = 0;
+            for (int b = 1; b < count; b++) {
+                if (loads[b] < loads[least]) {
+                    least = b;
+                }
+            }
+            loads[least] += costs[slot];
+            members.get(least).add(slot);
+        }
+
+        var byCost = new Integer[count];
+        for (int b = 0; b < count; b++) {
+            byCost[b] = b;
+        }
+        Arrays.sort(byCost, Comparator.comparingDouble((Integer b) -> loads[b]).reversed());
+
+        var plan = new ArrayList<int[]>(count);
+        for (int b : byCost) {
+            var block = members.get(b).stream().mapToInt(Integer::intValue).sorted().toArray();
+            plan.add(block);
+        }
+        return plan;
+    }
+
+    /**
+     * Estimated cost of a block: the summed cost of its slots.
+     *
+     * @param costs the estimated cost of each slot
+     * @param block the slot indices of the block
+     * @return the cost
+     */
+    public static double cost(double[] costs, int[] block) {
+        double total = 0;
+        for (int slot : block) {
+            total += costs[slot];
+        }
+        return total;
+    }
+
+    /**
+     * Measured outcome of one parallel fit.
+     *
+     * @param blocks       number of blocks
+     * @param workers      parallelism of the pool
+     * @param makespan     wall time from the first submission to the last
+     *                     result, in nanoseconds
+     * @param busy         summed run time of all blocks, in nanoseconds
+     * @param longestBlock run time of the longest block, in nanoseconds
+     */
+    public record ScheduleReport(int blocks, int workers, long makespan, long busy, long longestBlock) {
+
+        /**
+         * Lower bound of the makespan: the work spread evenly over the workers,
+         * but never less than the longest block.
+         *
+         * @return the ideal makespan, in nanoseconds
+         */
+        public long getIdeal() {
+            return Math.max(this.busy / Math.max(1, this.workers), this.longestBlock);
+        }
+
+        /**
+         * Ideal over measured makespan.
+         *
+         * @return a value from 0 to 1, 1 being a perfect schedule
+         */
+        public double getEfficiency() {
+            return this.makespan == 0 ? 1 : Math.min(1, (double) this.getIdeal() / this.makespan);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d blocks on %d workers: makespan %.1f ms, ideal %.1f ms (%.0f%%)", this.blocks,
+                    this.workers, this.makespan / 1e6, this.getIdeal() / 1e6, 100 * this.getEfficiency());
+        }
+    }
+}
@@ -0,0 +1,276 @@
+package predictor.lstm.util;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.DoubleSupplier;
+
+/**
+ * Limits the CPU that training takes from other processes on the same host.
+ *
+ * <p>
+ * The governor does three things:
+ * <ul>
+ * <li>It caps the parallelism of the attached pools, the train and the
+ * validate pool, to a share of the cores. The pools run at the same time, so
+ * the share is split between them, and no pool is raised above the
+ * parallelism it was created with. When other processes keep cores busy, the
+ * cap drops further. Every pool keeps at least one thread, so the pools only
+ * exceed the cap when it is below the number of pools. The load is sampled at
+ * most once per adapt interval from
+ * {@link java.lang.management.OperatingSystemMXBean}.</li>
+ * <li>It enforces a duty cycle: after a unit of work, a worker sleeps long
+ * enough that it is busy for at most the configured fraction of the
+ * time.</li>
+ * <li>It can be paused. Workers then stop at their next checkpoint until it is
+ * resumed.</li>
+ * </ul>
+ *
+ * <p>
+ * Training and validation code calls {@link #start()} before a task and
+ * {@link #checkpoint(long)} between its units of work, e.g. the samples of a
+ * slot block or a range of scored candidates.
+ */
+public class TrainingGovernor {
+
+    private final int cores;
+    private final int budget;
+    private final double dutyCycle;
+    private final long adaptIntervalNanos;
+    private final DoubleSupplier foreignLoad;
+    private final AtomicLong lastAdapt = new AtomicLong(Long.MIN_VALUE);
+    private final Object pauseLock = new Object();
+
+    private final CopyOnWriteArrayList<Attached> pools = new CopyOnWriteArrayList<>();
+    private volatile int allowedParallelism;
+    private volatile boolean paused;
+
+    private TrainingGovernor(Builder builder) {
+        this.cores = builder.cores;
+        this.budget = Math.max(1, (int) Math.floor(builder.cores * builder.coreShare));
+        this.dutyCycle = builder.dutyCycle;
+        this.adaptIntervalNanos = TimeUnit.MILLISECONDS.toNanos(builder.adaptIntervalMillis);
+        this.foreignLoad = builder.foreignLoad != null ? builder.foreignLoad : this::osForeignLoad;
+        this.allowedParallelism = this.budget;
+    }
+
+    private record Attached(ForkJoinPool pool, int maxParallelism) {
+    }
+
+    /**
+     * Caps the parallelism of a pool from now on, sharing the allowed
+     * parallelism with the pools attached before. The current parallelism of
+     * the pool is the most it gets.
+     *
+     * @param pool the pool, e.g. the train or the validate pool
+     */
+    public void attach(ForkJoinPool pool) {
+        this.pools.add(new Attached(pool, pool.getParallelism()));
+        this.distribute(this.allowedParallelism);
+    }
+
+    /**
+     * Marks the start of a task: waits while paused.
+     *
+     * @return the start of the busy period, for {@link #checkpoint(long)}
+     */
+    public long start() {
+        this.adapt();
+        this.awaitResume();
+        return System.nanoTime();
+    }
+
+    /**
+     * Called between units of work. Sleeps to keep the duty cycle, waits while
+     * paused, and adapts the parallelism to the system load.
+     *
+     * @param busySince the value returned by {@link #start()} or the previous
+     *                  checkpoint
+     * @return the start of the next busy period
+     */
+    public long checkpoint(long busySince) {
+        if (this.dutyCycle < 1) {
+            long busy = System.nanoTime() - busySince;
+            long rest = (long) (busy * (1 - this.dutyCycle) / this.dutyCycle);
+            if (rest > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(rest);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        return this.start();
+    }
+
+    /**
+     * Stops workers at their next checkpoint.
+     */
+    public void pause() {
+        this.paused = true;
+    }
+
+    /**
+     * Lets paused workers continue.
+     */
+    public void resume() {
+        synchronized (this.pauseLock) {
+            this.paused = false;
+            this.pauseLock.notifyAll();
+        }
+    }
+
+    public boolean isPaused() {
+        return this.paused;
+    }
+
+    /**
+     * Parallelism currently allowed for all attached pools together.
+     *
+     * @return the number of threads
+     */
+    public int getAllowedParallelism() {
+        return this.allowedParallelism;
+    }
+
+    public int getBudget() {
+        return this.budget;
+    }
+
+    private void awaitResume() {
+        if (!this.paused) {
+            return;
+        }
+        synchronized (this.pauseLock) {
+            while (this.paused) {
+                try {
+                    this.pauseLock.wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    private void adapt() {
+        long now = System.nanoTime();
+        long last = this.lastAdapt.get();
+        if (last != Long.MIN_VALUE && now - last < this.adaptIntervalNanos) {
+            return;
+        }
+        if (!this.lastAdapt.compareAndSet(last, now)) {
+            return; // another worker is adapting
+        }
+
+        double foreign = Math.max(0, this.foreignLoad.getAsDouble());
+        int allowed = Math.max(1, Math.min(this.budget, (int) Math.floor(this.cores - foreign)));
+        if (allowed != this.allowedParallelism) {
+            this.allowedParallelism = allowed;
+            this.distribute(allowed);
+        }
+    }
+
+    /**
+     * Splits the allowed parallelism evenly between the pools, one thread at a
+     * time in the order they were attached, skipping pools at their maximum.
+     */
+    private synchronized void distribute(int allowed) {
+        var shares = new int[this.pools.size()];
+        Arrays.fill(shares, 1);
+        int left = allowed - shares.length;
+        boolean grown = true;
+        while (left > 0 && grown) {
+            grown = false;
+            for (int i = 0; i < shares.length && left > 0; i++) {
+                if (shares[i] < this.pools.get(i).maxParallelism()) {
+                    shares[i]++;
+                    left--;
+                    grown = true;
+                }
+            }
+        }
+        for (int i = 0; i < shares.length; i++) {
+            this.pools.get(i).pool().setParallelism(shares[i]);
+        }
+    }
+
+    /**
+     * Cores kept busy by other processes: total minus own CPU load where the JVM
+     * reports both, otherwise the load average minus the own threads.
+     */
+    private double osForeignLoad() {
+        var os = ManagementFactory.getOperatingSystemMXBean();
+        if (os instanceof com.sun.management.OperatingSystemMXBean sun) {
+            double system = sun.getCpuLoad();
+            double process = sun.getProcessCpuLoad();
+            if (system >= 0 && process >= 0) {
+                return (system - process) * this.cores;
+            }
+        }
+        double load = os.getSystemLoadAverage();
+        return load < 0 ? 0 : load - this.allowedParallelism;
+    }
+
+    public static class Builder {
+        private int cores = Runtime.getRuntime().availableProcessors();
+        private double coreShare = 0.5;
+        private double dutyCycle = 1;
+        private long adaptIntervalMillis = 1000;
+        private DoubleSupplier foreignLoad;
+
+        public Builder setCores(int cores) {
+            this.cores = cores;
+            return this;
+        }
+
+        /**
+         * Share of the cores training may use at most.
+         *
+         * @param coreShare a value in (0, 1]
+         * @return this builder
+         */
+        public Builder setCoreShare(double coreShare) {
+            this.coreShare = coreShare;
+            return this;
+        }
+
+        /**
+         * Fraction of time a worker may be busy.
+         *
+         * @param dutyCycle a value in (0, 1]; 1 never sleeps
+         * @return this builder
+         */
+        public Builder setDutyCycle(double dutyCycle) {
+            this.dutyCycle = dutyCycle;
+            return this;
+        }
+
+        public Builder setAdaptIntervalMillis(long adaptIntervalMillis) {
+            this.adaptIntervalMillis = adaptIntervalMillis;
+            return this;
+        }
+
+        /**
+         * Replaces the operating system as the source of foreign load.
+         *
+         * @param foreignLoad returns the number of cores busy with other work
+         * @return this builder
+         */
+        public Builder setForeignLoad(DoubleSupplier foreignLoad) {
+            this.foreignLoad = foreignLoad;
+            return this;
+        }
+
+        public TrainingGovernor build() {
+            if (this.cores < 1 || !(this.coreShare > 0 && this.coreShare <= 1)
+                    || !(this.dutyCycle > 0 && this.dutyCycle <= 1)) {
+                throw new IllegalArgumentException("Invalid governor limits");
+            }
+            return new TrainingGovernor(this);
+        }
+    }
+}
@@ -1,6 +1,6 @@
 package predictor.lstm.util.forgetgate;
 
-import java.util.Random;
+import predictor.lstm.util.DropoutMask;
 import predictor.lstm.utilities.MathUtils;
 
 public class CellWithForgetGate {
@@ -27,6 +27,7 @@ public class CellWithForgetGate {
     private double ytMinusOne;
 
     private double cT;
+    private double tanhCt;
     private double ctMinusOne;
     
     // Gate activations
@@ -55,6 +56,7 @@ public class CellWithForgetGate {
     private boolean dropoutEnabled = false;
     private double dropoutRate = 0.0;
     private double dropoutMask = 1.0; 
+    private DropoutMask dropoutSource;
 
     public CellWithForgetGate(double xt, double outputData) {
         // Default init with 1s, but usually set explicitly later
@@ -66,6 +68,27 @@ public class CellWithForgetGate {
         this.ytMinusOne = 0;
     }
 
+    /**
+     * Restores the state set by {@link #CellWithForgetGate(double, double)} so
+     * the cell can be reused for another sample.
+     */
+    public void reset(double xt, double outputData) {
+        this.error = 0;
+        this.wI = 1; this.wO = 1; this.wZ = 1; this.wF = 1;
+        this.rI = 1; this.rO = 1; this.rZ = 1; this.rF = 1;
+        this.yT = 0; this.ytMinusOne = 0;
+        this.cT = 0; this.tanhCt = 0; this.ctMinusOne = 0;
+        this.iT = 0; this.oT = 0; this.zT = 0; this.fT = 0;
+        this.dlByDy = 0; this.dlByDo = 0; this.dlByDc = 0;
+        this.dlByDi = 0; this.dlByDz = 0; this.dlByDf = 0;
+        this.delI = 0; this.delO = 0; this.delZ = 0; this.delF = 0;
+        this.xT = xt;
+        this.outputDataLoc = outputData;
+        this.dropoutEnabled = false;
+        this.dropoutRate = 0.0;
+        this.dropoutMask = 1.0;
+    }
+
     public void setDropoutEnabled(boolean enabled) {
         this.dropoutEnabled = enabled;
     }
@@ -74,6 +97,20 @@ public class CellWithForgetGate {
         this.dropoutRate = rate;
     }
 
+    /**
+     * Sets the source of the dropout decisions. Without one, the mask of the
+     * current thread is used.
+     *
+     * @param dropoutSource the dropout mask
+     */
+    public void setDropoutSource(DropoutMask dropoutSource) {
+        this.dropoutSource = dropoutSource;
+    }
+
+    private DropoutMask dropoutSource() {
+        return this.dropoutSource != null ? this.dropoutSource : DropoutMask.current();
+    }
+
     /**
      * Forward propagation with Forget Gate.
      */
@@ -88,12 +125,12 @@ public class CellWithForgetGate {
         this.cT = this.fT * this.ctMinusOne + this.iT * this.zT;
         
         // Calculate raw output
-        double rawYt = this.oT * MathUtils.tanh(this.cT);
+        this.tanhCt = MathUtils.tanh(this.cT);
+        double rawYt = this.oT * this.tanhCt;
 
         // Apply Dropout (Inverted)
         if (this.dropoutEnabled && this.dropoutRate > 0) {
-            Random random = new Random();
-            boolean keep = random.nextDouble() >= this.dropoutRate;
+            boolean keep = !this.dropoutSource().drop(this.dropoutRate);
             this.dropoutMask = keep ? (1.0 / (1.0 - this.dropoutRate)) : 0.0;
             this.yT = rawYt * this.dropoutMask;
         } else {
@@ -105,7 +142,8 @@ public class CellWithForgetGate {
     }
 
     /**
-     * Backward propagation with Forget Gate.
+     * Backward propagation with Forget Gate, using the activations of the last
+     * forward pass.
      */
     public void backwardPropogation() {
         // dL/dyT
@@ -116,11 +154,11 @@ public class CellWithForgetGate {
         }
 
         // dL/doT
-        this.dlByDo = this.dlByDy * MathUtils.tanh(this.cT);
+        this.dlByDo = this.dlByDy * this.tanhCt;
         
         // dL/dcT (current step contribution)
         // yT = oT * tanh(cT) -> dy/dc = oT * (1-tanh^2)
-        double dlByDcCurrent = this.dlByDy * this.oT * MathUtils.tanhDerivative(this.cT);
+        double dlByDcCurrent = this.dlByDy * this.oT * MathUtils.tanhDerivativeFromOutput(this.tanhCt);
         
         // Accumulate gradient from future (dlByDc passed from next cell)
         this.dlByDc = dlByDcCurrent + this.dlByDc;
@@ -153,10 +191,10 @@ public class CellWithForgetGate {
         // We need to expose `fT` so the LSTM loop can calculate `dL/dc_{t-1}`.
 
         // Activation gradients (sigmoid/tanh derivative)
-        this.delI = this.dlByDi * MathUtils.sigmoidDerivative(this.wI * this.xT + this.rI * this.ytMinusOne);
-        this.delO = this.dlByDo * MathUtils.sigmoidDerivative(this.wO * this.xT + this.rO * this.ytMinusOne);
-        this.delZ = this.dlByDz * MathUtils.tanhDerivative(this.wZ * this.xT + this.rZ * this.ytMinusOne);
-        this.delF = this.dlByDf * MathUtils.sigmoidDerivative(this.wF * this.xT + this.rF * this.ytMinusOne);
+        this.delI = this.dlByDi * MathUtils.sigmoidDerivativeFromOutput(this.iT);
+        this.delO = this.dlByDo * MathUtils.sigmoidDerivativeFromOutput(this.oT);
+        this.delZ = this.dlByDz * MathUtils.tanhDerivativeFromOutput(this.zT);
+        this.delF = this.dlByDf * MathUtils.sigmoidDerivativeFromOutput(this.fT);
     }
 
     // Getters and Setters
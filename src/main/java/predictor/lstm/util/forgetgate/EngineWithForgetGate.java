@@ -9,6 +9,8 @@ import java.util.ArrayList;
 
 import predictor.lstm.common.DataStatistics;
 import predictor.lstm.common.HyperParameters;
+import predictor.lstm.util.DropoutMask;
+import predictor.lstm.util.LstmWorkspace;
 import predictor.lstm.util.forgetgate.LstmWithForgetGate.LstmBuilder;
 
 public class EngineWithForgetGate {
@@ -18,23 +20,25 @@ public class EngineWithForgetGate {
     private double[][] validateData;
     private double[] validateTarget;
     private double learningRate;
+    private String dropoutModel;
+    private int dropoutStream;
 
     public double getLearningRate() { return this.learningRate; }
 
     private final ArrayList<ArrayList<ArrayList<Double>>> weights = new ArrayList<ArrayList<ArrayList<Double>>>();
     private final ArrayList<ArrayList<Double>> finalWeights = new ArrayList<ArrayList<Double>>();
 
+    private static final LstmWorkspace<LstmWithForgetGate> WORKSPACE = new LstmWorkspace<>(
+            length -> new LstmBuilder(new double[length], 0).build());
+
     public void fit(int epochs, ArrayList<ArrayList<Double>> val, HyperParameters hyperParameters) {
         var rate = new predictor.lstm.util.improved.AdaptiveLearningRateImproved();
 
         this.learningRate = rate.scheduler(hyperParameters);
 
-        var ls = new LstmBuilder(this.inputMatrix[0], this.targetVector[0])
-                .setLearningRate(this.learningRate)
-                .setEpoch(epochs)
-                .build();
-
-        ls.initilizeCells();
+        var ls = WORKSPACE.acquire(this.inputMatrix[0].length);
+        ls.reset(this.inputMatrix[0], this.targetVector[0], this.learningRate, epochs);
+        ls.setDropoutMask(DropoutMask.forStream(hyperParameters, this.dropoutModel, this.dropoutStream));
 
         // Standard
         ls.setWi(val); ls.setWo(val); ls.setWz(val);
@@ -53,29 +57,14 @@ public class EngineWithForgetGate {
 
         for (int i = 1; i < this.inputMatrix.length; i++) {
             this.learningRate = rate.scheduler(hyperParameters);
-            ls = new LstmBuilder(this.inputMatrix[i], this.targetVector[i])
-                    .setLearningRate(this.learningRate)
-                    .setEpoch(epochs)
-                    .build();
-
-            ls.initilizeCells();
+            ls.reset(this.inputMatrix[i], this.targetVector[i], this.learningRate, epochs);
 
             // Set weights from previous step (wieghtMatrix)
-            for (int j = 0; j < ls.cells.size(); j++) {
-                ls.cells.get(j).setWi(wieghtMatrix.get(0).get(j));
-                ls.cells.get(j).setWo(wieghtMatrix.get(1).get(j));
-                ls.cells.get(j).setWz(wieghtMatrix.get(2).get(j));
-                ls.cells.get(j).setRi(wieghtMatrix.get(3).get(j));
-                ls.cells.get(j).setRo(wieghtMatrix.get(4).get(j));
-                ls.cells.get(j).setRz(wieghtMatrix.get(5).get(j));
-                ls.cells.get(j).setYtMinusOne(wieghtMatrix.get(6).get(j));
-                ls.cells.get(j).setCtMinusOne(wieghtMatrix.get(7).get(j));
-                // Forget Gate
-                if (wieghtMatrix.size() > 8) {
-                    ls.cells.get(j).setWf(wieghtMatrix.get(8).get(j));
-                    ls.cells.get(j).setRf(wieghtMatrix.get(9).get(j));
-                }
-            }
+            ls.setWi(wieghtMatrix); ls.setWo(wieghtMatrix); ls.setWz(wieghtMatrix);
+            ls.setRi(wieghtMatrix); ls.setRo(wieghtMatrix); ls.setRz(wieghtMatrix);
+            ls.setYtMinusOne(wieghtMatrix); ls.setCtMinusOne(wieghtMatrix);
+            // Forget Gate
+            ls.setWf(wieghtMatrix); ls.setRf(wieghtMatrix);
 
             wieghtMatrix = ls.train();
             this.weights.add(wieghtMatrix);
@@ -144,6 +133,8 @@ public class EngineWithForgetGate {
         this.targetVector = builder.targetVector;
         this.validateData = builder.validateData;
         this.validateTarget = builder.validateTarget;
+        this.dropoutModel = builder.dropoutModel;
+        this.dropoutStream = builder.dropoutStream;
     }
 
     public static class EngineBuilder {
@@ -151,6 +142,8 @@ public class EngineWithForgetGate {
         private double[] targetVector;
         private double[][] validateData;
         private double[] validateTarget;
+        private String dropoutModel;
+        private int dropoutStream;
 
         public EngineBuilder() {}
 
@@ -174,6 +167,21 @@ public class EngineWithForgetGate {
             return this;
         }
 
+        /**
+         * Dropout stream of this model, used with
+         * {@link HyperParameters#getDropoutSeed()}. Models of the same type trained
+         * in the same batch should use different stream numbers.
+         *
+         * @param dropoutModel  the model type, e.g. "trend" or "seasonality"
+         * @param dropoutStream the stream number
+         * @return this builder
+         */
+        public EngineBuilder setDropoutStream(String dropoutModel, int dropoutStream) {
+            this.dropoutModel = dropoutModel;
+            this.dropoutStream = dropoutStream;
+            return this;
+        }
+
         public EngineWithForgetGate build() {
             return new EngineWithForgetGate(this);
         }
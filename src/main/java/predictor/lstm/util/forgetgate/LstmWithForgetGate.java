@@ -3,6 +3,7 @@ package predictor.lstm.util.forgetgate;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.stream.IntStream;
+import predictor.lstm.util.DropoutMask;
 import predictor.lstm.util.MatrixWeight;
 import predictor.lstm.util.improved.AdaptiveLearningRateImproved;
 
@@ -27,6 +28,7 @@ public class LstmWithForgetGate {
     private ArrayList<Double> accumulatedGradientSq; 
 
     private double learningRate;
+    private DropoutMask dropoutMask = DropoutMask.current();
     private int epoch = 100;
     private double epsilon = 1e-8;
 
@@ -45,6 +47,15 @@ public class LstmWithForgetGate {
         }
     }
 
+    /**
+     * Sets the source of the dropout decisions of the cells.
+     *
+     * @param dropoutMask the dropout mask
+     */
+    public void setDropoutMask(DropoutMask dropoutMask) {
+        this.dropoutMask = dropoutMask;
+    }
+
     /**
      * Forward propagation.
      */
@@ -56,6 +67,7 @@ public class LstmWithForgetGate {
                 if (training) {
                     this.cells.get(i).setDropoutEnabled(true);
                     this.cells.get(i).setDropoutRate(dropoutRate);
+                    this.cells.get(i).setDropoutSource(this.dropoutMask);
                 } else {
                     this.cells.get(i).setDropoutEnabled(false);
                 }
@@ -291,6 +303,13 @@ public class LstmWithForgetGate {
         }
     }
 
+    public synchronized void setYtMinusOne(ArrayList<ArrayList<Double>> val) {
+        for (int i = 0; i < val.get(6).size(); i++) { this.cells.get(i).setYtMinusOne(val.get(6).get(i)); }
+    }
+    public synchronized void setCtMinusOne(ArrayList<ArrayList<Double>> val) {
+        for (int i = 0; i < val.get(7).size(); i++) { this.cells.get(i).setCtMinusOne(val.get(7).get(i)); }
+    }
+
     public synchronized void initilizeCells() {
         this.cells = new ArrayList<>();
         for (int i = 0; i < this.inputData.length; i++) {
@@ -299,6 +318,27 @@ public class LstmWithForgetGate {
         }
     }
 
+    /**
+     * Rebinds this instance to a new sample so it can be reused. Cells are reset
+     * in place when the length matches; Adagrad state starts from zero.
+     */
+    public synchronized void reset(double[] inputData, double outputData, double learningRate, int epoch) {
+        this.inputData = inputData;
+        this.outputData = outputData;
+        this.learningRate = learningRate;
+        this.epoch = epoch;
+        for (int k = 0; k < this.accumulatedGradientSq.size(); k++) {
+            this.accumulatedGradientSq.set(k, 0.0);
+        }
+        if (this.cells == null || this.cells.size() != inputData.length) {
+            this.initilizeCells();
+            return;
+        }
+        for (int i = 0; i < inputData.length; i++) {
+            this.cells.get(i).reset(inputData[i], outputData);
+        }
+    }
+
     public static class LstmBuilder {
         protected double[] inputData;
         protected double outputData;
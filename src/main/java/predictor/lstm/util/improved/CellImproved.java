@@ -1,6 +1,6 @@
 package predictor.lstm.util.improved;
 
-import java.util.Random;
+import predictor.lstm.util.DropoutMask;
 import predictor.lstm.utilities.MathUtils;
 
 public class CellImproved {
@@ -18,6 +18,7 @@ public class CellImproved {
     private double ytMinusOne;
 
     private double cT;
+    private double tanhCt;
     private double ctMinusOne;
     private double oT;
     private double zT;
@@ -39,6 +40,7 @@ public class CellImproved {
     private boolean dropoutEnabled = false;
     private double dropoutRate = 0.0;
     private double dropoutMask = 1.0; // 1.0 means keep, 0.0 means drop
+    private DropoutMask dropoutSource;
 
     public CellImproved(double xt, double outputData) {
         this(xt, outputData, 1, 1, 1, 1, 1, 1, 0);
@@ -74,6 +76,44 @@ public class CellImproved {
         this.outputDataLoc = outputData;
     }
 
+    /**
+     * Restores the state set by {@link #CellImproved(double, double)} so the cell
+     * can be reused for another sample.
+     *
+     * @param xt         input value
+     * @param outputData the target value
+     */
+    public void reset(double xt, double outputData) {
+        this.error = 0;
+        this.wI = 1;
+        this.wO = 1;
+        this.wZ = 1;
+        this.rI = 1;
+        this.rO = 1;
+        this.rZ = 1;
+        this.cT = 0;
+        this.tanhCt = 0;
+        this.oT = 0;
+        this.zT = 0;
+        this.yT = 0;
+        this.ytMinusOne = 0;
+        this.ctMinusOne = 0;
+        this.dlByDy = 0;
+        this.dlByDo = 0;
+        this.dlByDc = 0;
+        this.dlByDi = 0;
+        this.dlByDz = 0;
+        this.delI = 0;
+        this.delO = 0;
+        this.delZ = 0;
+        this.iT = 0;
+        this.xT = xt;
+        this.outputDataLoc = outputData;
+        this.dropoutEnabled = false;
+        this.dropoutRate = 0.0;
+        this.dropoutMask = 1.0;
+    }
+
     public void setDropoutEnabled(boolean enabled) {
         this.dropoutEnabled = enabled;
     }
@@ -82,6 +122,20 @@ public class CellImproved {
         this.dropoutRate = rate;
     }
 
+    /**
+     * Sets the source of the dropout decisions. Without one, the mask of the
+     * current thread is used.
+     *
+     * @param dropoutSource the dropout mask
+     */
+    public void setDropoutSource(DropoutMask dropoutSource) {
+        this.dropoutSource = dropoutSource;
+    }
+
+    private DropoutMask dropoutSource() {
+        return this.dropoutSource != null ? this.dropoutSource : DropoutMask.current();
+    }
+
     /**
      * Forward propagation with standard Inverted Dropout.
      */
@@ -94,7 +148,8 @@ public class CellImproved {
         this.cT = this.ctMinusOne + this.iT * this.zT;
         
         // Calculate raw output
-        double rawYt = this.oT * MathUtils.tanh(this.cT);
+        this.tanhCt = MathUtils.tanh(this.cT);
+        double rawYt = this.oT * this.tanhCt;
 
         // Apply Dropout
         if (this.dropoutEnabled && this.dropoutRate > 0) {
@@ -102,8 +157,7 @@ public class CellImproved {
             // 1. Generate mask (1 with probability (1-p), 0 with probability p)
             // 2. Scale by 1/(1-p) during training so no scaling is needed during testing
             
-            Random random = new Random();
-            boolean keep = random.nextDouble() >= this.dropoutRate;
+            boolean keep = !this.dropoutSource().drop(this.dropoutRate);
             this.dropoutMask = keep ? (1.0 / (1.0 - this.dropoutRate)) : 0.0;
             
             this.yT = rawYt * this.dropoutMask;
@@ -118,7 +172,7 @@ public class CellImproved {
     }
 
     /**
-     * Backward propagation.
+     * Backward propagation, using the activations of the last forward pass.
      */
     public void backwardPropogation() {
         // Gradient of Loss w.r.t Output yT
@@ -135,10 +189,10 @@ public class CellImproved {
         // Backprop through Output Gate (oT) and Cell State (cT)
         // yT = oT * tanh(cT)
         // dl/doT = dl/dyT * tanh(cT)
-        this.dlByDo = this.dlByDy * MathUtils.tanh(this.cT);
+        this.dlByDo = this.dlByDy * this.tanhCt;
         
         // dl/dcT (current step contribution) = dl/dyT * oT * (1 - tanh^2(cT))
-        double dlByDcCurrent = this.dlByDy * this.oT * MathUtils.tanhDerivative(this.cT);
+        double dlByDcCurrent = this.dlByDy * this.oT * MathUtils.tanhDerivativeFromOutput(this.tanhCt);
         
         // Add gradient from next time step (dlByDc accumulated from future)
         this.dlByDc = dlByDcCurrent + this.dlByDc;
@@ -154,13 +208,13 @@ public class CellImproved {
 
         // Gradients for gates (activations)
         // iT = sigmoid(...) -> dl/dInput = dl/diT * iT * (1 - iT)
-        this.delI = this.dlByDi * MathUtils.sigmoidDerivative(this.wI * this.xT + this.rI * this.ytMinusOne);
+        this.delI = this.dlByDi * MathUtils.sigmoidDerivativeFromOutput(this.iT);
         
         // oT = sigmoid(...) -> dl/dInput = dl/doT * oT * (1 - oT)
-        this.delO = this.dlByDo * MathUtils.sigmoidDerivative(this.wO * this.xT + this.rO * this.ytMinusOne);
+        this.delO = this.dlByDo * MathUtils.sigmoidDerivativeFromOutput(this.oT);
         
         // zT = tanh(...) -> dl/dInput = dl/dzT * (1 - zT^2)
-        this.delZ = this.dlByDz * MathUtils.tanhDerivative(this.wZ * this.xT + this.rZ * this.ytMinusOne);
+        this.delZ = this.dlByDz * MathUtils.tanhDerivativeFromOutput(this.zT);
         
         // Note: Gradients w.r.t weights (Wi, Ri, etc.) are calculated in LstmImproved class
         // by accumulating delI, delO, delZ multiplied by inputs (xT, ytMinusOne).
@@ -9,6 +9,8 @@ import java.util.ArrayList;
 
 import predictor.lstm.common.DataStatistics;
 import predictor.lstm.common.HyperParameters;
+import predictor.lstm.util.DropoutMask;
+import predictor.lstm.util.LstmWorkspace;
 import predictor.lstm.util.improved.LstmImproved.LstmBuilder;
 
 public class EngineImproved {
@@ -18,12 +20,17 @@ public class EngineImproved {
     private double[][] validateData;
     private double[] validateTarget;
     private double learningRate;
+    private String dropoutModel;
+    private int dropoutStream;
 
     public double getLearningRate() { return this.learningRate; }
 
     private final ArrayList<ArrayList<ArrayList<Double>>> weights = new ArrayList<ArrayList<ArrayList<Double>>>();
     private final ArrayList<ArrayList<Double>> finalWeights = new ArrayList<ArrayList<Double>>();
 
+    private static final LstmWorkspace<LstmImproved> WORKSPACE = new LstmWorkspace<>(
+            length -> new LstmBuilder(new double[length], 0).build());
+
     /**
      * This method train the LSTM network. and Update the finalWeight matrix.
      *
@@ -38,12 +45,9 @@ public class EngineImproved {
         this.learningRate = rate.scheduler(hyperParameters);
 
         // First Time default LSTM object
-        var ls = new LstmBuilder(this.inputMatrix[0], this.targetVector[0])//
-                .setLearningRate(this.learningRate) //
-                .setEpoch(epochs)//
-                .build();
-
-        ls.initilizeCells();
+        var ls = WORKSPACE.acquire(this.inputMatrix[0].length);
+        ls.reset(this.inputMatrix[0], this.targetVector[0], this.learningRate, epochs);
+        ls.setDropoutMask(DropoutMask.forStream(hyperParameters, this.dropoutModel, this.dropoutStream));
 
         ls.setWi(val);
         ls.setWo(val);
@@ -62,24 +66,16 @@ public class EngineImproved {
 
             this.learningRate = rate.scheduler(hyperParameters);
             // Update the Lstm
-            ls = new LstmBuilder(this.inputMatrix[i], this.targetVector[i])//
-                    .setLearningRate(this.learningRate) //
-                    .setEpoch(epochs) //
-                    .build();
-
-            ls.initilizeCells();
-
-            for (int j = 0; j < ls.cells.size(); j++) {
+            ls.reset(this.inputMatrix[i], this.targetVector[i], this.learningRate, epochs);
 
-                ls.cells.get(j).setWi((wieghtMatrix.get(0)).get(j));
-                ls.cells.get(j).setWo((wieghtMatrix.get(1)).get(j));
-                ls.cells.get(j).setWz((wieghtMatrix.get(2)).get(j));
-                ls.cells.get(j).setRi((wieghtMatrix.get(3)).get(j));
-                ls.cells.get(j).setRo((wieghtMatrix.get(4)).get(j));
-                ls.cells.get(j).setRz((wieghtMatrix.get(5)).get(j));
-                ls.cells.get(j).setYtMinusOne(wieghtMatrix.get(6).get(j));
-                ls.cells.get(j).setCtMinusOne(wieghtMatrix.get(7).get(j));
-            }
+            ls.setWi(wieghtMatrix);
+            ls.setWo(wieghtMatrix);
+            ls.setWz(wieghtMatrix);
+            ls.setRi(wieghtMatrix);
+            ls.setRo(wieghtMatrix);
+            ls.setRz(wieghtMatrix);
+            ls.setYtMinusOne(wieghtMatrix);
+            ls.setCtMinusOne(wieghtMatrix);
 
             wieghtMatrix = ls.train();
             this.weights.add(wieghtMatrix);
@@ -208,6 +204,8 @@ public class EngineImproved {
         this.targetVector = builder.targetVector;
         this.validateData = builder.validateData;
         this.validateTarget = builder.validateTarget;
+        this.dropoutModel = builder.dropoutModel;
+        this.dropoutStream = builder.dropoutStream;
 
     }
 
@@ -216,6 +214,8 @@ public class EngineImproved {
         private double[] targetVector;
         private double[][] validateData;
         private double[] validateTarget;
+        private String dropoutModel;
+        private int dropoutStream;
 
         public EngineBuilder(double[][] inputMatrix, double[] targetVector, double[][] validateData,
                              double[] validateTarget, int validatorCounter) {
@@ -248,6 +248,21 @@ public class EngineImproved {
             return this;
         }
 
+        /**
+         * Dropout stream of this model, used with
+         * {@link HyperParameters#getDropoutSeed()}. Models of the same type trained
+         * in the same batch should use different stream numbers.
+         *
+         * @param dropoutModel  the model type, e.g. "trend" or "seasonality"
+         * @param dropoutStream the stream number
+         * @return this builder
+         */
+        public EngineBuilder setDropoutStream(String dropoutModel, int dropoutStream) {
+            this.dropoutModel = dropoutModel;
+            this.dropoutStream = dropoutStream;
+            return this;
+        }
+
         public EngineImproved build() {
             return new EngineImproved(this);
         }
@@ -3,6 +3,7 @@ package predictor.lstm.util.improved;
 import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.stream.IntStream;
+import predictor.lstm.util.DropoutMask;
 import predictor.lstm.util.MatrixWeight;
 
 public class LstmImproved {
@@ -23,6 +24,7 @@ public class LstmImproved {
     private ArrayList<Double> accumulatedGradientSq; 
 
     private double learningRate;
+    private DropoutMask dropoutMask = DropoutMask.current();
     private int epoch = 100;
     private double epsilon = 1e-8;
 
@@ -42,6 +44,15 @@ public class LstmImproved {
         }
     }
 
+    /**
+     * Sets the source of the dropout decisions of the cells.
+     *
+     * @param dropoutMask the dropout mask
+     */
+    public void setDropoutMask(DropoutMask dropoutMask) {
+        this.dropoutMask = dropoutMask;
+    }
+
     /**
      * Forward propagation with dropout regularization.
      */
@@ -53,6 +64,7 @@ public class LstmImproved {
                 if (training) {
                     this.cells.get(i).setDropoutEnabled(true);
                     this.cells.get(i).setDropoutRate(dropoutRate);
+                    this.cells.get(i).setDropoutSource(this.dropoutMask);
                 } else {
                     this.cells.get(i).setDropoutEnabled(false);
                 }
@@ -288,6 +300,12 @@ public class LstmImproved {
     public synchronized void setCt(ArrayList<ArrayList<Double>> val) {
         for (int i = 0; i < val.get(7).size(); i++) { this.cells.get(i).setCt(val.get(7).get(i)); }
     }
+    public synchronized void setYtMinusOne(ArrayList<ArrayList<Double>> val) {
+        for (int i = 0; i < val.get(6).size(); i++) { this.cells.get(i).setYtMinusOne(val.get(6).get(i)); }
+    }
+    public synchronized void setCtMinusOne(ArrayList<ArrayList<Double>> val) {
+        for (int i = 0; i < val.get(7).size(); i++) { this.cells.get(i).setCtMinusOne(val.get(7).get(i)); }
+    }
 
     /**
      * Initializes the cell with the default data.
@@ -300,6 +318,33 @@ public class LstmImproved {
         }
     }
 
+    /**
+     * Rebinds this instance to a new sample so it can be reused. Existing cells
+     * are reset in place when the length matches, otherwise they are rebuilt.
+     * The Adagrad state starts from zero as for a freshly built instance.
+     *
+     * @param inputData    input sequence
+     * @param outputData   the target value
+     * @param learningRate the global learning rate
+     * @param epoch        number of gradient descent iterations
+     */
+    public synchronized void reset(double[] inputData, double outputData, double learningRate, int epoch) {
+        this.inputData = inputData;
+        this.outputData = outputData;
+        this.learningRate = learningRate;
+        this.epoch = epoch;
+        for (int k = 0; k < this.accumulatedGradientSq.size(); k++) {
+            this.accumulatedGradientSq.set(k, 0.0);
+        }
+        if (this.cells == null || this.cells.size() != inputData.length) {
+            this.initilizeCells();
+            return;
+        }
+        for (int i = 0; i < inputData.length; i++) {
+            this.cells.get(i).reset(inputData[i], outputData);
+        }
+    }
+
     public static class LstmBuilder {
 
         protected double[] inputData;
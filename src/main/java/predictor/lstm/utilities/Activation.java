@@ -0,0 +1,24 @@
+package predictor.lstm.utilities;
+
+/**
+ * The gate activations of an LSTM. {@link ActivationBackend} holds the
+ * implementations used for training and prediction.
+ */
+public interface Activation {
+
+    /**
+     * Logistic function.
+     *
+     * @param val the input
+     * @return 1 / (1 + e^-val)
+     */
+    double sigmoid(double val);
+
+    /**
+     * Hyperbolic tangent.
+     *
+     * @param val the input
+     * @return tanh(val)
+     */
+    double tanh(double val);
+}
@@ -0,0 +1,154 @@
+package predictor.lstm.utilities;
+
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Implementations of the LSTM gate activations. The backend is chosen per run
+ * with {@code HyperParameters.setActivationBackend} and used by the training
+ * kernels and the predictors.
+ *
+ * <p>
+ * The maximum absolute errors below are against {@link MathUtils#sigmoid} and
+ * {@link MathUtils#tanh} over all doubles. The kernels take the derivatives
+ * from the approximated values ({@link MathUtils#sigmoidDerivativeFromOutput},
+ * {@link MathUtils#tanhDerivativeFromOutput}), so their error is at most about
+ * twice that of the function.
+ */
+public enum ActivationBackend implements Activation {
+
+    /**
+     * {@link MathUtils}, using {@code Math.pow} and {@code Math.tanh}. Exact up to
+     * the rounding of those methods.
+     */
+    EXACT(0, 0) {
+        @Override
+        public double sigmoid(double val) {
+            return MathUtils.sigmoid(val);
+        }
+
+        @Override
+        public double tanh(double val) {
+            return MathUtils.tanh(val);
+        }
+    },
+
+    /**
+     * Linear interpolation in precomputed tables: sigmoid on [-16, 16] in steps of
+     * 1/64, tanh on [-8, 8] in steps of 1/128. Outside those ranges the exact
+     * function is used. Maximum absolute error 3e-6 for sigmoid and 6e-6 for
+     * tanh.
+     */
+    LOOKUP_TABLE(3e-6, 6e-6) {
+        @Override
+        public double sigmoid(double val) {
+            return Tables.SIGMOID.valueAt(val);
+        }
+
+        @Override
+        public double tanh(double val) {
+            return Tables.TANH.valueAt(val);
+        }
+    },
+
+    /**
+     * The [7/6] Padé approximant of tanh, clamped to [-1, 1], with sigmoid
+     * computed as {@code 0.5 + 0.5 * tanh(val / 2)}. Needs no table and no
+     * transcendental call. Maximum absolute error 5e-5 for sigmoid and 1e-4 for
+     * tanh, reached where tanh is clamped at |val| = 4.97.
+     */
+    RATIONAL(5e-5, 1e-4) {
+        @Override
+        public double sigmoid(double val) {
+            return 0.5 + 0.5 * rationalTanh(0.5 * val);
+        }
+
+        @Override
+        public double tanh(double val) {
+            return rationalTanh(val);
+        }
+    };
+
+    private final double maxSigmoidError;
+    private final double maxTanhError;
+
+    ActivationBackend(double maxSigmoidError, double maxTanhError) {
+        this.maxSigmoidError = maxSigmoidError;
+        this.maxTanhError = maxTanhError;
+    }
+
+    @Override
+    public abstract double sigmoid(double val);
+
+    @Override
+    public abstract double tanh(double val);
+
+    /**
+     * Documented bound on the absolute error of {@link #sigmoid}.
+     *
+     * @return the maximum absolute error
+     */
+    public double getMaxSigmoidError() {
+        return this.maxSigmoidError;
+    }
+
+    /**
+     * Documented bound on the absolute error of {@link #tanh}.
+     *
+     * @return the maximum absolute error
+     */
+    public double getMaxTanhError() {
+        return this.maxTanhError;
+    }
+
+    private static double rationalTanh(double val) {
+        if (val >= 4.97) {
+            return 1;
+        }
+        if (val <= -4.97) {
+            return -1;
+        }
+        double x2 = val * val;
+        double p = val * (135135 + x2 * (17325 + x2 * (378 + x2)));
+        double q = 135135 + x2 * (62370 + x2 * (3150 + x2 * 28));
+        double r = p / q;
+        return r > 1 ? 1 : r < -1 ? -1 : r;
+    }
+
+    /**
+     * Holder so the tables are only built when {@link #LOOKUP_TABLE} is used.
+     */
+    private static final class Tables {
+        static final Table SIGMOID = new Table(16, 64, MathUtils::sigmoid);
+        static final Table TANH = new Table(8, 128, MathUtils::tanh);
+    }
+
+    private static final class Table {
+        private final double range;
+        private final double stepsPerUnit;
+        private final double[] values;
+        private final DoubleUnaryOperator exact;
+
+        Table(double range, int stepsPerUnit, DoubleUnaryOperator exact) {
+            this.range = range;
+            this.stepsPerUnit = stepsPerUnit;
+            this.exact = exact;
+            int size = (int) (2 * range * stepsPerUnit) + 1;
+            this.values = new double[size + 1];
+            for (int i = 0; i < size; i++) {
+                this.values[i] = exact.applyAsDouble(-range + (double) i / stepsPerUnit);
+            }
+            // guard entry so interpolation at +range stays in bounds
+            this.values[size] = this.values[size - 1];
+        }
+
+        double valueAt(double val) {
+            if (!(val > -this.range && val < this.range)) {
+                return this.exact.applyAsDouble(val);
+            }
+            double pos = (val + this.range) * this.stepsPerUnit;
+            int i = (int) pos;
+            double frac = pos - i;
+            return this.values[i] + (this.values[i + 1] - this.values[i]) * frac;
+        }
+    }
+}
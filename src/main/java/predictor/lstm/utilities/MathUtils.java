@@ -17,5 +17,26 @@ public class MathUtils {
         return 1 - Math.pow(tanh(val), 2);
     }
 
+    /**
+     * Sigmoid derivative from an already computed output, so backward passes can
+     * reuse the forward activation instead of evaluating the sigmoid again.
+     *
+     * @param sigmoid sigmoid(val)
+     * @return the same value as {@link #sigmoidDerivative(double)} at val
+     */
+    public static double sigmoidDerivativeFromOutput(double sigmoid) {
+        return sigmoid * (1 - sigmoid);
+    }
+
+    /**
+     * Tanh derivative from an already computed output.
+     *
+     * @param tanh tanh(val)
+     * @return the same value as {@link #tanhDerivative(double)} at val
+     */
+    public static double tanhDerivativeFromOutput(double tanh) {
+        return 1 - Math.pow(tanh, 2);
+    }
+
 }
 
@@ -0,0 +1,279 @@
+package predictor.lstm.validator;
+
+import static predictor.lstm.performance.PerformanceMatrix.accuracy;
+import static predictor.lstm.performance.PerformanceMatrix.rmsError;
+import static predictor.lstm.preprocessing.DataModification.reverseStandardize;
+import static predictor.lstm.preprocessing.DataModification.scaleBack;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+import predictor.lstm.common.BatchLstmPredictor;
+import predictor.lstm.common.DataStatistics;
+import predictor.lstm.common.HyperParameters;
+import predictor.lstm.preprocessingpipeline.PreprocessingPipeImpl;
+import predictor.lstm.train.TrainingExecutors;
+import predictor.lstm.util.TrainingGovernor;
+
+/**
+ * Scores candidate models against validation data that is prepared once per
+ * slot.
+ *
+ * <p>
+ * The windows, normalized inputs, normalization statistics and reverse-scaled
+ * targets of a slot do not depend on the candidate, so they are computed when
+ * the engine is created and reused for every candidate scored against that
+ * slot.
+ *
+ * <p>
+ * Scoring is parallel over (candidate, slot) pairs. Each pair writes only its
+ * own cell of a preallocated error matrix, so no locking is needed.
+ */
+public class ValidationEngine {
+
+    /**
+     * Pairs scored by one task without splitting further.
+     */
+    private static final int PAIRS_PER_TASK = 8;
+
+    private final double[][][] inputs;
+    private final double[][] means;
+    private final double[][] standardDeviations;
+    private final double[][] targets;
+    private ForkJoinPool pool;
+    private TrainingGovernor governor;
+    private BooleanSupplier cancelled;
+
+    private ValidationEngine(int slots, ForkJoinPool pool) {
+        this.pool = pool;
+        this.inputs = new double[slots][][];
+        this.means = new double[slots][];
+        this.standardDeviations = new double[slots][];
+        this.targets = new double[slots][];
+    }
+
+    /**
+     * Prepares the seasonality slots, scored on the validate pool of
+     * {@link TrainingExecutors#getDefault()}.
+     *
+     * @param dataGroupedByMinute the validation data grouped by hour and minute
+     * @param hyperParameters     the hyperParameters
+     * @return the engine, with slots in hour then minute order
+     */
+    public static ValidationEngine forSeasonality(double[][][] dataGroupedByMinute,
+                                                  HyperParameters hyperParameters) {
+        return forSeasonality(dataGroupedByMinute, hyperParameters,
+                TrainingExecutors.getDefault().getValidatePool());
+    }
+
+    /**
+     * Prepares the seasonality slots.
+     *
+     * @param dataGroupedByMinute the validation data grouped by hour and minute
+     * @param hyperParameters     the hyperParameters
+     * @param pool                the pool to score on, or null
+     * @return the engine, with slots in hour then minute order
+     */
+    public static ValidationEngine forSeasonality(double[][][] dataGroupedByMinute,
+                                                  HyperParameters hyperParameters, ForkJoinPool pool) {
+        int slots = 0;
+        for (var hour : dataGroupedByMinute) {
+            slots += hour.length;
+        }
+        var engine = new ValidationEngine(slots, pool);
+        var preProcessing = new PreprocessingPipeImpl(hyperParameters);
+        int k = 0;
+        for (var hour : dataGroupedByMinute) {
+            for (var minute : hour) {
+                var intermediate = (double[][][]) preProcessing.setData(minute)//
+                        .groupToWIndowSeasonality()//
+                        .execute();
+                engine.prepare(k, intermediate, preProcessing, hyperParameters);
+                k = k + 1;
+            }
+        }
+        return engine;
+    }
+
+    /**
+     * Prepares the trend segments, scored on the validate pool of
+     * {@link TrainingExecutors#getDefault()}.
+     *
+     * @param modifiedData    the validation data modified for trend prediction
+     * @param hyperParameters the hyperParameters
+     * @return the engine, with one slot per segment
+     */
+    public static ValidationEngine forTrend(double[][] modifiedData, HyperParameters hyperParameters) {
+        return forTrend(modifiedData, hyperParameters, TrainingExecutors.getDefault().getValidatePool());
+    }
+
+    /**
+     * Prepares the trend segments.
+     *
+     * @param modifiedData    the validation data modified for trend prediction
+     * @param hyperParameters the hyperParameters
+     * @param pool            the pool to score on, or null
+     * @return the engine, with one slot per segment
+     */
+    public static ValidationEngine forTrend(double[][] modifiedData, HyperParameters hyperParameters,
+                                            ForkJoinPool pool) {
+        var engine = new ValidationEngine(modifiedData.length, pool);
+        var preProcessing = new PreprocessingPipeImpl(hyperParameters);
+        for (int j = 0; j < modifiedData.length; j++) {
+            var intermediate = (double[][][]) preProcessing.setData(modifiedData[j])//
+                    .groupToStiffedWindow()//
+                    .execute();
+            engine.prepare(j, intermediate, preProcessing, hyperParameters);
+        }
+        return engine;
+    }
+
+    private void prepare(int slot, double[][][] intermediate, PreprocessingPipeImpl preProcessing,
+                         HyperParameters hyperParameters) {
+        var preProcessed = (double[][][]) preProcessing.setData(intermediate)//
+                .normalize()//
+                .shuffle()//
+                .execute();
+        this.inputs[slot] = preProcessed[0];
+        this.means[slot] = DataStatistics.getMean(intermediate[0]);
+        this.standardDeviations[slot] = DataStatistics.getStandardDeviation(intermediate[0]);
+        this.targets[slot] = scaleBack(intermediate[1][0], hyperParameters.getScalingMin(),
+                hyperParameters.getScalingMax());
+    }
+
+    /**
+     * Pool used to score candidates in parallel. Defaults to the pool given to
+     * the factory; null scores on the calling thread.
+     *
+     * @param pool the pool, or null
+     * @return this engine
+     */
+    public ValidationEngine setPool(ForkJoinPool pool) {
+        this.pool = pool;
+        return this;
+    }
+
+    /**
+     * Governor consulted around each range of scored pairs. Null, the default,
+     * scores without limits.
+     *
+     * @param governor the governor, or null
+     * @return this engine
+     */
+    public ValidationEngine setGovernor(TrainingGovernor governor) {
+        this.governor = governor;
+        return this;
+    }
+
+    /**
+     * Condition checked before each scored pair, e.g. a passed deadline. Once it
+     * is true, scoring stops with a {@link CancellationException}, so an
+     * abandoned batch frees the pool.
+     *
+     * @param cancelled the condition, or null to never cancel
+     * @return this engine
+     */
+    public ValidationEngine setCancellation(BooleanSupplier cancelled) {
+        this.cancelled = cancelled;
+        return this;
+    }
+
+    /**
+     * Number of prepared slots.
+     *
+     * @return the slot count
+     */
+    public int size() {
+        return this.inputs.length;
+    }
+
+    /**
+     * Scores one model against one slot.
+     *
+     * @param slot            the slot
+     * @param model           the weights of the model
+     * @param hyperParameters the hyperParameters
+     * @return the rms error weighted by the share of inaccurate predictions
+     */
+    public double score(int slot, List<ArrayList<Double>> model, HyperParameters hyperParameters) {
+        var predicted = new BatchLstmPredictor(model, hyperParameters).predict(this.inputs[slot]);
+        var result = scaleBack(//
+                reverseStandardize(predicted, this.means[slot], this.standardDeviations[slot], hyperParameters), //
+                hyperParameters.getScalingMin(), hyperParameters.getScalingMax());
+        var target = this.targets[slot];
+        return rmsError(target, result) * (1 - accuracy(target, result, 0.01));
+    }
+
+    /**
+     * Scores every candidate against every slot.
+     *
+     * @param allModels       the models, indexed [candidate][slot]
+     * @param hyperParameters the hyperParameters
+     * @return the errors, indexed [candidate][slot]
+     */
+    public double[][] scoreAll(List<? extends List<ArrayList<ArrayList<Double>>>> allModels,
+                               HyperParameters hyperParameters) {
+        var errors = new double[allModels.size()][this.size()];
+        var task = new ScoreTask(allModels, hyperParameters, errors, 0, errors.length * this.size());
+        if (this.pool == null) {
+            task.compute();
+        } else {
+            this.pool.invoke(task);
+        }
+        return errors;
+    }
+
+    /**
+     * Scores a range of (candidate, slot) pairs, numbered candidate-major.
+     */
+    private class ScoreTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        // Tasks are never serialized; ForkJoinTask is Serializable only by inheritance
+        private final transient List<? extends List<ArrayList<ArrayList<Double>>>> allModels;
+        private final transient HyperParameters hyperParameters;
+        private final transient double[][] errors;
+        private final int from;
+        private final int to;
+
+        ScoreTask(List<? extends List<ArrayList<ArrayList<Double>>>> allModels, HyperParameters hyperParameters,
+                  double[][] errors, int from, int to) {
+            this.allModels = allModels;
+            this.hyperParameters = hyperParameters;
+            this.errors = errors;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (this.to - this.from > PAIRS_PER_TASK && ValidationEngine.this.pool != null) {
+                int middle = (this.from + this.to) >>> 1;
+                invokeAll(new ScoreTask(this.allModels, this.hyperParameters, this.errors, this.from, middle),
+                        new ScoreTask(this.allModels, this.hyperParameters, this.errors, middle, this.to));
+                return;
+            }
+            var governor = ValidationEngine.this.governor;
+            long busySince = governor != null ? governor.start() : 0;
+            var cancelled = ValidationEngine.this.cancelled;
+            int slots = ValidationEngine.this.size();
+            for (int pair = this.from; pair < this.to; pair++) {
+                if (cancelled != null && cancelled.getAsBoolean()) {
+                    throw new CancellationException("Validation cancelled");
+                }
+                int candidate = pair / slots;
+                int slot = pair % slots;
+                this.errors[candidate][slot] = ValidationEngine.this.score(slot,
+                        this.allModels.get(candidate).get(slot), this.hyperParameters);
+            }
+            if (governor != null) {
+                governor.checkpoint(busySince);
+            }
+        }
+    }
+}
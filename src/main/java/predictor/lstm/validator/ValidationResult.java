@@ -0,0 +1,83 @@
+package predictor.lstm.validator;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import predictor.lstm.common.DataStatistics;
+import predictor.lstm.common.HyperParameters;
+
+/**
+ * Outcome of validating the candidates of one model type: for each slot the
+ * candidate with the lowest error, that error, and the overall error. Nothing
+ * is written to the hyperparameters until the result is passed to
+ * {@link HyperParameters#commit}.
+ *
+ * @param modelType      {@code "seasonality"} or {@code "trend"}
+ * @param optimumIndices the [candidate, slot] index chosen for each slot
+ * @param slotErrors     the error of the chosen candidate of each slot
+ * @param rmsError       the overall error of the chosen models, NaN if there
+ *                       were no slots
+ * @param optimumWeights the weights of the chosen candidate of each slot
+ */
+public record ValidationResult(String modelType, List<List<Integer>> optimumIndices, List<Double> slotErrors,
+                               double rmsError, List<ArrayList<ArrayList<Double>>> optimumWeights) {
+
+    public ValidationResult {
+        optimumIndices = List.copyOf(optimumIndices);
+        slotErrors = List.copyOf(slotErrors);
+        optimumWeights = List.copyOf(optimumWeights);
+    }
+
+    /**
+     * Picks the best candidate of every slot.
+     *
+     * @param modelType       {@code "seasonality"} or {@code "trend"}
+     * @param errors          the errors, indexed [candidate][slot]
+     * @param allModels       the candidates, indexed [candidate][slot]
+     * @param hyperParameters the hyperParameters, only read
+     * @return the result
+     */
+    public static ValidationResult of(String modelType, double[][] errors,
+                                      List<? extends List<ArrayList<ArrayList<Double>>>> allModels, HyperParameters hyperParameters) {
+        var indices = optimumIndices(errors);
+        var slotErrors = new ArrayList<Double>(indices.size());
+        var weights = new ArrayList<ArrayList<ArrayList<Double>>>(indices.size());
+        for (var index : indices) {
+            slotErrors.add(errors[index.get(0)][index.get(1)]);
+            weights.add(allModels.get(index.get(0)).get(index.get(1)));
+        }
+        if (indices.isEmpty()) {
+            return new ValidationResult(modelType, indices, slotErrors, Double.NaN, weights);
+        }
+        double rmsError = DataStatistics.getStandardDeviation(slotErrors, hyperParameters.getTargetError());
+        System.out.println("=====> Average RMS error for  " + modelType + " = " + rmsError);
+        return new ValidationResult(modelType, indices, slotErrors, rmsError, weights);
+    }
+
+    /**
+     * Finds the row of the minimum of each column. On ties the first row wins.
+     *
+     * @param matrix the errors, indexed [candidate][slot]
+     * @return the [row, column] index of the minimum of each column, empty for an
+     *         empty matrix
+     */
+    public static List<List<Integer>> optimumIndices(double[][] matrix) {
+        var minimumIndices = new ArrayList<List<Integer>>();
+        if (matrix.length == 0 || matrix[0].length == 0) {
+            return minimumIndices;
+        }
+
+        for (int col = 0; col < matrix[0].length; col++) {
+            double min = matrix[0][col];
+            int minRow = 0;
+            for (int row = 0; row < matrix.length; row++) {
+                if (matrix[row][col] < min) {
+                    min = matrix[row][col];
+                    minRow = row;
+                }
+            }
+            minimumIndices.add(List.of(minRow, col));
+        }
+        return minimumIndices;
+    }
+}
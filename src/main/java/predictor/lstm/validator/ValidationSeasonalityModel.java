@@ -1,38 +1,107 @@
 package predictor.lstm.validator;
 
-import static predictor.lstm.performance.PerformanceMatrix.accuracy;
-import static predictor.lstm.performance.PerformanceMatrix.rmsError;
-import static predictor.lstm.preprocessing.DataModification.flattern4dto3d;
-
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
 
 import predictor.lstm.common.DataStatistics;
 import predictor.lstm.common.HyperParameters;
-import predictor.lstm.common.LstmPredictor;
-import predictor.lstm.preprocessing.DataModification;
 import predictor.lstm.preprocessingpipeline.PreprocessingPipeImpl;
+import predictor.lstm.train.TrainingExecutors;
+import predictor.lstm.util.TrainingGovernor;
 import predictor.lstm.utilities.UtilityConversion;
 
 public class ValidationSeasonalityModel {
 
     public static final String SEASONALITY = "seasonality";
 
+    private final ForkJoinPool pool;
+    private final TrainingGovernor governor;
+
     /**
-     * Validate the Seasonality.
+     * Creates a validator that scores candidates on the validate pool of
+     * {@link TrainingExecutors#getDefault()}, within the limits of its governor.
+     */
+    public ValidationSeasonalityModel() {
+        this(TrainingExecutors.getDefault().getValidatePool(), TrainingExecutors.getDefault().getGovernor());
+    }
+
+    /**
+     * Creates a validator that scores candidates on the given pool.
+     *
+     * @param pool the pool, or null to score on the calling thread
+     */
+    public ValidationSeasonalityModel(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
+    /**
+     * Creates a validator that scores candidates on the given pool within the
+     * limits of a governor.
+     *
+     * @param pool     the pool, or null to score on the calling thread
+     * @param governor the governor, or null
+     */
+    public ValidationSeasonalityModel(ForkJoinPool pool, TrainingGovernor governor) {
+        this.pool = pool;
+        this.governor = governor;
+    }
+
+    /**
+     * Validate the Seasonality and commit the best candidate of each slot to the
+     * hyperParameters.
      *
      * @param values                    the values
      * @param dates                     the dates
-     * @param untestedSeasonalityWeight Models to validate.
+     * @param untestedSeasonalityWeight Models to validate, indexed
+     *                                  [candidate][slot].
      * @param hyperParameters           the hyperParameters
      */
     public void validateSeasonality(ArrayList<Double> values, ArrayList<OffsetDateTime> dates,
                                     ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> untestedSeasonalityWeight,
                                     HyperParameters hyperParameters) {
-        var rmsTemp2 = new ArrayList<ArrayList<Double>>();
+        hyperParameters.commit(this.evaluateSeasonality(values, dates, untestedSeasonalityWeight, hyperParameters));
+    }
+
+    /**
+     * Validate the Seasonality without changing the hyperParameters.
+     *
+     * @param values                    the values
+     * @param dates                     the dates
+     * @param untestedSeasonalityWeight Models to validate, indexed
+     *                                  [candidate][slot].
+     * @param hyperParameters           the hyperParameters, only read
+     * @return the best candidate of each slot, to be passed to
+     *         {@link HyperParameters#commit}
+     */
+    public ValidationResult evaluateSeasonality(ArrayList<Double> values, ArrayList<OffsetDateTime> dates,
+                                                ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> untestedSeasonalityWeight,
+                                                HyperParameters hyperParameters) {
+        return this.evaluateSeasonality(values, dates, untestedSeasonalityWeight, hyperParameters, null);
+    }
 
+    /**
+     * Validate the Seasonality without changing the hyperParameters, stopping
+     * with a {@link CancellationException} once the condition is true.
+     *
+     * @param values                    the values
+     * @param dates                     the dates
+     * @param untestedSeasonalityWeight Models to validate, indexed
+     *                                  [candidate][slot].
+     * @param hyperParameters           the hyperParameters, only read
+     * @param cancelled                 the condition, or null to never cancel
+     * @return the best candidate of each slot, to be passed to
+     *         {@link HyperParameters#commit}
+     */
+    public ValidationResult evaluateSeasonality(ArrayList<Double> values, ArrayList<OffsetDateTime> dates,
+                                                ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> untestedSeasonalityWeight,
+                                                HyperParameters hyperParameters, BooleanSupplier cancelled) {
+        if (cancelled != null && cancelled.getAsBoolean()) {
+            throw new CancellationException("Validation cancelled");
+        }
         var preProcessing = new PreprocessingPipeImpl(hyperParameters);
         double[][][] dataGroupedByMinute = (double[][][]) preProcessing.setData(UtilityConversion.to1DArray(values)) //
                 .setDates(dates)//
@@ -43,59 +112,14 @@ public class ValidationSeasonalityModel {
                 .groupByHoursAndMinutes()//
                 .execute();
 
-        var allModels = DataModification.reshape((flattern4dto3d(untestedSeasonalityWeight)), hyperParameters);
-
-        for (int h = 0; h < allModels.size(); h++) {
-            ArrayList<Double> rmsTemp1 = new ArrayList<Double>();
-            int k = 0;
-            for (int i = 0; i < dataGroupedByMinute.length; i++) {
-                for (int j = 0; j < dataGroupedByMinute[i].length; j++) {
-
-                    double[][][] intermediate = (double[][][]) preProcessing.setData(dataGroupedByMinute[i][j])//
-                            // .differencing()//
-                            .groupToWIndowSeasonality()//
-                            .execute();
-
-                    double[][][] preProcessed = (double[][][]) preProcessing.setData(intermediate)//
-                            .normalize()//
-                            .shuffle()//
-                            .execute();
-
-                    ArrayList<ArrayList<Double>> val = allModels.get(h).get(k);
-
-                    double[] result = (double[]) preProcessing//
-                            .setData(UtilityConversion
-                                    .to1DArray(LstmPredictor.predictPre(preProcessed[0], val, hyperParameters)))//
-                            .setMean(DataStatistics.getMean(intermediate[0]))//
-                            .setStandardDeviation(DataStatistics.getStandardDeviation(intermediate[0]))//
-                            .reverseNormalize()//
-                            .reverseScale()//
-                            .execute();
-
-                    double rms = rmsError(//
-                            (double[]) preProcessing//
-                                    .setData(intermediate[1][0])//
-                                    .reverseScale()//
-                                    .execute(),
-                            result) //
-                            * //
-                            (1 - accuracy((double[]) preProcessing.setData(intermediate[1][0])//
-                                    .reverseScale()//
-                                    .execute(), result, 0.01));
-
-                    rmsTemp1.add(rms);
-                    k = k + 1;
-
-                }
-
-            }
-            rmsTemp2.add(rmsTemp1);
-        }
-        List<List<Integer>> optInd = findOptimumIndex(rmsTemp2, SEASONALITY, hyperParameters);
+        var allModels = untestedSeasonalityWeight;
 
-        DataModification.updateModel(allModels, optInd,
-                Integer.toString(hyperParameters.getCount()) + hyperParameters.getModelName() + SEASONALITY,
-                SEASONALITY, hyperParameters);
+        // Slots are prepared once and shared by all candidates
+        var rmsTemp2 = ValidationEngine.forSeasonality(dataGroupedByMinute, hyperParameters, this.pool)//
+                .setGovernor(this.governor)//
+                .setCancellation(cancelled)//
+                .scoreAll(allModels, hyperParameters);
+        return ValidationResult.of(SEASONALITY, rmsTemp2, allModels, hyperParameters);
     }
 
     /**
@@ -115,34 +139,30 @@ public class ValidationSeasonalityModel {
 
     public static List<List<Integer>> findOptimumIndex(ArrayList<ArrayList<Double>> matrix, String variable,
                                                        HyperParameters hyperParameters) {
-        var minimumIndices = new ArrayList<List<Integer>>();
+        return findOptimumIndex(UtilityConversion.to2DArray(matrix), variable, hyperParameters);
+    }
 
-        if (matrix.isEmpty() || matrix.get(0).isEmpty()) {
-            return minimumIndices; // Empty matrix, return empty list
+    /**
+     * Same as {@link #findOptimumIndex(ArrayList, String, HyperParameters)} for a
+     * primitive matrix, as returned by {@link ValidationEngine#scoreAll}.
+     *
+     * @param matrix          the errors, indexed [candidate][slot]
+     * @param variable        the variable
+     * @param hyperParameters the hyperParameters
+     * @return the [candidate, slot] index of the minimum of each slot
+     */
+    public static List<List<Integer>> findOptimumIndex(double[][] matrix, String variable,
+                                                       HyperParameters hyperParameters) {
+        var minimumIndices = new ArrayList<List<Integer>>();
+        var err = new ArrayList<Double>();
+        for (var index : ValidationResult.optimumIndices(matrix)) {
+            minimumIndices.add(new ArrayList<>(index));
+            err.add(matrix[index.get(0)][index.get(1)]);
         }
-
-        int numColumns = matrix.get(0).size();
-
-        for (int col = 0; col < numColumns; col++) {
-            double min = matrix.get(0).get(col);
-            var minIndices = new ArrayList<>(Arrays.asList(0, col));
-
-            for (int row = 0; row < matrix.size(); row++) {
-                double value = matrix.get(row).get(col);
-
-                if (value < min) {
-                    min = value;
-                    minIndices.set(0, row);
-                }
-            }
-
-            minimumIndices.add(minIndices);
+        if (minimumIndices.isEmpty()) {
+            return minimumIndices; // Empty matrix, return empty list
         }
 
-        var err = new ArrayList<Double>();
-        for (int i = 0; i < minimumIndices.size(); i++) {
-            err.add(matrix.get(minimumIndices.get(i).get(0)).get(minimumIndices.get(i).get(1)));
-        }
         hyperParameters.setAllModelErrorSeason(err);
         double errVal = DataStatistics.getStandardDeviation(err, hyperParameters.getTargetError());
         hyperParameters.setRmsErrorSeasonality(errVal);
@@ -1,47 +1,112 @@
 package predictor.lstm.validator;
 
-import static predictor.lstm.preprocessing.DataModification.flattern4dto3d;
-
 import java.time.OffsetDateTime;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.BooleanSupplier;
 
 import predictor.lstm.common.DataStatistics;
 import predictor.lstm.common.HyperParameters;
-import predictor.lstm.common.LstmPredictor;
-import predictor.lstm.performance.PerformanceMatrix;
-import predictor.lstm.preprocessing.DataModification;
 import predictor.lstm.preprocessingpipeline.PreprocessingPipeImpl;
+import predictor.lstm.train.TrainingExecutors;
+import predictor.lstm.util.TrainingGovernor;
 import predictor.lstm.utilities.UtilityConversion;
 
 public class ValidationTrendModel {
     public static final String TREND = "trend";
 
+    private final ForkJoinPool pool;
+    private final TrainingGovernor governor;
+
+    /**
+     * Creates a validator that scores candidates on the validate pool of
+     * {@link TrainingExecutors#getDefault()}, within the limits of its governor.
+     */
+    public ValidationTrendModel() {
+        this(TrainingExecutors.getDefault().getValidatePool(), TrainingExecutors.getDefault().getGovernor());
+    }
+
+    /**
+     * Creates a validator that scores candidates on the given pool.
+     *
+     * @param pool the pool, or null to score on the calling thread
+     */
+    public ValidationTrendModel(ForkJoinPool pool) {
+        this(pool, null);
+    }
+
     /**
-     * Validate Trend.
+     * Creates a validator that scores candidates on the given pool within the
+     * limits of a governor.
+     *
+     * @param pool     the pool, or null to score on the calling thread
+     * @param governor the governor, or null
+     */
+    public ValidationTrendModel(ForkJoinPool pool, TrainingGovernor governor) {
+        this.pool = pool;
+        this.governor = governor;
+    }
+
+    /**
+     * Validate Trend and commit the best candidate of each segment to the
+     * hyperParameters.
      *
      * @param values               the value
      * @param dates                the date
-     * @param untestedTrendWeights Untested Models.
+     * @param untestedTrendWeights Untested Models, indexed [candidate][slot].
      * @param hyperParameters      the hyperParam
      */
     public void validateTrend(ArrayList<Double> values, ArrayList<OffsetDateTime> dates,
                               ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> untestedTrendWeights, HyperParameters hyperParameters) {
-        var allModels = DataModification.reshape((flattern4dto3d(untestedTrendWeights)), hyperParameters);
+        hyperParameters.commit(this.evaluateTrend(values, dates, untestedTrendWeights, hyperParameters));
+    }
+
+    /**
+     * Validate Trend without changing the hyperParameters.
+     *
+     * @param values               the value
+     * @param dates                the date
+     * @param untestedTrendWeights Untested Models, indexed [candidate][slot].
+     * @param hyperParameters      the hyperParam, only read
+     * @return the best candidate of each segment, to be passed to
+     *         {@link HyperParameters#commit}
+     */
+    public ValidationResult evaluateTrend(ArrayList<Double> values, ArrayList<OffsetDateTime> dates,
+                                          ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> untestedTrendWeights,
+                                          HyperParameters hyperParameters) {
+        return this.evaluateTrend(values, dates, untestedTrendWeights, hyperParameters, null);
+    }
+
+    /**
+     * Validate Trend without changing the hyperParameters, stopping with a
+     * {@link CancellationException} once the condition is true.
+     *
+     * @param values               the value
+     * @param dates                the date
+     * @param untestedTrendWeights Untested Models, indexed [candidate][slot].
+     * @param hyperParameters      the hyperParam, only read
+     * @param cancelled            the condition, or null to never cancel
+     * @return the best candidate of each segment, to be passed to
+     *         {@link HyperParameters#commit}
+     */
+    public ValidationResult evaluateTrend(ArrayList<Double> values, ArrayList<OffsetDateTime> dates,
+                                          ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> untestedTrendWeights,
+                                          HyperParameters hyperParameters, BooleanSupplier cancelled) {
+        if (cancelled != null && cancelled.getAsBoolean()) {
+            throw new CancellationException("Validation cancelled");
+        }
+        var allModels = untestedTrendWeights;
 
         var rmsErrors = this.validateModels(//
                 values, //
                 dates, //
                 allModels, //
-                hyperParameters);
+                hyperParameters, //
+                cancelled);
 
-        var optInd = findOptimumIndex(rmsErrors, TREND, hyperParameters);
-
-        this.updateModels(//
-                allModels, //
-                optInd, Integer.toString(hyperParameters.getCount()) + hyperParameters.getModelName() + TREND, //
-                TREND, hyperParameters);
+        return ValidationResult.of(TREND, rmsErrors, allModels, hyperParameters);
     }
 
     /**
@@ -61,34 +126,30 @@ public class ValidationTrendModel {
 
     public static List<List<Integer>> findOptimumIndex(ArrayList<ArrayList<Double>> matrix, String var,
                                                        HyperParameters hyperParameters) {
-        var minimumIndices = new ArrayList<List<Integer>>();
+        return findOptimumIndex(UtilityConversion.to2DArray(matrix), var, hyperParameters);
+    }
 
-        if (matrix.isEmpty() || matrix.get(0).isEmpty()) {
-            return minimumIndices; // Empty matrix, return empty list
+    /**
+     * Same as {@link #findOptimumIndex(ArrayList, String, HyperParameters)} for a
+     * primitive matrix, as returned by {@link ValidationEngine#scoreAll}.
+     *
+     * @param matrix          the errors, indexed [candidate][slot]
+     * @param var             the var
+     * @param hyperParameters the hyperParameters
+     * @return the [candidate, slot] index of the minimum of each slot
+     */
+    public static List<List<Integer>> findOptimumIndex(double[][] matrix, String var,
+                                                       HyperParameters hyperParameters) {
+        var minimumIndices = new ArrayList<List<Integer>>();
+        var err = new ArrayList<Double>();
+        for (var index : ValidationResult.optimumIndices(matrix)) {
+            minimumIndices.add(new ArrayList<>(index));
+            err.add(matrix[index.get(0)][index.get(1)]);
         }
-
-        int numColumns = matrix.get(0).size();
-
-        for (int col = 0; col < numColumns; col++) {
-            double min = matrix.get(0).get(col);
-            List<Integer> minIndices = new ArrayList<>(Arrays.asList(0, col));
-
-            for (int row = 0; row < matrix.size(); row++) {
-                double value = matrix.get(row).get(col);
-
-                if (value < min) {
-                    min = value;
-                    minIndices.set(0, row);
-                }
-            }
-
-            minimumIndices.add(minIndices);
+        if (minimumIndices.isEmpty()) {
+            return minimumIndices; // Empty matrix, return empty list
         }
 
-        var err = new ArrayList<Double>();
-        for (int i = 0; i < minimumIndices.size(); i++) {
-            err.add(matrix.get(minimumIndices.get(i).get(0)).get(minimumIndices.get(i).get(1)));
-        }
         hyperParameters.setAllModelErrorTrend(err);
         double errVal = DataStatistics.getStandardDeviation(err, hyperParameters.getTargetError());
         hyperParameters.setRmsErrorTrend(errVal);
@@ -96,8 +157,9 @@ public class ValidationTrendModel {
         return minimumIndices;
     }
 
-    private ArrayList<ArrayList<Double>> validateModels(ArrayList<Double> value, ArrayList<OffsetDateTime> dates,
-                                                        ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> allModels, HyperParameters hyperParameters) {
+    private double[][] validateModels(ArrayList<Double> value, ArrayList<OffsetDateTime> dates,
+                                                        ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> allModels, HyperParameters hyperParameters,
+                                                        BooleanSupplier cancelled) {
         var validateTrendPreProcess = new PreprocessingPipeImpl(hyperParameters);
         double[][] modifiedData = (double[][]) validateTrendPreProcess//
                 .setData(UtilityConversion.to1DArray(value))//
@@ -109,45 +171,12 @@ public class ValidationTrendModel {
                 .modifyForTrendPrediction()//
                 .execute();
 
-        var rmsTemp2 = new ArrayList<ArrayList<Double>>();
-        for (var modelsForData : allModels) {
-            var rmsTemp1 = new ArrayList<Double>();
-
-            for (int j = 0; j < modifiedData.length; j++) {
-                double[][][] intermediate = (double[][][]) validateTrendPreProcess.setData(modifiedData[j])//
-                        // .differencing()//
-                        .groupToStiffedWindow()//
-                        .execute();
-
-                double[][][] preprocessed = (double[][][]) validateTrendPreProcess.setData(intermediate)//
-                        .normalize()//
-                        .shuffle()//
-                        .execute();
-
-                double[] result = (double[]) validateTrendPreProcess//
-                        .setData(UtilityConversion.to1DArray(
-                                LstmPredictor.predictPre(preprocessed[0], modelsForData.get(j), hyperParameters)))//
-                        .setMean(DataStatistics.getMean(intermediate[0]))//
-                        .setStandardDeviation(DataStatistics.getStandardDeviation(intermediate[0]))//
-                        .reverseNormalize()//
-                        .reverseScale()//
-                        .execute();
-
-                double rms = PerformanceMatrix.rmsError(
-                        (double[]) validateTrendPreProcess.setData(intermediate[1][0]).reverseScale().execute(), result)
-                        * (1 - PerformanceMatrix.accuracy(
-                        (double[]) validateTrendPreProcess.setData(intermediate[1][0]).reverseScale().execute(),
-                        result, 0.01));
-                rmsTemp1.add(rms);
-            }
-            rmsTemp2.add(rmsTemp1);
-        }
+        // Segments are prepared once and shared by all candidates
+        var rmsTemp2 = ValidationEngine.forTrend(modifiedData, hyperParameters, this.pool)//
+                .setGovernor(this.governor)//
+                .setCancellation(cancelled)//
+                .scoreAll(allModels, hyperParameters);
         return rmsTemp2;
     }
 
-    private void updateModels(ArrayList<ArrayList<ArrayList<ArrayList<Double>>>> allModels, List<List<Integer>> optInd,
-                              String modelFileName, String modelType, HyperParameters hyperParameters) {
-        DataModification.updateModel(allModels, optInd, modelFileName, modelType, hyperParameters);
-    }
-
 }
\ No newline at end of file
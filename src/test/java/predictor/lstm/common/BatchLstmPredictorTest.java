@@ -0,0 +1,73 @@
+package predictor.lstm.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+public class BatchLstmPredictorTest {
+
+    private static final int WINDOW = 7;
+
+    private static ArrayList<ArrayList<Double>> model(Random random) {
+        var val = new ArrayList<ArrayList<Double>>();
+        for (int k = 0; k < 8; k++) {
+            var row = new ArrayList<Double>();
+            for (int t = 0; t < WINDOW; t++) {
+                row.add(random.nextGaussian());
+            }
+            val.add(row);
+        }
+        return val;
+    }
+
+    private static double[][] windows(Random random) {
+        // 37 windows: several full vector blocks, a tail and a few short rows
+        var data = new double[37][];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = new double[i % 9 == 0 ? WINDOW - 2 : WINDOW + i % 3];
+            for (int t = 0; t < data[i].length; t++) {
+                data[i][t] = random.nextGaussian();
+            }
+        }
+        return data;
+    }
+
+    private static double reference(double[] window, ArrayList<ArrayList<Double>> val, HyperParameters hp) {
+        return LstmPredictor.predict(window, val.get(0), val.get(1), val.get(2), val.get(3), val.get(4), val.get(5),
+                val.get(6), val.get(7), hp);
+    }
+
+    @Test
+    void testScalarPathMatchesPredictExactly() {
+        var random = new Random(11);
+        var hp = new HyperParameters();
+        var val = model(random);
+        var data = windows(random);
+
+        BatchLstmPredictor.setVectorEnabled(false);
+        try {
+            var predicted = new BatchLstmPredictor(val, hp).predict(data);
+            for (int i = 0; i < data.length; i++) {
+                assertEquals(reference(data[i], val, hp), predicted[i]);
+            }
+        } finally {
+            BatchLstmPredictor.setVectorEnabled(true);
+        }
+    }
+
+    @Test
+    void testBatchMatchesPredict() {
+        var random = new Random(12);
+        var hp = new HyperParameters();
+        var val = model(random);
+        var data = windows(random);
+
+        var predicted = new BatchLstmPredictor(val, hp).predict(data);
+        for (int i = 0; i < data.length; i++) {
+            assertEquals(reference(data[i], val, hp), predicted[i], 1e-12);
+        }
+    }
+}
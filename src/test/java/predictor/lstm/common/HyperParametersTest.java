@@ -0,0 +1,67 @@
+package predictor.lstm.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.validator.ValidationResult;
+
+public class HyperParametersTest {
+
+    private static ArrayList<ArrayList<ArrayList<Double>>> model(double value) {
+        var row = new ArrayList<Double>(List.of(value));
+        var slot = new ArrayList<ArrayList<Double>>(List.of(row));
+        return new ArrayList<>(List.of(slot));
+    }
+
+    @Test
+    void testSnapshotIsIndependent() {
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setCount(3);
+        hyperParameters.updateModelSeasonality(model(1));
+
+        hyperParameters.setRmsErrorSeasonality(0.5);
+
+        var snapshot = hyperParameters.snapshot();
+        hyperParameters.setCount(4);
+        hyperParameters.updateModelSeasonality(model(2));
+        hyperParameters.setRmsErrorSeasonality(0.25);
+
+        assertEquals(3, snapshot.getCount());
+        assertEquals(1, snapshot.getAllModelSeasonality().size());
+        assertEquals(List.of(0.5), snapshot.getRmsErrorSeasonality());
+        // Committed models are shared, not copied
+        assertSame(hyperParameters.getAllModelSeasonality().get(0), snapshot.getlastModelSeasonality());
+
+        // Writes to the snapshot stay there
+        snapshot.setRmsErrorSeasonality(1);
+        assertEquals(List.of(0.5, 0.25), hyperParameters.getRmsErrorSeasonality());
+    }
+
+    @Test
+    void testCommitAppliesAllResults() {
+        var hyperParameters = new HyperParameters();
+        var errors = new double[][] { { 0.5, 0.1 }, { 0.2, 0.3 } };
+        var allModels = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
+        allModels.add(new ArrayList<>(List.of(model(0).get(0), model(1).get(0))));
+        allModels.add(new ArrayList<>(List.of(model(2).get(0), model(3).get(0))));
+
+        var seasonality = ValidationResult.of("seasonality", errors, allModels, hyperParameters);
+        var trend = ValidationResult.of("trend", errors, allModels, hyperParameters);
+        assertEquals(List.of(List.of(1, 0), List.of(0, 1)), seasonality.optimumIndices());
+        assertTrue(hyperParameters.getRmsErrorSeasonality().isEmpty());
+
+        hyperParameters.commit(seasonality, trend);
+        assertEquals(List.of(0.2, 0.1), hyperParameters.getAllModelErrorSeason());
+        assertEquals(List.of(0.2, 0.1), hyperParameters.getAllModelErrorTrend());
+        assertEquals(1, hyperParameters.getRmsErrorSeasonality().size());
+        assertEquals(1, hyperParameters.getRmsErrorTrend().size());
+        assertEquals(2.0, (double) hyperParameters.getlastModelSeasonality().get(0).get(0).get(0));
+        assertEquals(1.0, (double) hyperParameters.getlastModelTrend().get(1).get(0).get(0));
+    }
+}
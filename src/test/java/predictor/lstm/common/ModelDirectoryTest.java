@@ -0,0 +1,153 @@
+package predictor.lstm.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.train.MakeModel;
+
+public class ModelDirectoryTest {
+
+    private static ArrayList<ArrayList<ArrayList<Double>>> model(double value, int windowSize,
+                                                                 HyperParameters hyperParameters) {
+        var model = new ArrayList<ArrayList<ArrayList<Double>>>();
+        for (int slot = 0; slot < 24; slot++) {
+            var weights = MakeModel.generateInitialWeightMatrix(windowSize, hyperParameters);
+            weights.get(0).set(0, value + slot);
+            model.add(weights);
+        }
+        return model;
+    }
+
+    private static void addBatch(HyperParameters hyperParameters, int batch) {
+        hyperParameters.updatModelTrend(model(batch, 7, hyperParameters));
+        hyperParameters.updateModelSeasonality(model(batch, 14, hyperParameters));
+        hyperParameters.setRmsErrorTrend(1.0 / (batch + 1));
+        hyperParameters.setRmsErrorSeasonality(batch == 1 ? 0 : 1);
+    }
+
+    private static long files(Path path) throws IOException {
+        try (Stream<Path> files = Files.list(path)) {
+            return files.count();
+        }
+    }
+
+    private static void delete(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void testSavesOnlyNewSegments() throws IOException {
+        var path = Files.createTempDirectory("model");
+        try {
+            var directory = new ModelDirectory(path);
+            assertFalse(directory.exists());
+
+            var hyperParameters = new HyperParameters();
+            hyperParameters.setModelName("channel0");
+            addBatch(hyperParameters, 0);
+            addBatch(hyperParameters, 1);
+            assertEquals(4, directory.save(hyperParameters));
+            assertTrue(directory.exists());
+
+            // Progress only rewrites the metadata
+            hyperParameters.setBatchTrack(2);
+            assertEquals(0, directory.save(hyperParameters));
+
+            // One more batch writes its two candidates
+            addBatch(hyperParameters, 2);
+            assertEquals(2, directory.save(hyperParameters));
+            assertEquals(7, files(path));
+
+            var loaded = directory.load();
+            assertEquals(2, loaded.getBatchTrack());
+            assertEquals(hyperParameters.getAllModelsTrend(), loaded.getAllModelsTrend());
+            assertEquals(hyperParameters.getAllModelSeasonality(), loaded.getAllModelSeasonality());
+            assertEquals(hyperParameters.getRmsErrorSeasonality(), loaded.getRmsErrorSeasonality());
+
+            var store = ModelStore.open(path);
+            store.verify();
+            assertEquals(hyperParameters.getBestModelTrend(), store.getBestModelTrend());
+            assertEquals(hyperParameters.getBestModelSeasonality(), store.getBestModelSeasonality());
+
+            // Keeping only the best candidates writes nothing; the others are kept for
+            // readers of the previous metadata until the next save
+            var previous = directory.readMeta();
+            hyperParameters.update();
+            assertEquals(0, directory.save(hyperParameters));
+            assertEquals(7, files(path));
+            for (var name : previous.seasonality()) {
+                assertTrue(Files.exists(directory.segmentPath(name)));
+            }
+            assertEquals(hyperParameters.getAllModelSeasonality(), directory.load().getAllModelSeasonality());
+
+            assertEquals(0, directory.save(hyperParameters));
+            assertEquals(3, files(path));
+        } finally {
+            delete(path);
+        }
+    }
+
+    @Test
+    void testCorruptSegmentIsDetected() throws IOException {
+        var path = Files.createTempDirectory("model");
+        try {
+            var directory = new ModelDirectory(path);
+            var hyperParameters = new HyperParameters();
+            addBatch(hyperParameters, 0);
+            directory.save(hyperParameters);
+
+            try (Stream<Path> files = Files.list(path)) {
+                var segment = files.filter(file -> file.getFileName().toString().startsWith("trend-"))//
+                        .findFirst()//
+                        .orElseThrow();
+                var bytes = Files.readAllBytes(segment);
+                bytes[bytes.length - 1] ^= 1;
+                Files.write(segment, bytes);
+            }
+            assertThrows(IOException.class, directory::load);
+            assertThrows(IOException.class, () -> ModelStore.open(path).verify());
+        } finally {
+            delete(path);
+        }
+    }
+
+    @Test
+    void testExportsOneFile() throws IOException {
+        var path = Files.createTempDirectory("model");
+        try {
+            var directory = new ModelDirectory(path.resolve("channel0" + ModelDirectory.SUFFIX));
+            var hyperParameters = new HyperParameters();
+            addBatch(hyperParameters, 0);
+            addBatch(hyperParameters, 1);
+            directory.save(hyperParameters);
+
+            for (boolean deflate : new boolean[] { false, true }) {
+                var file = path.resolve("channel0-" + deflate);
+                directory.export(file, deflate);
+                var exported = ModelFormat.decode(Files.readAllBytes(file));
+                assertEquals(hyperParameters.getAllModelsTrend(), exported.getAllModelsTrend());
+                assertEquals(hyperParameters.getAllModelSeasonality(), exported.getAllModelSeasonality());
+                assertEquals(hyperParameters.getRmsErrorSeasonality(), exported.getRmsErrorSeasonality());
+                assertEquals(hyperParameters.getAllModelSeasonality().get(1),
+                        ModelStore.open(file).getBestModelSeasonality());
+            }
+        } finally {
+            delete(path);
+        }
+    }
+}
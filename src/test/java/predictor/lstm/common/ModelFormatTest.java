@@ -0,0 +1,101 @@
+package predictor.lstm.common;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+import com.google.gson.Gson;
+
+import predictor.lstm.train.MakeModel;
+import predictor.lstm.util.CandidateRetention;
+import predictor.lstm.util.Optimizer;
+
+public class ModelFormatTest {
+
+    private static HyperParameters trained() {
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setModelName("channel0");
+        hyperParameters.setCount(3);
+        hyperParameters.setEpochTrack(2);
+        hyperParameters.setDropoutSeed(42L);
+        hyperParameters.setOptimizer(Optimizer.ADAGRAD);
+        hyperParameters.setCandidateRetention(CandidateRetention.everyNth(3, 5));
+        for (int m = 0; m < 2; m++) {
+            var seasonality = new ArrayList<ArrayList<ArrayList<Double>>>();
+            for (int slot = 0; slot < 4; slot++) {
+                seasonality.add(MakeModel.generateInitialWeightMatrix(14, hyperParameters));
+            }
+            seasonality.get(1).get(2).set(3, m + 0.125);
+            hyperParameters.updateModelSeasonality(seasonality);
+            hyperParameters.setRmsErrorSeasonality(0.5 - m);
+        }
+        // Ragged: slots of different window sizes
+        var trend = new ArrayList<ArrayList<ArrayList<Double>>>();
+        trend.add(MakeModel.generateInitialWeightMatrix(7, hyperParameters));
+        trend.add(MakeModel.generateInitialWeightMatrix(3, hyperParameters));
+        hyperParameters.updatModelTrend(trend);
+        hyperParameters.setRmsErrorTrend(0.25);
+        hyperParameters.setAllModelErrorSeason(new ArrayList<>(List.of(0.1, 0.2, 0.3, 0.4)));
+        hyperParameters.setAllModelErrorTrend(new ArrayList<>(List.of(0.7, 0.8)));
+        return hyperParameters;
+    }
+
+    private static void assertSameModel(HyperParameters expected, HyperParameters actual) {
+        assertEquals(expected.getModelName(), actual.getModelName());
+        assertEquals(expected.getCount(), actual.getCount());
+        assertEquals(expected.getEpochTrack(), actual.getEpochTrack());
+        assertEquals(expected.getDropoutSeed(), actual.getDropoutSeed());
+        assertEquals(expected.getOptimizer(), actual.getOptimizer());
+        assertEquals(expected.getCandidateRetention().toString(), actual.getCandidateRetention().toString());
+        assertEquals(expected.getAllModelSeasonality(), actual.getAllModelSeasonality());
+        assertEquals(expected.getAllModelsTrend(), actual.getAllModelsTrend());
+        assertEquals(expected.getRmsErrorSeasonality(), actual.getRmsErrorSeasonality());
+        assertEquals(expected.getRmsErrorTrend(), actual.getRmsErrorTrend());
+        assertEquals(expected.getAllModelErrorSeason(), actual.getAllModelErrorSeason());
+        assertEquals(expected.getAllModelErrorTrend(), actual.getAllModelErrorTrend());
+    }
+
+    @Test
+    void testRoundTrip() throws IOException {
+        var hyperParameters = trained();
+        for (boolean deflate : new boolean[] { false, true }) {
+            var bytes = ModelFormat.encode(hyperParameters, deflate);
+            assertTrue(ModelFormat.isModelFormat(bytes));
+            var decoded = ModelFormat.decode(bytes);
+            assertSameModel(hyperParameters, decoded);
+            // Every setting survives: encoding the decoded copy gives the same bytes
+            assertArrayEquals(bytes, ModelFormat.encode(decoded, deflate));
+        }
+    }
+
+    @Test
+    void testCorruptionIsDetected() throws IOException {
+        var bytes = ModelFormat.encode(trained(), false);
+        bytes[bytes.length / 2] ^= 1;
+        assertThrows(IOException.class, () -> ModelFormat.decode(bytes));
+
+        var truncated = ModelFormat.encode(trained(), true);
+        assertThrows(IOException.class,
+                () -> ModelFormat.decode(Arrays.copyOf(truncated, truncated.length - 1)));
+    }
+
+    @Test
+    void testReadsLegacyFiles() throws IOException {
+        var hyperParameters = trained();
+        var legacy = new Gson().toJson(Base64.getEncoder().encodeToString(ReadAndSaveModels.compress(hyperParameters)))
+                .getBytes();
+        assertFalse(ModelFormat.isModelFormat(legacy));
+        assertSameModel(hyperParameters, ReadAndSaveModels.decode(legacy));
+        assertThrows(IOException.class, () -> ReadAndSaveModels.decode("not a model".getBytes()));
+    }
+}
@@ -0,0 +1,198 @@
+package predictor.lstm.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.train.CheckpointWriter;
+import predictor.lstm.train.MakeModel;
+
+public class ModelJournalTest {
+
+    private static ArrayList<ArrayList<ArrayList<Double>>> model(int windowSize, HyperParameters hyperParameters) {
+        var model = new ArrayList<ArrayList<ArrayList<Double>>>();
+        for (int slot = 0; slot < 24; slot++) {
+            var weights = MakeModel.generateInitialWeightMatrix(windowSize, hyperParameters);
+            weights.get(0).set(0, (double) slot);
+            model.add(weights);
+        }
+        return model;
+    }
+
+    /**
+     * Adds a candidate that differs from the last one in one slot, like a batch
+     * that improved one slot.
+     */
+    private static void addBatch(HyperParameters hyperParameters, int batch) {
+        var trend = copy(hyperParameters.getlastModelTrend());
+        trend.get(batch % 24).get(0).set(1, batch + 0.5);
+        hyperParameters.updatModelTrend(trend);
+        var seasonality = copy(hyperParameters.getlastModelSeasonality());
+        seasonality.get(batch % 24).get(0).set(1, batch + 0.25);
+        hyperParameters.updateModelSeasonality(seasonality);
+        hyperParameters.setRmsErrorTrend(1.0 / (batch + 1));
+        hyperParameters.setRmsErrorSeasonality(1.0 / (batch + 1));
+        hyperParameters.setBatchTrack(batch);
+    }
+
+    private static ArrayList<ArrayList<ArrayList<Double>>> copy(ArrayList<ArrayList<ArrayList<Double>>> model) {
+        var copy = new ArrayList<ArrayList<ArrayList<Double>>>();
+        for (var weights : model) {
+            var rows = new ArrayList<ArrayList<Double>>();
+            for (var row : weights) {
+                rows.add(new ArrayList<>(row));
+            }
+            copy.add(rows);
+        }
+        return copy;
+    }
+
+    private static HyperParameters initial() {
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setModelName("channel0");
+        hyperParameters.updatModelTrend(model(7, hyperParameters));
+        hyperParameters.updateModelSeasonality(model(14, hyperParameters));
+        hyperParameters.setRmsErrorTrend(1);
+        hyperParameters.setRmsErrorSeasonality(1);
+        return hyperParameters;
+    }
+
+    private static void assertSameState(HyperParameters expected, HyperParameters actual) {
+        assertEquals(expected.getBatchTrack(), actual.getBatchTrack());
+        assertEquals(expected.getAllModelsTrend(), actual.getAllModelsTrend());
+        assertEquals(expected.getAllModelSeasonality(), actual.getAllModelSeasonality());
+        assertEquals(expected.getRmsErrorTrend(), actual.getRmsErrorTrend());
+        assertEquals(expected.getRmsErrorSeasonality(), actual.getRmsErrorSeasonality());
+    }
+
+    private static void delete(Path path) throws IOException {
+        try (Stream<Path> files = Files.walk(path)) {
+            for (var file : files.sorted(Comparator.reverseOrder()).toList()) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    @Test
+    void testAppendsOnlyChangedSlotsAndReplays() throws IOException {
+        var path = Files.createTempDirectory("model");
+        try {
+            var directory = new ModelDirectory(path);
+            var journal = new ModelJournal(directory).setCompactionRatio(10);
+            var hyperParameters = initial();
+
+            // The first checkpoint is a full save
+            assertEquals(0, journal.append(hyperParameters));
+            long fullSize = directory.size();
+
+            addBatch(hyperParameters, 1);
+            long delta = journal.append(hyperParameters);
+            assertTrue(delta > 0 && delta < fullSize / 10, delta + " of " + fullSize);
+            assertSameState(hyperParameters, directory.load());
+
+            // The predictor sees the replayed best model
+            var store = ModelStore.open(path);
+            assertEquals(hyperParameters.getAllModelSeasonality().get(1), store.getBestModelSeasonality());
+
+            // Progress only writes the settings
+            hyperParameters.setBatchTrack(7);
+            assertTrue(journal.append(hyperParameters) < delta);
+            assertSameState(hyperParameters, directory.load());
+        } finally {
+            delete(path);
+        }
+    }
+
+    @Test
+    void testIgnoresTornRecord() throws IOException {
+        var path = Files.createTempDirectory("model");
+        try {
+            var directory = new ModelDirectory(path);
+            var journal = new ModelJournal(directory).setCompactionRatio(10);
+            var hyperParameters = initial();
+            journal.append(hyperParameters);
+            addBatch(hyperParameters, 1);
+            journal.append(hyperParameters);
+            var committed = hyperParameters.checkpointCopy();
+
+            addBatch(hyperParameters, 2);
+            long last = journal.append(hyperParameters);
+            try (var channel = FileChannel.open(directory.journalPath(), StandardOpenOption.WRITE)) {
+                channel.truncate(channel.size() - last / 2);
+            }
+            assertSameState(committed, directory.load());
+        } finally {
+            delete(path);
+        }
+    }
+
+    @Test
+    void testCompacts() throws IOException {
+        var path = Files.createTempDirectory("model");
+        try {
+            var directory = new ModelDirectory(path);
+            var journal = new ModelJournal(directory).setCompactionRatio(0.05);
+            var hyperParameters = initial();
+            journal.append(hyperParameters);
+
+            int compactions = 0;
+            for (int batch = 1; batch <= 20; batch++) {
+                addBatch(hyperParameters, batch);
+                if (journal.append(hyperParameters) == 0) {
+                    compactions++;
+                }
+            }
+            assertTrue(compactions > 0);
+            assertSameState(hyperParameters, directory.load());
+
+            // A save by someone else starts a new base
+            directory.save(hyperParameters);
+            addBatch(hyperParameters, 21);
+            assertEquals(0, journal.append(hyperParameters));
+            assertSameState(hyperParameters, directory.load());
+        } finally {
+            delete(path);
+        }
+    }
+
+    @Test
+    void testTrainedModelOpensMapped() throws Exception {
+        var path = Files.createTempDirectory("model");
+        try {
+            var directory = new ModelDirectory(path);
+            var journal = new ModelJournal(directory).setCompactionRatio(10);
+            var hyperParameters = initial();
+
+            // As in TrainAndValidateBatch: journal records per batch, a full save at the end
+            try (var checkpoints = new CheckpointWriter(Runnable::run, journal::append, journal::compact)) {
+                for (int batch = 1; batch <= 3; batch++) {
+                    addBatch(hyperParameters, batch);
+                    checkpoints.submit(hyperParameters);
+                }
+                assertFalse(ModelStore.open(path).isMapped());
+
+                addBatch(hyperParameters, 4);
+                checkpoints.submitFinal(hyperParameters);
+                checkpoints.flush();
+            }
+
+            var store = ModelStore.open(path);
+            assertTrue(store.isMapped());
+            assertEquals(hyperParameters.getAllModelSeasonality().get(4), store.getBestModelSeasonality());
+            assertSameState(hyperParameters, directory.load());
+        } finally {
+            delete(path);
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package predictor.lstm.common;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.train.MakeModel;
+
+public class ModelStoreTest {
+
+    private static Path write(byte[] bytes) throws IOException {
+        var file = Files.createTempFile("model", null);
+        file.toFile().deleteOnExit();
+        return Files.write(file, bytes);
+    }
+
+    private static HyperParameters trained(int candidates) {
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setModelName("channel0");
+        hyperParameters.setCount(1);
+        for (int m = 0; m < candidates; m++) {
+            var seasonality = new ArrayList<ArrayList<ArrayList<Double>>>();
+            var trend = new ArrayList<ArrayList<ArrayList<Double>>>();
+            for (int slot = 0; slot < 48; slot++) {
+                var weights = MakeModel.generateInitialWeightMatrix(14, hyperParameters);
+                weights.get(slot % 8).set(slot % 14, m * 100.0 + slot);
+                seasonality.add(weights);
+                // Ragged trend model
+                trend.add(MakeModel.generateInitialWeightMatrix(slot % 2 == 0 ? 7 : 5, hyperParameters));
+            }
+            hyperParameters.updateModelSeasonality(seasonality);
+            hyperParameters.updatModelTrend(trend);
+            hyperParameters.setRmsErrorSeasonality(Math.abs(m - candidates / 2 + 0.5));
+            hyperParameters.setRmsErrorTrend(m);
+        }
+        return hyperParameters;
+    }
+
+    @Test
+    void testBestModelsMatchFullRead() throws IOException {
+        var hyperParameters = trained(6);
+        for (boolean deflate : new boolean[] { false, true }) {
+            var store = ModelStore.open(write(ModelFormat.encode(hyperParameters, deflate)));
+            store.verify();
+            assertEquals(hyperParameters.getBestModelSeasonality(), store.getBestModelSeasonality());
+            assertEquals(hyperParameters.getBestModelTrend(), store.getBestModelTrend());
+            // Slots are decoded once and then shared
+            assertTrue(store.getBestModelSeasonality().get(5) == store.getBestModelSeasonality().get(5));
+
+            var settings = store.getHyperParameters();
+            assertEquals("channel0", settings.getModelName());
+            assertEquals(hyperParameters.getRmsErrorSeasonality(), settings.getRmsErrorSeasonality());
+            assertTrue(settings.getAllModelSeasonality().isEmpty());
+        }
+    }
+
+    @Test
+    void testUntrainedModelHasNoBest() throws IOException {
+        var file = write(ModelFormat.encode(new HyperParameters(), false));
+        assertTrue(ModelStore.open(file).getBestModelSeasonality().isEmpty());
+    }
+
+    @Test
+    void testVerifyDetectsCorruption() throws IOException {
+        var bytes = ModelFormat.encode(trained(2), false);
+        bytes[bytes.length - 3] ^= 1;
+        var corrupt = write(bytes);
+        assertThrows(IOException.class, () -> ModelStore.open(corrupt).verify());
+
+        var legacy = write("legacy".getBytes());
+        assertThrows(IOException.class, () -> ModelStore.open(legacy));
+    }
+}
@@ -104,4 +104,24 @@ public class DataModificationTest {
         ArrayList<Double> expected = new ArrayList<>(Arrays.asList(10.0, 4.0));
         assertEquals(expected, DataModification.elementWiseDiv(featureA, featureB));
     }
+
+    @Test
+    void testToCandidateMajor() {
+        var a0 = new ArrayList<ArrayList<Double>>();
+        a0.add(new ArrayList<>(Arrays.asList(1.0)));
+        var a1 = new ArrayList<ArrayList<Double>>();
+        a1.add(new ArrayList<>(Arrays.asList(2.0)));
+        var b0 = new ArrayList<ArrayList<Double>>();
+        b0.add(new ArrayList<>(Arrays.asList(3.0)));
+
+        var perSlot = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
+        perSlot.add(new ArrayList<>(Arrays.asList(a0, a1)));
+        perSlot.add(new ArrayList<>(Arrays.asList(b0)));
+
+        var result = DataModification.toCandidateMajor(perSlot);
+        assertEquals(2, result.size());
+        assertEquals(Arrays.asList(a0, b0), result.get(0));
+        // slot 1 has a single candidate, which is repeated
+        assertEquals(Arrays.asList(a1, b0), result.get(1));
+    }
 }
@@ -0,0 +1,71 @@
+package predictor.lstm.train;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.common.HyperParameters;
+
+public class CheckpointWriterTest {
+
+    @Test
+    void testWritesOnlyTheLatestPendingCheckpoint() throws Exception {
+        var started = new CountDownLatch(1);
+        var release = new CountDownLatch(1);
+        var written = new ArrayList<Integer>();
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var writer = new CheckpointWriter(executor, hp -> {
+                started.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+                synchronized (written) {
+                    written.add(hp.getBatchTrack());
+                }
+            });
+
+            var hyperParameters = new HyperParameters();
+            hyperParameters.setBatchTrack(1);
+            writer.submit(hyperParameters);
+            started.await();
+
+            // The first write blocks; these replace each other
+            for (int batch = 2; batch <= 5; batch++) {
+                hyperParameters.setBatchTrack(batch);
+                writer.submit(hyperParameters);
+            }
+            // Changes after submit are not part of the checkpoint
+            hyperParameters.setBatchTrack(99);
+
+            release.countDown();
+            writer.flush();
+
+            assertEquals(List.of(1, 5), written);
+            assertEquals(2, writer.getWritten());
+            assertEquals(3, writer.getCoalesced());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    void testFlushReportsFailedWrite() throws Exception {
+        var writer = new CheckpointWriter(Runnable::run, hp -> {
+            throw new IOException("disk full");
+        });
+        writer.submit(new HyperParameters());
+        assertThrows(IOException.class, writer::flush);
+        // Reported once
+        writer.flush();
+    }
+}
@@ -0,0 +1,57 @@
+package predictor.lstm.train;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Duration;
+
+import org.junit.jupiter.api.Test;
+
+public class DeadlineBudgetTest {
+
+    @Test
+    void testUnboundedNeverScales() {
+        var budget = new DeadlineBudget(TrainingDeadline.NONE);
+        budget.record(Duration.ofHours(1).toNanos(), Duration.ofHours(1).toNanos(), 1);
+        assertEquals(1, budget.nextScale(1000));
+        assertFalse(TrainingDeadline.NONE.isExpired());
+    }
+
+    @Test
+    void testScalesToTheShareOfEachBatch() {
+        var budget = new DeadlineBudget(TrainingDeadline.after(Duration.ofSeconds(100)));
+        // No estimate yet: full iterations
+        assertEquals(1, budget.nextScale(10));
+
+        budget.record(Duration.ofSeconds(5).toNanos(), Duration.ofSeconds(5).toNanos(), 1);
+        // 100 s over 10 batches fits 5 s batches
+        assertEquals(1, budget.nextScale(10));
+        // 100 s over 40 batches leaves 2.5 s each, half of a full batch
+        assertEquals(0.5, budget.nextScale(40), 0.01);
+        // Far too many batches: the minimum scale, as long as one batch fits
+        assertEquals(DeadlineBudget.MIN_SCALE, budget.nextScale(100_000));
+    }
+
+    @Test
+    void testStopsWhenNothingFits() {
+        var budget = new DeadlineBudget(TrainingDeadline.after(Duration.ofSeconds(1)));
+        budget.record(Duration.ofSeconds(60).toNanos(), Duration.ofSeconds(60).toNanos(), 1);
+        assertEquals(0, budget.nextScale(1));
+
+        var expired = TrainingDeadline.after(Duration.ofSeconds(-1));
+        assertTrue(expired.isExpired());
+        assertEquals(0, new DeadlineBudget(expired).nextScale(1));
+    }
+
+    @Test
+    void testOnlyTrainingScales() {
+        var budget = new DeadlineBudget(TrainingDeadline.after(Duration.ofSeconds(100)));
+        // 1 s fixed, 0.4 s training at the minimum scale: 4 s at full iterations
+        budget.record(Duration.ofMillis(1400).toNanos(), Duration.ofMillis(400).toNanos(), DeadlineBudget.MIN_SCALE);
+        // 100 s over 20 batches leaves 5 s each: 1 s fixed and all of the 4 s training
+        assertEquals(1, budget.nextScale(20), 0.01);
+        // 3 s each: 1 s fixed and half of the training
+        assertEquals(0.5, budget.nextScale(33), 0.02);
+    }
+}
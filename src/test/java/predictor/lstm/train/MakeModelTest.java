@@ -0,0 +1,72 @@
+package predictor.lstm.train;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.common.HyperParameters;
+
+public class MakeModelTest {
+
+    private static final OffsetDateTime START = OffsetDateTime.of(2024, 1, 1, 0, 0, 0, 0, ZoneOffset.UTC);
+
+    private static ArrayList<Double> data(int days) {
+        var random = new Random(21);
+        var data = new ArrayList<Double>();
+        for (int i = 0; i < 48 * days; i++) {
+            data.add(400 + 200 * Math.sin(i * Math.PI / 24) + 20 * random.nextDouble());
+        }
+        return data;
+    }
+
+    private static ArrayList<OffsetDateTime> dates(int days) {
+        var dates = new ArrayList<OffsetDateTime>();
+        for (int i = 0; i < 48 * days; i++) {
+            dates.add(START.plusMinutes(30L * i));
+        }
+        return dates;
+    }
+
+    @Test
+    void testParallelTrendMatchesSequential() {
+        var data = data(4);
+        var dates = dates(4);
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setDropoutSeed(5L);
+        hyperParameters.setGdIterration(5);
+
+        var sequential = new MakeModel(null).trainTrend(data, dates, hyperParameters);
+        var pool = new ForkJoinPool(4);
+        try {
+            var parallel = new MakeModel(pool).trainTrend(data, dates, hyperParameters);
+            assertFalse(sequential.isEmpty());
+            assertEquals(sequential, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testCancelledTrainingStops() {
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setGdIterration(5);
+        var pool = new ForkJoinPool(2);
+        try {
+            var makeModel = new MakeModel(pool).setCancellation(() -> true);
+            assertThrows(CancellationException.class, () -> makeModel.trainTrend(data(4), dates(4), hyperParameters));
+            assertThrows(CancellationException.class,
+                    () -> makeModel.trainSeasonality(data(20), dates(20), hyperParameters));
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
@@ -0,0 +1,35 @@
+package predictor.lstm.train;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class TrainingExecutorsTest {
+
+    @Test
+    void testNamedBoundedPools() throws Exception {
+        try (var executors = new TrainingExecutors.Builder()//
+                .setName("test")//
+                .setTrainThreads(2)//
+                .setValidateThreads(1)//
+                .build()) {
+            var trainThread = executors.getTrainPool().submit(() -> Thread.currentThread().getName()).get();
+            var ioThread = executors.getIoPool().submit(() -> Thread.currentThread().getName()).get();
+            assertTrue(trainThread.startsWith("test-train-"), trainThread);
+            assertTrue(ioThread.startsWith("test-io-"), ioThread);
+
+            var metrics = executors.getMetrics();
+            assertEquals(3, metrics.size());
+            assertEquals("train", metrics.get(0).name());
+            assertEquals(2, metrics.get(0).parallelism());
+            assertEquals(1, metrics.get(1).parallelism());
+        }
+    }
+
+    @Test
+    void testRejectsNonPositiveSizes() {
+        assertThrows(IllegalArgumentException.class, () -> new TrainingExecutors.Builder().setTrainThreads(0).build());
+    }
+}
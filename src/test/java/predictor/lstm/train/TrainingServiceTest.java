@@ -0,0 +1,73 @@
+package predictor.lstm.train;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import common.types.ChannelAddress;
+import predictor.lstm.train.TrainingService.ChannelProgress.State;
+
+public class TrainingServiceTest {
+
+    @Test
+    void testChannelsShareBoundedConcurrency() throws Exception {
+        var running = new AtomicInteger();
+        var maxRunning = new AtomicInteger();
+        var started = new CountDownLatch(2);
+        var release = new CountDownLatch(1);
+        var futures = new ArrayList<CompletableFuture<Void>>();
+
+        try (var executors = new TrainingExecutors.Builder().setTrainThreads(2).build();
+             var service = new TrainingService(executors, 2)) {
+            for (int i = 0; i < 5; i++) {
+                var channel = new ChannelAddress("meter", "channel" + i);
+                futures.add(service.submit(channel, progress -> () -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    started.countDown();
+                    try {
+                        release.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    progress.onBatch(0, 1, 1, 1);
+                    running.decrementAndGet();
+                }));
+            }
+            var first = new ChannelAddress("meter", "channel0");
+            assertSame(futures.get(0), service.submit(first, progress -> () -> {
+            }));
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            assertEquals(State.QUEUED, service.getProgress(new ChannelAddress("meter", "channel4")).state());
+
+            release.countDown();
+            CompletableFuture.allOf(futures.toArray(CompletableFuture[]::new)).get(10, TimeUnit.SECONDS);
+
+            assertEquals(2, maxRunning.get());
+            assertEquals(5, service.getProgress().size());
+            for (var progress : service.getProgress().values()) {
+                assertEquals(State.DONE, progress.state());
+                assertEquals(1.0, progress.getFraction());
+            }
+        }
+    }
+
+    @Test
+    void testFailedChannelIsReported() throws Exception {
+        try (var service = new TrainingService(TrainingExecutors.getDefault(), 1)) {
+            var channel = new ChannelAddress("meter", "broken");
+            var future = service.submit(channel, progress -> () -> {
+                throw new IllegalStateException("no data");
+            });
+            assertTrue(future.handle((result, error) -> error != null).get(10, TimeUnit.SECONDS));
+            assertEquals(State.FAILED, service.getProgress(channel).state());
+        }
+    }
+}
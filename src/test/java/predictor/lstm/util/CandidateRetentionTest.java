@@ -0,0 +1,65 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class CandidateRetentionTest {
+
+    private static ArrayList<ArrayList<Double>> matrix(double marker) {
+        var m = new ArrayList<ArrayList<Double>>();
+        m.add(new ArrayList<>(Arrays.asList(marker)));
+        return m;
+    }
+
+    private static ArrayList<Double> markers(CandidateRetention.Selection selection) {
+        var result = new ArrayList<Double>();
+        selection.toList().forEach(m -> result.add(m.get(0).get(0)));
+        return result;
+    }
+
+    private static CandidateRetention.Selection offer(CandidateRetention policy, double[] errors) {
+        var selection = policy.start();
+        for (int i = 0; i < errors.length; i++) {
+            if (selection.wants(i, errors[i])) {
+                selection.add(i, errors[i], matrix(i));
+            }
+        }
+        return selection;
+    }
+
+    @Test
+    void testTopKKeepsLowestAbsoluteErrorInSampleOrder() {
+        var selection = offer(CandidateRetention.topK(2), new double[] { 0.5, -0.1, 0.3, 0.2, -0.9 });
+        assertEquals(Arrays.asList(1.0, 3.0), markers(selection));
+    }
+
+    @Test
+    void testTopKKeepsEarlierSampleOnTie() {
+        var selection = CandidateRetention.topK(1).start();
+        selection.add(0, 0.2, matrix(0));
+        assertFalse(selection.wants(1, -0.2));
+    }
+
+    @Test
+    void testEveryNthKeepsMostRecent() {
+        var selection = offer(CandidateRetention.everyNth(2, 2), new double[] { 1, 1, 1, 1, 1, 1, 1 });
+        assertEquals(Arrays.asList(4.0, 6.0), markers(selection));
+    }
+
+    @Test
+    void testLastOnly() {
+        var selection = offer(CandidateRetention.lastOnly(), new double[] { 0.1, 0.2, 0.3 });
+        assertEquals(Arrays.asList(2.0), markers(selection));
+    }
+
+    @Test
+    void testInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> CandidateRetention.topK(0));
+    }
+}
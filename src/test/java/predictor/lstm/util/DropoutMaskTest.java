@@ -0,0 +1,97 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.common.HyperParameters;
+import predictor.lstm.train.MakeModel;
+import predictor.lstm.util.Engine.EngineBuilder;
+
+public class DropoutMaskTest {
+
+    @Test
+    void testSameSeedSameMask() {
+        var first = new boolean[64];
+        var second = new boolean[64];
+        new DropoutMask(42).fill(first, first.length, 0.3);
+        new DropoutMask(42).fill(second, second.length, 0.3);
+        assertArrayEquals(first, second);
+    }
+
+    @Test
+    void testStreams() {
+        var hyperParameters = new HyperParameters();
+        assertSame(DropoutMask.current(), DropoutMask.forStream(hyperParameters, MakeModel.TREND, 3));
+
+        hyperParameters.setDropoutSeed(7L);
+        var first = new boolean[64];
+        var second = new boolean[64];
+        DropoutMask.forStream(hyperParameters, MakeModel.TREND, 0).fill(first, first.length, 0.5);
+        DropoutMask.forStream(hyperParameters, MakeModel.TREND, 1).fill(second, second.length, 0.5);
+        assertFalse(Arrays.equals(first, second));
+
+        DropoutMask.forStream(hyperParameters, MakeModel.TREND, 1).fill(first, first.length, 0.5);
+        assertArrayEquals(second, first);
+    }
+
+    @Test
+    void testStreamsDifferByModelAndBatch() {
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setDropoutSeed(7L);
+        var trend = new boolean[64];
+        DropoutMask.forStream(hyperParameters, MakeModel.TREND, 2).fill(trend, trend.length, 0.5);
+
+        // Seasonality slot 2 trains in the same batch as trend segment 2
+        var other = new boolean[64];
+        DropoutMask.forStream(hyperParameters, MakeModel.SEASONALITY, 2).fill(other, other.length, 0.5);
+        assertFalse(Arrays.equals(trend, other));
+
+        hyperParameters.setCount(1);
+        DropoutMask.forStream(hyperParameters, MakeModel.TREND, 2).fill(other, other.length, 0.5);
+        assertFalse(Arrays.equals(trend, other));
+
+        hyperParameters.setCount(0);
+        hyperParameters.setEpochTrack(1);
+        DropoutMask.forStream(hyperParameters, MakeModel.TREND, 2).fill(other, other.length, 0.5);
+        assertFalse(Arrays.equals(trend, other));
+
+        hyperParameters.setEpochTrack(0);
+        DropoutMask.forStream(hyperParameters, MakeModel.TREND, 2).fill(other, other.length, 0.5);
+        assertArrayEquals(trend, other);
+    }
+
+    @Test
+    void testSeededFitIsReproducible() {
+        var random = new Random(9);
+        var input = new double[5][8];
+        var target = new double[5];
+        for (int i = 0; i < input.length; i++) {
+            for (int t = 0; t < input[i].length; t++) {
+                input[i][t] = random.nextDouble();
+            }
+            target[i] = random.nextDouble();
+        }
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setDropoutSeed(123L);
+
+        var results = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
+        for (int run = 0; run < 2; run++) {
+            var engine = new EngineBuilder()//
+                    .setInputMatrix(input)//
+                    .setTargetVector(target)//
+                    .setDropoutStream(MakeModel.TREND, 4)//
+                    .build();
+            engine.fit(20, MakeModel.generateInitialWeightMatrix(8, hyperParameters), hyperParameters);
+            results.add(engine.getWeights());
+        }
+        assertEquals(results.get(0), results.get(1));
+    }
+}
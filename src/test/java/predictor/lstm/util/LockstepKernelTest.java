@@ -0,0 +1,156 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.common.HyperParameters;
+
+public class LockstepKernelTest {
+
+    private static final int LENGTH = 6;
+    private static final int LANES = 3;
+    private static final int SAMPLES = 4;
+
+    private static ArrayList<ArrayList<Double>> initialWeights(Random random) {
+        var val = new ArrayList<ArrayList<Double>>();
+        for (int k = 0; k < 8; k++) {
+            var row = new ArrayList<Double>();
+            for (int t = 0; t < LENGTH; t++) {
+                row.add(random.nextDouble() - 0.5);
+            }
+            val.add(row);
+        }
+        return val;
+    }
+
+    private static double[] window(Random random) {
+        var data = new double[LENGTH];
+        for (int t = 0; t < LENGTH; t++) {
+            data[t] = random.nextDouble();
+        }
+        return data;
+    }
+
+    @Test
+    void testLanesMatchSingleKernel() {
+        var random = new Random(5);
+        var weights = new ArrayList<ArrayList<ArrayList<Double>>>();
+        var inputs = new double[LANES][SAMPLES][];
+        var targets = new double[LANES][SAMPLES];
+        for (int lane = 0; lane < LANES; lane++) {
+            weights.add(initialWeights(random));
+            for (int s = 0; s < SAMPLES; s++) {
+                inputs[lane][s] = window(random);
+                targets[lane][s] = random.nextDouble();
+            }
+        }
+        // lane 2 runs no iterations at all and must keep its initial weights
+        var iterations = new int[] { 7, 3, 0 };
+        double learningRate = 0.05;
+
+        var lockstep = new LockstepKernel(LANES, LENGTH);
+        lockstep.setDropout(false, 0, 1);
+        var expected = new ArrayList<ArrayList<ArrayList<Double>>>();
+        for (int lane = 0; lane < LANES; lane++) {
+            var kernel = new LstmKernel(LENGTH);
+            kernel.setDropout(false, 0, 1);
+            for (int s = 0; s < SAMPLES; s++) {
+                if (s == 0) {
+                    kernel.initialize(inputs[lane][0], targets[lane][0], learningRate);
+                    for (int t = 0; t < LENGTH; t++) {
+                        for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                            kernel.setWeight(type, t, weights.get(lane).get(type).get(t));
+                        }
+                        kernel.setYt(t, weights.get(lane).get(6).get(t));
+                        kernel.setCt(t, weights.get(lane).get(7).get(t));
+                    }
+                } else {
+                    kernel.carryOver(inputs[lane][s], targets[lane][s], learningRate);
+                }
+                for (int i = 0; i < iterations[lane]; i++) {
+                    kernel.forward();
+                    kernel.backward();
+                    kernel.updateWeights();
+                    kernel.trackBest();
+                }
+                kernel.keepCurrentIfUntrained();
+            }
+            var best = new ArrayList<ArrayList<Double>>();
+            for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                var row = new ArrayList<Double>();
+                for (int t = 0; t < LENGTH; t++) {
+                    row.add(kernel.getBestWeight(type, t));
+                }
+                best.add(row);
+            }
+            expected.add(best);
+        }
+
+        for (int s = 0; s < SAMPLES; s++) {
+            for (int lane = 0; lane < LANES; lane++) {
+                if (s == 0) {
+                    lockstep.load(lane, inputs[lane][0], targets[lane][0], learningRate, weights.get(lane));
+                } else {
+                    lockstep.carryOver(lane, inputs[lane][s], targets[lane][s], learningRate);
+                }
+            }
+            for (int i = 0; i < 7; i++) {
+                for (int lane = 0; lane < LANES; lane++) {
+                    lockstep.setActive(lane, i < iterations[lane]);
+                }
+                lockstep.step();
+            }
+            for (int lane = 0; lane < LANES; lane++) {
+                lockstep.keepCurrentIfUntrained(lane);
+            }
+        }
+
+        for (int lane = 0; lane < LANES; lane++) {
+            var actual = lockstep.getBestWeights(lane);
+            for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                assertEquals(expected.get(lane).get(type), actual.get(type));
+            }
+        }
+        assertEquals(weights.get(2).subList(0, 6), lockstep.getBestWeights(2).subList(0, 6));
+    }
+
+    @Test
+    void testParallelBlocksMatchSequential() {
+        var random = new Random(11);
+        int slots = 7;
+        var weights = new ArrayList<ArrayList<ArrayList<Double>>>();
+        var inputs = new double[slots][][];
+        var targets = new double[slots][];
+        var iterations = new int[slots];
+        for (int slot = 0; slot < slots; slot++) {
+            weights.add(initialWeights(random));
+            // slots differ in sample and iteration counts
+            inputs[slot] = new double[SAMPLES - slot % 2][];
+            targets[slot] = new double[inputs[slot].length];
+            for (int s = 0; s < inputs[slot].length; s++) {
+                inputs[slot][s] = window(random);
+                targets[slot][s] = random.nextDouble();
+            }
+            iterations[slot] = 2 + slot;
+        }
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setDropoutSeed(3L);
+
+        var sequential = new LockstepEngine(inputs, targets)//
+                .fit(iterations, weights, hyperParameters);
+        var pool = new ForkJoinPool(3);
+        try {
+            var parallel = new LockstepEngine(inputs, targets)//
+                    .setPool(pool)//
+                    .fit(iterations, weights, hyperParameters);
+            assertEquals(sequential, parallel);
+        } finally {
+            pool.shutdown();
+        }
+    }
+}
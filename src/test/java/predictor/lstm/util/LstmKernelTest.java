@@ -0,0 +1,258 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.utilities.Activation;
+import predictor.lstm.utilities.ActivationBackend;
+
+public class LstmKernelTest {
+
+    private static final int LENGTH = 14;
+
+    /**
+     * Exact activations that count their calls.
+     */
+    private static class CountingActivation implements Activation {
+        private int sigmoidCalls;
+        private int tanhCalls;
+
+        @Override
+        public double sigmoid(double val) {
+            this.sigmoidCalls++;
+            return ActivationBackend.EXACT.sigmoid(val);
+        }
+
+        @Override
+        public double tanh(double val) {
+            this.tanhCalls++;
+            return ActivationBackend.EXACT.tanh(val);
+        }
+    }
+
+    /**
+     * The training loop of the {@link Cell} based {@link Lstm} this kernel
+     * replaced, with dropout disabled.
+     *
+     * @return the weights, yT and cT of the best iteration, as rows
+     */
+    private static ArrayList<ArrayList<Double>> trainCells(double[] input, double target, double[][] weights,
+                                                           double learningRate, int iterations) {
+        var cells = new ArrayList<Cell>();
+        for (int t = 0; t < LENGTH; t++) {
+            cells.add(new Cell(input[t], target, weights[LstmKernel.WI][t], weights[LstmKernel.WO][t],
+                    weights[LstmKernel.WZ][t], weights[LstmKernel.RI][t], weights[LstmKernel.RO][t],
+                    weights[LstmKernel.RZ][t], 0));
+        }
+        var rate = new AdaptiveLearningRate();
+        var derivatives = new double[LstmKernel.WEIGHT_TYPES];
+        var errors = new ArrayList<Double>();
+        var snapshots = new ArrayList<ArrayList<ArrayList<Double>>>();
+        for (int i = 0; i < iterations; i++) {
+            for (int t = 0; t < LENGTH; t++) {
+                cells.get(t).forwardPropogation();
+                if (t < LENGTH - 1) {
+                    cells.get(t + 1).setYtMinusOne(cells.get(t).getYt());
+                    cells.get(t + 1).setCtMinusOne(cells.get(t).getCt());
+                    cells.get(t).setError(cells.get(t).getYt() - cells.get(t + 1).getXt());
+                }
+            }
+            for (int t = LENGTH - 1; t >= 0; t--) {
+                if (t < LENGTH - 1) {
+                    cells.get(t).setDlByDc(cells.get(t + 1).getDlByDc());
+                }
+                cells.get(t).backwardPropogation();
+            }
+            for (var cell : cells) {
+                derivatives[LstmKernel.WI] += cell.getXt() * cell.getDelI();
+                derivatives[LstmKernel.WO] += cell.getXt() * cell.getDelO();
+                derivatives[LstmKernel.WZ] += cell.getXt() * cell.getDelZ();
+                derivatives[LstmKernel.RI] += cell.getYtMinusOne() * cell.getDelI();
+                derivatives[LstmKernel.RO] += cell.getYtMinusOne() * cell.getDelO();
+                derivatives[LstmKernel.RZ] += cell.getYtMinusOne() * cell.getDelZ();
+            }
+            var local = new double[LstmKernel.WEIGHT_TYPES];
+            for (int t = 0; t < LENGTH; t++) {
+                var cell = cells.get(t);
+                for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+                    double gradient = derivatives[type] / LENGTH;
+                    local[type] = rate.adagradOptimizer(learningRate, local[type], gradient, t);
+                    setWeight(cell, type, getWeight(cell, type) - local[type] * gradient);
+                }
+            }
+
+            var snapshot = new ArrayList<ArrayList<Double>>();
+            for (int type = 0; type < LstmKernel.WEIGHT_TYPES + 2; type++) {
+                var row = new ArrayList<Double>();
+                for (var cell : cells) {
+                    row.add(type == LstmKernel.WEIGHT_TYPES ? cell.getYt()
+                            : type == LstmKernel.WEIGHT_TYPES + 1 ? cell.getCt() : getWeight(cell, type));
+                }
+                snapshot.add(row);
+            }
+            errors.add(cells.get(LENGTH - 1).getError());
+            snapshots.add(snapshot);
+        }
+        return snapshots.get(Lstm.findGlobalMinima(errors));
+    }
+
+    private static double getWeight(Cell cell, int type) {
+        return switch (type) {
+        case LstmKernel.WI -> cell.getWi();
+        case LstmKernel.WO -> cell.getWo();
+        case LstmKernel.WZ -> cell.getWz();
+        case LstmKernel.RI -> cell.getRi();
+        case LstmKernel.RO -> cell.getRo();
+        default -> cell.getRz();
+        };
+    }
+
+    private static void setWeight(Cell cell, int type, double value) {
+        switch (type) {
+        case LstmKernel.WI -> cell.setWi(value);
+        case LstmKernel.WO -> cell.setWo(value);
+        case LstmKernel.WZ -> cell.setWz(value);
+        case LstmKernel.RI -> cell.setRi(value);
+        case LstmKernel.RO -> cell.setRo(value);
+        default -> cell.setRz(value);
+        }
+    }
+
+    /**
+     * Runs forward passes on a one-step kernel with input 0, where the error is
+     * 0.5 * tanh(cT-1) and no weight matters, so each iteration is labelled by
+     * its index in WI.
+     *
+     * @return the index of the snapshot kept by trackBest
+     */
+    private static int trackBest(LstmKernel kernel, double[] ctMinusOne, ArrayList<Double> errors) {
+        kernel.setDropout(false, 0, 1);
+        kernel.initialize(new double[] { 0 }, 0, 0.05);
+        for (int i = 0; i < ctMinusOne.length; i++) {
+            kernel.setWeight(LstmKernel.WI, 0, i);
+            kernel.setCtMinusOne(0, ctMinusOne[i]);
+            kernel.forward();
+            errors.add(kernel.getError(0));
+            assertEquals(i == Lstm.findGlobalMinima(errors), kernel.trackBest());
+        }
+        return (int) kernel.getBestWeight(LstmKernel.WI, 0);
+    }
+
+    private static double[] window(Random random) {
+        var data = new double[LENGTH];
+        for (int t = 0; t < LENGTH; t++) {
+            data[t] = random.nextDouble();
+        }
+        return data;
+    }
+
+    @Test
+    void testFourActivationsPerTimestepAndIteration() {
+        var random = new Random(3);
+        var activation = new CountingActivation();
+        var kernel = new LstmKernel(LENGTH);
+        kernel.setActivation(activation);
+        kernel.setDropout(true, 0.3, 1 / 0.7);
+        kernel.initialize(window(random), random.nextDouble(), 0.05);
+
+        int iterations = 10;
+        for (int i = 0; i < iterations; i++) {
+            kernel.forward();
+            kernel.backward();
+            kernel.updateWeights();
+            kernel.trackBest();
+        }
+        // sigmoid for i and o, tanh for z and c, all in forward(); backward() reuses them
+        assertEquals(2 * LENGTH * iterations, activation.sigmoidCalls);
+        assertEquals(2 * LENGTH * iterations, activation.tanhCalls);
+    }
+
+    @Test
+    void testMatchesCells() {
+        var random = new Random(17);
+        var input = window(random);
+        double target = random.nextDouble();
+        var weights = new double[LstmKernel.WEIGHT_TYPES][LENGTH];
+        for (var row : weights) {
+            for (int t = 0; t < LENGTH; t++) {
+                row[t] = random.nextDouble() - 0.5;
+            }
+        }
+        double learningRate = 0.05;
+        int iterations = 25;
+
+        var expected = trainCells(input, target, weights, learningRate, iterations);
+
+        var kernel = new LstmKernel(LENGTH);
+        kernel.setDropout(false, 0, 1);
+        kernel.initialize(input, target, learningRate);
+        for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+            for (int t = 0; t < LENGTH; t++) {
+                kernel.setWeight(type, t, weights[type][t]);
+            }
+        }
+        for (int i = 0; i < iterations; i++) {
+            kernel.forward();
+            kernel.backward();
+            kernel.updateWeights();
+            kernel.trackBest();
+        }
+
+        // Same arithmetic, so bit for bit the same
+        for (int type = 0; type < LstmKernel.WEIGHT_TYPES; type++) {
+            for (int t = 0; t < LENGTH; t++) {
+                assertEquals((double) expected.get(type).get(t), kernel.getBestWeight(type, t));
+            }
+        }
+        for (int t = 0; t < LENGTH; t++) {
+            assertEquals((double) expected.get(LstmKernel.WEIGHT_TYPES).get(t), kernel.getBestYt()[t]);
+            assertEquals((double) expected.get(LstmKernel.WEIGHT_TYPES + 1).get(t), kernel.getBestCt()[t]);
+        }
+    }
+
+    @Test
+    void testTrackBestMatchesFindGlobalMinima() {
+        var kernel = new LstmKernel(1);
+        double nan = Double.NaN;
+        var cases = new double[][] {
+                // first iteration always kept
+                { 2 }, { nan },
+                // ties keep the earlier one
+                { 2, 1, 1, 3 }, { 1, 1 }, { 1, -1 },
+                // NaN never replaces a number, a number replaces NaN
+                { 1, nan, 2 }, { nan, 1, nan, 1 }, { nan, nan },
+                { 3, 2, 1, 0.5, 0.25, 4 }, { Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, 2 } };
+        var expected = new int[] { 0, 0, 1, 0, 0, 0, 1, 0, 4, 2 };
+        for (int c = 0; c < cases.length; c++) {
+            var errors = new ArrayList<Double>();
+            int best = trackBest(kernel, cases[c], errors);
+            assertEquals(expected[c], best, "case " + c);
+            assertEquals(Lstm.findGlobalMinima(errors), best, "case " + c);
+            assertEquals((double) errors.get(best), kernel.getBestError(), "case " + c);
+        }
+    }
+
+    @Test
+    void testKeepCurrentIfUntrained() {
+        var kernel = new LstmKernel(1);
+        kernel.setDropout(false, 0, 1);
+        kernel.initialize(new double[] { 0 }, 0, 0.05);
+        kernel.setWeight(LstmKernel.WI, 0, 7);
+        kernel.keepCurrentIfUntrained();
+        assertEquals(7, kernel.getBestWeight(LstmKernel.WI, 0));
+        assertTrue(Double.isNaN(kernel.getBestError()));
+
+        // Any tracked iteration, even a NaN one, wins over the current weights
+        trackBest(kernel, new double[] { Double.NaN }, new ArrayList<>());
+        kernel.setWeight(LstmKernel.WI, 0, 7);
+        kernel.keepCurrentIfUntrained();
+        assertEquals(0, kernel.getBestWeight(LstmKernel.WI, 0));
+        assertFalse(kernel.trackBest());
+    }
+}
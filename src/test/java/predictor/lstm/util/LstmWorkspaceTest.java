@@ -0,0 +1,77 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.Executors;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.common.HyperParameters;
+import predictor.lstm.train.MakeModel;
+import predictor.lstm.util.Engine.EngineBuilder;
+
+public class LstmWorkspaceTest {
+
+    private record Fit(double[][] input, double[] target, ArrayList<ArrayList<Double>> weights) {
+    }
+
+    private static Fit fit(Random random, int length, HyperParameters hyperParameters) {
+        var input = new double[4][length];
+        var target = new double[input.length];
+        for (int i = 0; i < input.length; i++) {
+            for (int t = 0; t < length; t++) {
+                input[i][t] = random.nextDouble();
+            }
+            target[i] = random.nextDouble();
+        }
+        return new Fit(input, target, MakeModel.generateInitialWeightMatrix(length, hyperParameters));
+    }
+
+    private static ArrayList<ArrayList<ArrayList<Double>>> train(Fit fit, HyperParameters hyperParameters) {
+        var engine = new EngineBuilder()//
+                .setInputMatrix(fit.input())//
+                .setTargetVector(fit.target())//
+                .setDropoutStream(MakeModel.TREND, 0)//
+                .build();
+        engine.fit(15, fit.weights(), hyperParameters);
+        return engine.getWeights();
+    }
+
+    @Test
+    void testReusedWorkspaceMatchesFresh() throws Exception {
+        var random = new Random(21);
+        var hyperParameters = new HyperParameters();
+        hyperParameters.setDropoutSeed(99L);
+        // Two fits of one window length, another length, then the first again
+        var fits = new ArrayList<Fit>();
+        for (int length : new int[] { 8, 8, 6, 8 }) {
+            fits.add(fit(random, length, hyperParameters));
+        }
+
+        var executor = Executors.newSingleThreadExecutor();
+        try {
+            var reused = executor.submit(() -> {
+                var results = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
+                for (var fit : fits) {
+                    results.add(train(fit, hyperParameters));
+                }
+                return results;
+            }).get();
+
+            for (int i = 0; i < fits.size(); i++) {
+                // A new thread starts with an empty workspace
+                var fresh = Executors.newSingleThreadExecutor();
+                try {
+                    var fit = fits.get(i);
+                    assertEquals(fresh.submit(() -> train(fit, hyperParameters)).get(), reused.get(i));
+                } finally {
+                    fresh.shutdown();
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+}
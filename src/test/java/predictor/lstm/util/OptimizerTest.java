@@ -0,0 +1,48 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class OptimizerTest {
+
+    @Test
+    void testLegacyMatchesAdagradChain() {
+        double learningRate = 0.01;
+        double gradient = 0.3;
+        var weights = new double[] { 1, 1, 1, 1, 1 };
+        Optimizer.LEGACY_ADAGRAD.update(weights, 0, 1, weights.length, learningRate, gradient, new double[0], 0);
+
+        var rate = new AdaptiveLearningRate();
+        var local = 0.;
+        for (int t = 0; t < weights.length; t++) {
+            local = rate.adagradOptimizer(learningRate, local, gradient, t);
+            assertEquals(1 - local * gradient, weights[t]);
+        }
+    }
+
+    @Test
+    void testStatePersistsAcrossSteps() {
+        for (var optimizer : new Optimizer[] { Optimizer.ADAGRAD, Optimizer.RMSPROP, Optimizer.ADAM }) {
+            // strided row: every other weight belongs to the row
+            var weights = new double[6];
+            var state = new double[optimizer.stateSize()];
+            optimizer.update(weights, 1, 2, 3, 0.01, 0.5, state, 0);
+            double first = -weights[1];
+            assertEquals(0, weights[0]);
+            assertEquals(weights[1], weights[5]);
+
+            optimizer.update(weights, 1, 2, 3, 0.01, 0.5, state, 0);
+            double second = -weights[1] - first;
+            assertTrue(first > 0 && second > 0, optimizer.name());
+            // constant gradients: Adagrad and RMSProp shrink the step, Adam keeps it near the rate
+            if (optimizer == Optimizer.ADAM) {
+                assertEquals(0.01, first, 1e-6);
+                assertEquals(0.01, second, 1e-6);
+            } else {
+                assertTrue(second < first, optimizer.name());
+            }
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.jupiter.api.Test;
+
+public class SlotSchedulerTest {
+
+    @Test
+    void testLongestBlocksFirst() {
+        var costs = new double[] { 1, 50, 3, 50, 7, 2, 40 };
+        var plan = SlotScheduler.plan(costs, 3);
+        assertEquals(3, plan.size());
+        // 50, 2 | 50, 1 | 40, 7, 3
+        assertArrayEquals(new int[] { 1, 5 }, plan.get(0));
+        assertArrayEquals(new int[] { 0, 3 }, plan.get(1));
+        assertArrayEquals(new int[] { 2, 4, 6 }, plan.get(2));
+
+        var seen = new boolean[costs.length];
+        for (var block : plan) {
+            for (var slot : block) {
+                assertTrue(!seen[slot]);
+                seen[slot] = true;
+            }
+        }
+    }
+
+    @Test
+    void testBlocksBalanceCost() {
+        // 3 expensive slots among 45 cheap ones, 16 blocks
+        var costs = new double[48];
+        Arrays.fill(costs, 1);
+        costs[0] = 100;
+        costs[1] = 100;
+        costs[2] = 100;
+        var plan = SlotScheduler.plan(costs, 16);
+        assertEquals(16, plan.size());
+
+        int slots = 0;
+        double longest = 0;
+        for (var block : plan) {
+            slots += block.length;
+            longest = Math.max(longest, SlotScheduler.cost(costs, block));
+        }
+        assertEquals(48, slots);
+        // Each expensive slot alone in its block, not all three in one
+        assertEquals(100, longest);
+        assertEquals(100, SlotScheduler.cost(costs, plan.get(2)));
+    }
+
+    @Test
+    void testReport() {
+        var report = new SlotScheduler.ScheduleReport(4, 2, 100, 160, 60);
+        assertEquals(80, report.getIdeal());
+        assertEquals(0.8, report.getEfficiency(), 1e-12);
+        assertEquals(60, new SlotScheduler.ScheduleReport(2, 4, 60, 80, 60).getIdeal());
+    }
+}
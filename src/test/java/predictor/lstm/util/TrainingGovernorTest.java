@@ -0,0 +1,139 @@
+package predictor.lstm.util;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class TrainingGovernorTest {
+
+    @Test
+    void testParallelismFollowsForeignLoad() {
+        var load = new double[] { 0 };
+        var governor = new TrainingGovernor.Builder()//
+                .setCores(8)//
+                .setCoreShare(0.5)//
+                .setAdaptIntervalMillis(0)//
+                .setForeignLoad(() -> load[0])//
+                .build();
+        var pool = new ForkJoinPool(8);
+        try {
+            governor.attach(pool);
+            assertEquals(4, governor.getBudget());
+            assertEquals(4, pool.getParallelism());
+
+            load[0] = 6.5;
+            governor.start();
+            assertEquals(1, governor.getAllowedParallelism());
+            assertEquals(1, pool.getParallelism());
+
+            load[0] = 1;
+            governor.start();
+            assertEquals(4, pool.getParallelism());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testPauseBlocksUntilResume() throws InterruptedException {
+        var governor = new TrainingGovernor.Builder()//
+                .setCores(2)//
+                .setForeignLoad(() -> 0)//
+                .build();
+        governor.pause();
+        var passed = new CountDownLatch(1);
+        var worker = new Thread(() -> {
+            governor.start();
+            passed.countDown();
+        });
+        worker.setDaemon(true);
+        worker.start();
+
+        assertFalse(passed.await(100, TimeUnit.MILLISECONDS));
+        governor.resume();
+        assertTrue(passed.await(5, TimeUnit.SECONDS));
+        assertFalse(governor.isPaused());
+    }
+
+    @Test
+    void testDutyCycleRests() {
+        var governor = new TrainingGovernor.Builder()//
+                .setCores(2)//
+                .setDutyCycle(0.5)//
+                .setForeignLoad(() -> 0)//
+                .build();
+        long busySince = System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(50);
+        long before = System.nanoTime();
+        governor.checkpoint(busySince);
+        // busy 50 ms at a duty cycle of one half rests another 50 ms
+        assertTrue(System.nanoTime() - before >= TimeUnit.MILLISECONDS.toNanos(45));
+    }
+
+    @Test
+    void testSplitsBudgetBetweenPools() {
+        var load = new double[] { 0 };
+        var governor = new TrainingGovernor.Builder()//
+                .setCores(8)//
+                .setCoreShare(0.5)//
+                .setAdaptIntervalMillis(0)//
+                .setForeignLoad(() -> load[0])//
+                .build();
+        var train = new ForkJoinPool(8);
+        var validate = new ForkJoinPool(8);
+        try {
+            governor.attach(train);
+            assertEquals(4, train.getParallelism());
+            governor.attach(validate);
+            assertEquals(2, train.getParallelism());
+            assertEquals(2, validate.getParallelism());
+
+            load[0] = 5;
+            governor.start();
+            assertEquals(2, train.getParallelism());
+            assertEquals(1, validate.getParallelism());
+        } finally {
+            train.shutdown();
+            validate.shutdown();
+        }
+    }
+
+    @Test
+    void testPoolsNeverExceedBudget() {
+        var load = new double[] { 0 };
+        var governor = new TrainingGovernor.Builder()//
+                .setCores(12)//
+                .setCoreShare(0.75)//
+                .setAdaptIntervalMillis(0)//
+                .setForeignLoad(() -> load[0])//
+                .build();
+        // Sized like TrainingExecutors: the validate pool has fewer threads
+        var train = new ForkJoinPool(11);
+        var validate = new ForkJoinPool(3);
+        try {
+            governor.attach(train);
+            governor.attach(validate);
+            for (double foreign = 0; foreign <= 12; foreign += 0.5) {
+                load[0] = foreign;
+                governor.start();
+                int sum = train.getParallelism() + validate.getParallelism();
+                assertTrue(sum <= governor.getBudget(), sum + " at load " + foreign);
+                assertTrue(sum <= Math.max(2, governor.getAllowedParallelism()), sum + " at load " + foreign);
+                assertTrue(validate.getParallelism() <= 3);
+            }
+            // Unused share of the small pool goes to the other one
+            load[0] = 0;
+            governor.start();
+            assertEquals(6, train.getParallelism());
+            assertEquals(3, validate.getParallelism());
+        } finally {
+            train.shutdown();
+            validate.shutdown();
+        }
+    }
+}
@@ -0,0 +1,49 @@
+package predictor.lstm.utilities;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import org.junit.jupiter.api.Test;
+
+public class ActivationBackendTest {
+
+    @Test
+    void testErrorWithinDocumentedBound() {
+        for (var backend : ActivationBackend.values()) {
+            double maxSigmoid = 0;
+            double maxTanh = 0;
+            for (double x = -40; x <= 40; x += 1e-3) {
+                maxSigmoid = Math.max(maxSigmoid, Math.abs(backend.sigmoid(x) - MathUtils.sigmoid(x)));
+                maxTanh = Math.max(maxTanh, Math.abs(backend.tanh(x) - MathUtils.tanh(x)));
+                // The kernels take the derivatives from the approximated values
+                assertEquals(MathUtils.sigmoidDerivative(x),
+                        MathUtils.sigmoidDerivativeFromOutput(backend.sigmoid(x)), 2 * backend.getMaxSigmoidError());
+                assertEquals(MathUtils.tanhDerivative(x), MathUtils.tanhDerivativeFromOutput(backend.tanh(x)),
+                        2.1 * backend.getMaxTanhError());
+            }
+            assertTrue(maxSigmoid <= backend.getMaxSigmoidError(), backend + " sigmoid error " + maxSigmoid);
+            assertTrue(maxTanh <= backend.getMaxTanhError(), backend + " tanh error " + maxTanh);
+        }
+    }
+
+    @Test
+    void testSpecialValues() {
+        for (var backend : ActivationBackend.values()) {
+            assertEquals(0.5, backend.sigmoid(0), backend.getMaxSigmoidError());
+            assertEquals(0.0, backend.tanh(0), backend.getMaxTanhError());
+            assertEquals(1.0, backend.sigmoid(Double.POSITIVE_INFINITY));
+            assertEquals(0.0, backend.sigmoid(Double.NEGATIVE_INFINITY));
+            assertEquals(1.0, backend.tanh(Double.POSITIVE_INFINITY));
+            assertEquals(-1.0, backend.tanh(Double.NEGATIVE_INFINITY));
+            assertTrue(Double.isNaN(backend.tanh(Double.NaN)));
+        }
+    }
+
+    @Test
+    void testExactMatchesMathUtils() {
+        for (double x = -10; x <= 10; x += 0.37) {
+            assertEquals(MathUtils.sigmoid(x), ActivationBackend.EXACT.sigmoid(x));
+            assertEquals(MathUtils.tanh(x), ActivationBackend.EXACT.tanh(x));
+        }
+    }
+}
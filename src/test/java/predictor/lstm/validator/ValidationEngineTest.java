@@ -0,0 +1,131 @@
+package predictor.lstm.validator;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import predictor.lstm.common.DataStatistics;
+import predictor.lstm.common.HyperParameters;
+import predictor.lstm.common.LstmPredictor;
+import predictor.lstm.performance.PerformanceMatrix;
+import predictor.lstm.preprocessingpipeline.PreprocessingPipeImpl;
+import predictor.lstm.utilities.UtilityConversion;
+
+public class ValidationEngineTest {
+
+    private static double[][] data(Random random, int segments) {
+        var modifiedData = new double[segments][40];
+        for (var segment : modifiedData) {
+            for (int i = 0; i < segment.length; i++) {
+                segment[i] = 0.2 + 0.6 * random.nextDouble();
+            }
+        }
+        return modifiedData;
+    }
+
+    private static ArrayList<ArrayList<Double>> model(Random random, int window) {
+        var model = new ArrayList<ArrayList<Double>>();
+        for (int type = 0; type < 8; type++) {
+            var row = new ArrayList<Double>();
+            for (int t = 0; t < window; t++) {
+                row.add(random.nextDouble() - 0.5);
+            }
+            model.add(row);
+        }
+        return model;
+    }
+
+    @Test
+    void testScoreMatchesPerCandidatePipeline() {
+        var random = new Random(4);
+        var hyperParameters = new HyperParameters();
+        int window = hyperParameters.getWindowSizeTrend();
+        var modifiedData = data(random, 3);
+        var model = model(random, window);
+
+        var engine = ValidationEngine.forTrend(modifiedData, hyperParameters, null);
+        assertEquals(modifiedData.length, engine.size());
+
+        var pipe = new PreprocessingPipeImpl(hyperParameters);
+        for (int j = 0; j < modifiedData.length; j++) {
+            var intermediate = (double[][][]) pipe.setData(modifiedData[j]).groupToStiffedWindow().execute();
+            var preprocessed = (double[][][]) pipe.setData(intermediate).normalize().shuffle().execute();
+            var result = (double[]) pipe//
+                    .setData(UtilityConversion
+                            .to1DArray(LstmPredictor.predictPre(preprocessed[0], model, hyperParameters)))//
+                    .setMean(DataStatistics.getMean(intermediate[0]))//
+                    .setStandardDeviation(DataStatistics.getStandardDeviation(intermediate[0]))//
+                    .reverseNormalize()//
+                    .reverseScale()//
+                    .execute();
+            var target = (double[]) pipe.setData(intermediate[1][0]).reverseScale().execute();
+            double expected = PerformanceMatrix.rmsError(target, result)
+                    * (1 - PerformanceMatrix.accuracy(target, result, 0.01));
+
+            assertEquals(expected, engine.score(j, model, hyperParameters));
+        }
+    }
+
+    @Test
+    void testParallelScoreAllMatchesScore() {
+        var random = new Random(8);
+        var hyperParameters = new HyperParameters();
+        int window = hyperParameters.getWindowSizeTrend();
+        var modifiedData = data(random, 5);
+        var allModels = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
+        for (int candidate = 0; candidate < 4; candidate++) {
+            var candidateModels = new ArrayList<ArrayList<ArrayList<Double>>>();
+            for (int slot = 0; slot < modifiedData.length; slot++) {
+                candidateModels.add(model(random, window));
+            }
+            allModels.add(candidateModels);
+        }
+
+        var engine = ValidationEngine.forTrend(modifiedData, hyperParameters, null);
+        var sequential = engine.scoreAll(allModels, hyperParameters);
+        var pool = new ForkJoinPool(3);
+        try {
+            var parallel = engine.setPool(pool).scoreAll(allModels, hyperParameters);
+            for (int candidate = 0; candidate < allModels.size(); candidate++) {
+                assertArrayEquals(sequential[candidate], parallel[candidate]);
+                for (int slot = 0; slot < modifiedData.length; slot++) {
+                    assertEquals(engine.score(slot, allModels.get(candidate).get(slot), hyperParameters),
+                            parallel[candidate][slot]);
+                }
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    void testStopsScoringOnceCancelled() {
+        var random = new Random(12);
+        var hyperParameters = new HyperParameters();
+        int window = hyperParameters.getWindowSizeTrend();
+        var modifiedData = data(random, 3);
+        var allModels = new ArrayList<ArrayList<ArrayList<ArrayList<Double>>>>();
+        for (int candidate = 0; candidate < 2; candidate++) {
+            var candidateModels = new ArrayList<ArrayList<ArrayList<Double>>>();
+            for (int slot = 0; slot < modifiedData.length; slot++) {
+                candidateModels.add(model(random, window));
+            }
+            allModels.add(candidateModels);
+        }
+
+        // Cancelled after two of the six pairs were scored
+        var checks = new AtomicInteger();
+        var engine = ValidationEngine.forTrend(modifiedData, hyperParameters, null)//
+                .setCancellation(() -> checks.incrementAndGet() > 2);
+        assertThrows(CancellationException.class, () -> engine.scoreAll(allModels, hyperParameters));
+        assertEquals(3, checks.get());
+    }
+}
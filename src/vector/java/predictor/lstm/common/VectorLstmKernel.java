@@ -0,0 +1,81 @@
+package predictor.lstm.common;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Lane-parallel LSTM inference: each SIMD lane runs the recurrence for one
+ * input window, with the per-timestep weights broadcast to all lanes.
+ *
+ * <p>
+ * This class is in its own source set, compiled with
+ * {@code --add-modules jdk.incubator.vector}. {@link BatchLstmPredictor} looks
+ * it up reflectively, and only when the module is present.
+ */
+public class VectorLstmKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /**
+     * Predicts full blocks of windows. Every selected window must hold at least
+     * {@code wi.length} values; the last {@code wi.length} of them are used.
+     *
+     * @param wi      input gate weights
+     * @param wo      output gate weights
+     * @param wz      cell input weights
+     * @param rI      input gate recurrent weights
+     * @param rO      output gate recurrent weights
+     * @param rZ      cell input recurrent weights
+     * @param ctInit  initial cell state
+     * @param ytInit  initial output
+     * @param data    the input windows
+     * @param indices indices into data of the windows to predict
+     * @param count   number of valid entries in indices
+     * @param result  receives the prediction of each window, by data index
+     * @return the number of leading entries of indices that were predicted; the
+     *         rest, fewer than one block, are left to the caller
+     */
+    public static int predict(double[] wi, double[] wo, double[] wz, double[] rI, double[] rO, double[] rZ,
+                              double ctInit, double ytInit, double[][] data, int[] indices, int count, double[] result) {
+        int lanes = SPECIES.length();
+        int windowSize = wi.length;
+        var xs = new double[windowSize * lanes];
+        var out = new double[lanes];
+        var one = DoubleVector.broadcast(SPECIES, 1.0);
+
+        int done = 0;
+        for (; done + lanes <= count; done += lanes) {
+            // transpose the block so each timestep is one contiguous vector
+            for (int lane = 0; lane < lanes; lane++) {
+                var window = data[indices[done + lane]];
+                int from = window.length - windowSize;
+                for (int t = 0; t < windowSize; t++) {
+                    xs[t * lanes + lane] = window[from + t];
+                }
+            }
+
+            var ct = DoubleVector.broadcast(SPECIES, ctInit);
+            var yt = DoubleVector.broadcast(SPECIES, ytInit);
+            for (int t = 0; t < windowSize; t++) {
+                var xt = DoubleVector.fromArray(SPECIES, xs, t * lanes);
+                var it = sigmoid(xt.mul(wi[t]).add(yt.mul(rI[t])), one);
+                var ot = sigmoid(xt.mul(wo[t]).add(yt.mul(rO[t])), one);
+                var zt = xt.mul(wz[t]).add(yt.mul(rZ[t])).lanewise(VectorOperators.TANH);
+
+                ct = ct.add(it.mul(zt));
+                yt = ot.mul(ct.lanewise(VectorOperators.TANH));
+            }
+
+            yt.intoArray(out, 0);
+            for (int lane = 0; lane < lanes; lane++) {
+                result[indices[done + lane]] = out[lane];
+            }
+        }
+        return done;
+    }
+
+    private static DoubleVector sigmoid(DoubleVector val, DoubleVector one) {
+        return one.div(one.add(val.neg().lanewise(VectorOperators.EXP)));
+    }
+}